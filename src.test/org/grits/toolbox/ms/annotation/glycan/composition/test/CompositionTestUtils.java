@@ -0,0 +1,43 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Helpers shared by the tests on generated compositions.
+ */
+public class CompositionTestUtils {
+
+	/**
+	 * Parses the given composition with monoisotopic and permethylated masses.
+	 *
+	 * @param strComp String of a composition, or {@code null}
+	 * @return Composition, or {@code null} if the string is {@code null}
+	 * @throws DictionaryException
+	 */
+	public static Composition parseMethylated(String strComp) throws DictionaryException {
+		if ( strComp == null )
+			return null;
+		Composition comp = CompositionUtils.parse(strComp);
+		comp.setMassOptions(true, PerderivatizationType.METHYL);
+		return comp;
+	}
+
+	/**
+	 * Returns {@code true} if the given lists have the same size and the same
+	 * compositions in any order.
+	 */
+	public static boolean isSameSet(List<Composition> lComps1, List<Composition> lComps2) {
+		if ( lComps1.size() != lComps2.size() )
+			return false;
+		Set<Composition> setComps1 = new HashSet<>(lComps1);
+		Set<Composition> setComps2 = new HashSet<>(lComps2);
+		return setComps1.equals(setComps2);
+	}
+}
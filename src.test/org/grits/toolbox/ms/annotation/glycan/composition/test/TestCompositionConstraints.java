@@ -0,0 +1,111 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionGenerator;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.CompositionGeneratorSettings;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ICompositionConstraint;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ImplicationConstraint;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.LinearConstraint;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the compositions generated with constraints with the ones generated
+ * without constraints and filtered afterwards.
+ */
+public class TestCompositionConstraints {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		ResidueType hex = ResidueDictionary.getResidueType("Hex");
+		ResidueType hexNAc = ResidueDictionary.getResidueType("HexNAc");
+		ResidueType dHex = ResidueDictionary.getResidueType("dHex");
+		ResidueType neuAc = ResidueDictionary.getResidueType("Neu5Ac");
+		ResidueType neuGc = ResidueDictionary.getResidueType("Neu5Gc");
+		ResidueType sulfate = ResidueDictionary.getResidueType("S");
+
+		List<ICompositionConstraint> lConstraints = new ArrayList<>();
+		lConstraints.add(LinearConstraint.lessOrEqual(neuAc, hexNAc, -2));
+		lConstraints.add(LinearConstraint.lessOrEqual(dHex, hexNAc, 0));
+		lConstraints.add(new ImplicationConstraint(LinearConstraint.atLeast(sulfate, 1), LinearConstraint.atLeast(hexNAc, 1)));
+		lConstraints.add(new ImplicationConstraint(LinearConstraint.atLeast(neuGc, 1), LinearConstraint.atMost(hex, 5)));
+		lConstraints.add(new LinearConstraint(10).addTerm(hex, 1).addTerm(hexNAc, 1).addTerm(neuAc, -1));
+
+		Composition compMin = CompositionUtils.parse("Hex:3,HexNAc:2--redEnd");
+		compMin.setMassOptions(true, PerderivatizationType.METHYL);
+		Composition compMax = CompositionUtils.parse("Hex:9,HexNAc:7,dHex:3,Neu5Ac:4,Neu5Gc:2,S:2--redEnd");
+		compMax.setMassOptions(true, PerderivatizationType.METHYL);
+
+		for ( double dMassThreshold : new double[] { 3000d, Double.MAX_VALUE } ) {
+			// CompositionUtils
+			List<Composition> lAll = CompositionUtils.generateCompositions(compMin, compMax, dMassThreshold);
+			List<Composition> lFiltered = filter(lAll, lConstraints);
+			List<Composition> lConstrained = CompositionUtils.generateCompositions(compMin, compMax, dMassThreshold, lConstraints);
+			System.out.println("CompositionUtils (threshold "+dMassThreshold+"): "+lAll.size()+" -> "
+					+lConstrained.size()+" compositions, "+(isSame(lFiltered, lConstrained)? "OK" : "NG"));
+
+			// CompositionGenerator
+			CompositionGenerator gen = new CompositionGenerator(compMin, compMax);
+			gen.setMassThreshold(dMassThreshold);
+			lAll = new ArrayList<>();
+			while ( gen.hasNext() )
+				lAll.add(gen.next());
+			lFiltered = filter(lAll, lConstraints);
+			gen = new CompositionGenerator(compMin, compMax);
+			gen.setMassThreshold(dMassThreshold);
+			for ( ICompositionConstraint constraint : lConstraints )
+				gen.addConstraint(constraint);
+			lConstrained = new ArrayList<>();
+			while ( gen.hasNext() )
+				lConstrained.add(gen.next());
+			System.out.println("CompositionGenerator (threshold "+dMassThreshold+"): "+lAll.size()+" -> "
+					+lConstrained.size()+" compositions, "+(isSame(lFiltered, lConstrained)? "OK" : "NG"));
+		}
+
+		// Settings with constraints
+		CompositionGeneratorSettings settings = new CompositionGeneratorSettings();
+		settings.setResidueCount(hex, 0, 6);
+		settings.setResidueCount(hexNAc, 0, 5);
+		settings.setResidueCount(dHex, 0, 2);
+		settings.setResidueCount(neuAc, 0, 3);
+		settings.setResidueCount(sulfate, 0, 2);
+		settings.setMassOptions(true, PerderivatizationType.METHYL);
+		List<Composition> lAll = CompositionUtils.generateCompositions(settings);
+		for ( ICompositionConstraint constraint : lConstraints )
+			settings.addConstraint(constraint);
+		List<Composition> lConstrained = CompositionUtils.generateCompositions(settings);
+		System.out.println("CompositionGeneratorSettings: "+lAll.size()+" -> "+lConstrained.size()+" compositions, "
+				+(isSame(filter(lAll, lConstraints), lConstrained)? "OK" : "NG"));
+	}
+
+	private static List<Composition> filter(List<Composition> lCompositions, List<ICompositionConstraint> lConstraints) {
+		List<Composition> lFiltered = new ArrayList<>();
+		for ( Composition comp : lCompositions ) {
+			boolean bSatisfied = true;
+			for ( ICompositionConstraint constraint : lConstraints ) {
+				if ( !constraint.isSatisfied(comp) )
+					bSatisfied = false;
+			}
+			if ( bSatisfied )
+				lFiltered.add(comp);
+		}
+		return lFiltered;
+	}
+
+	private static boolean isSame(List<Composition> lComps1, List<Composition> lComps2) {
+		if ( lComps1.size() != lComps2.size() )
+			return false;
+		for ( int i=0; i<lComps1.size(); i++ ) {
+			if ( !lComps1.get(i).toString().equals(lComps2.get(i).toString()) )
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,84 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.index.CompositionIndexConfiguration;
+import org.grits.toolbox.ms.annotation.glycan.composition.index.CompositionMassIndex;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the compositions looked up in a reopened composition mass index with
+ * the generated compositions filtered by the mass windows.
+ */
+public class TestCompositionMassIndex {
+
+	public static void main(String[] args) throws DictionaryException, IOException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		// Isobaric compositions (Hex+Neu5Ac and dHex+Neu5Gc) having the same mass,
+		// the same min and max compositions, and a max with no monosaccharide
+		String[][] aMinMax = {
+				{"Hex:3,HexNAc:2--redEnd", "Hex:5,HexNAc:4,Neu5Ac:2--redEnd"},
+				{null, "Hex:4,HexNAc:3,dHex:2,Neu5Ac:2,Neu5Gc:2,S:1,Ac:1"},
+				{"Hex:3,HexNAc:2", "Hex:3,HexNAc:2"},
+				{null, "S:2"}
+			};
+		double dMassThreshold = 3000d;
+		for ( String[] aPair : aMinMax ) {
+			Composition compMin = CompositionTestUtils.parseMethylated(aPair[0]);
+			Composition compMax = CompositionTestUtils.parseMethylated(aPair[1]);
+			List<Composition> lAll = CompositionUtils.generateCompositions(compMin, compMax, dMassThreshold);
+
+			File file = File.createTempFile("compositions", ".idx");
+			file.delete();
+			try {
+				CompositionMassIndex.openOrBuild(file, new CompositionIndexConfiguration(compMin, compMax, dMassThreshold));
+				// Reopen the index built above
+				CompositionMassIndex index = CompositionMassIndex.open(file,
+						new CompositionIndexConfiguration(compMin, compMax, dMassThreshold));
+				if ( CompositionMassIndex.open(file, new CompositionIndexConfiguration(compMin, compMax, dMassThreshold + 1d)) != null )
+					System.out.println("Index opened with another configuration");
+
+				boolean bIsSorted = true;
+				for ( int i=1; i<index.size(); i++ ) {
+					if ( index.getMass(i-1) > index.getMass(i) )
+						bIsSorted = false;
+				}
+
+				boolean bIsSame = true;
+				for ( double dLower=0d; dLower<dMassThreshold+200d; dLower+=37.3d ) {
+					if ( !CompositionTestUtils.isSameSet(index.findCompositionsInRange(dLower, dLower+50d),
+							filter(lAll, dLower, dLower+50d)) )
+						bIsSame = false;
+				}
+				for ( int i=0; i<lAll.size(); i+=11 ) {
+					double dTarget = lAll.get(i).computeMass();
+					double dTolerance = dTarget * 10d / 1000000d;
+					if ( !CompositionTestUtils.isSameSet(index.findCompositions(dTarget, 10d),
+							filter(lAll, dTarget-dTolerance, dTarget+dTolerance)) )
+						bIsSame = false;
+				}
+				System.out.println(compMin+" - "+compMax+": "+index.size()+" compositions, "
+						+(index.size() == lAll.size() && bIsSorted && bIsSame? "OK" : "NG"));
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	private static List<Composition> filter(List<Composition> lCompositions, double dLowerMass, double dUpperMass) {
+		List<Composition> lFiltered = new ArrayList<>();
+		for ( Composition comp : lCompositions ) {
+			double dMass = comp.computeMass();
+			if ( dMass >= dLowerMass && dMass <= dUpperMass )
+				lFiltered.add(comp);
+		}
+		return lFiltered;
+	}
+}
@@ -0,0 +1,94 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionGenerator;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.LinearConstraint;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the compositions generated in parallel through CompositionSpliterator
+ * with the ones generated sequentially.
+ */
+public class TestCompositionSpliterator {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		Composition compMin = CompositionUtils.parse("Hex:3,HexNAc:2");
+		compMin.setMassOptions(true, PerderivatizationType.METHYL);
+		Composition compMax = CompositionUtils.parse("Hex:12,HexNAc:10,dHex:4,Neu5Ac:5,Neu5Gc:2,S:3,P:2");
+		compMax.setMassOptions(true, PerderivatizationType.METHYL);
+
+		for ( double dMassThreshold : new double[] { 3000d, 5000d, Double.MAX_VALUE } ) {
+			for ( int iConstraint=0; iConstraint<2; iConstraint++ ) {
+				boolean bConstrained = (iConstraint == 1);
+				List<Composition> lSequential = new ArrayList<>();
+				CompositionGenerator gen = createGenerator(compMin, compMax, dMassThreshold, bConstrained);
+				while ( gen.hasNext() )
+					lSequential.add(gen.next());
+
+				// Ordered parallel stream
+				List<Composition> lOrdered = createGenerator(compMin, compMax, dMassThreshold, bConstrained)
+						.stream(true).collect(Collectors.toList());
+				// Unordered parallel stream
+				List<Composition> lUnordered = StreamSupport.stream(
+						createGenerator(compMin, compMax, dMassThreshold, bConstrained).spliterator(false), true)
+						.collect(Collectors.toList());
+				// All leaves of splitting regardless of the number of processors
+				List<Composition> lSplit = new ArrayList<>();
+				int nLeaves = splitAll(createGenerator(compMin, compMax, dMassThreshold, bConstrained).spliterator(true), lSplit);
+
+				System.out.println("threshold "+dMassThreshold+(bConstrained? " with constraints" : "")+": "
+						+lSequential.size()+" compositions, "+nLeaves+" leaves, "
+						+(lOrdered.equals(lSequential)
+							&& lUnordered.size() == lSequential.size()
+							&& new HashSet<>(lUnordered).equals(new HashSet<>(lSequential))
+							&& lSplit.equals(lSequential)? "OK" : "NG"));
+			}
+		}
+	}
+
+	private static CompositionGenerator createGenerator(Composition compMin, Composition compMax,
+			double dMassThreshold, boolean bConstrained) throws DictionaryException {
+		CompositionGenerator gen = new CompositionGenerator(compMin, compMax);
+		gen.setMassThreshold(dMassThreshold);
+		if ( bConstrained ) {
+			gen.addConstraint(LinearConstraint.lessOrEqual(
+					ResidueDictionary.getResidueType("Neu5Ac"), ResidueDictionary.getResidueType("HexNAc"), -2));
+			gen.addConstraint(LinearConstraint.atMost(ResidueDictionary.getResidueType("S"), 1));
+		}
+		return gen;
+	}
+
+	/**
+	 * Splits the spliterator until no more splits and adds the compositions of
+	 * the leaves in encounter order.
+	 *
+	 * @return The number of leaves
+	 */
+	private static int splitAll(Spliterator<Composition> spliterator, final List<Composition> lCompositions) {
+		Spliterator<Composition> prefix = spliterator.trySplit();
+		if ( prefix == null ) {
+			spliterator.forEachRemaining(new Consumer<Composition>() {
+				@Override
+				public void accept(Composition comp) {
+					lCompositions.add(comp);
+				}
+			});
+			return 1;
+		}
+		// The split prefix precedes the rest
+		return splitAll(prefix, lCompositions) + splitAll(spliterator, lCompositions);
+	}
+}
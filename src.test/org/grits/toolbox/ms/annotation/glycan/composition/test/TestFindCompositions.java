@@ -0,0 +1,78 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the compositions found by the target masses with the ones generated
+ * without mass threshold and filtered by the mass windows.
+ */
+public class TestFindCompositions {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[][] aMinMax = {
+				{"Hex:3,HexNAc:2", "Hex:7,HexNAc:6,Neu5Ac:4,dHex:1"},
+				{null, "Hex:6,HexNAc:5,dHex:2,S:2"},
+				{"HexNAc:2--redEnd", "Hex:9,HexNAc:2--redEnd"}
+			};
+		double dTolerancePPM = 10d;
+		for ( String[] aPair : aMinMax ) {
+			Composition compMin = CompositionTestUtils.parseMethylated(aPair[0]);
+			Composition compMax = CompositionTestUtils.parseMethylated(aPair[1]);
+			List<Composition> lAll = CompositionUtils.generateCompositions(compMin, compMax, Double.MAX_VALUE);
+
+			// Targets at the masses of some compositions and between them
+			List<Double> lTargets = new ArrayList<>();
+			for ( int i=0; i<lAll.size(); i+=7 ) {
+				double dMass = lAll.get(i).computeMass();
+				lTargets.add(dMass);
+				lTargets.add(dMass + dMass * dTolerancePPM / 2000000d);
+				lTargets.add(dMass + 0.5d);
+			}
+			// Targets outside the masses of all compositions
+			lTargets.add(100d);
+			lTargets.add(10000d);
+
+			int nFound = 0;
+			boolean bIsSame = true;
+			for ( double dTarget : lTargets ) {
+				List<Composition> lFound = CompositionUtils.findCompositions(compMin, compMax, dTarget, dTolerancePPM);
+				nFound += lFound.size();
+				if ( !CompositionTestUtils.isSameSet(lFound, filter(lAll, new double[] { dTarget }, dTolerancePPM)) )
+					bIsSame = false;
+			}
+			System.out.println(compMin+" - "+compMax+": "+lTargets.size()+" targets, "+nFound+" compositions, "
+					+(bIsSame? "OK" : "NG"));
+
+			// All targets at once
+			double[] aTargets = new double[lTargets.size()];
+			for ( int i=0; i<aTargets.length; i++ )
+				aTargets[i] = lTargets.get(i);
+			List<Composition> lFound = CompositionUtils.findCompositions(compMin, compMax, aTargets, dTolerancePPM);
+			System.out.println(compMin+" - "+compMax+": multiple targets, "+lFound.size()+" compositions, "
+					+(CompositionTestUtils.isSameSet(lFound, filter(lAll, aTargets, dTolerancePPM))? "OK" : "NG"));
+		}
+	}
+
+	private static List<Composition> filter(List<Composition> lCompositions, double[] aTargets, double dTolerancePPM) {
+		List<Composition> lFiltered = new ArrayList<>();
+		for ( Composition comp : lCompositions ) {
+			double dMass = comp.computeMass();
+			for ( double dTarget : aTargets ) {
+				double dTolerance = Math.abs(dTarget) * dTolerancePPM / 1000000d;
+				if ( dMass < dTarget - dTolerance || dMass > dTarget + dTolerance )
+					continue;
+				lFiltered.add(comp);
+				break;
+			}
+		}
+		return lFiltered;
+	}
+}
@@ -0,0 +1,87 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentMassWindow;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the fragments enumerated by the multisets of fragment types with the
+ * ones generated by the sequential cleavages.
+ */
+public class TestFragmentEnumeration {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[] aCompositions = {
+				"Hex:3,HexNAc:2--redEnd",
+				"Hex:2,HexNAc:2,S:1",
+				"Hex:5,HexNAc:4,dHex:1,Neu5Ac:2--redEnd",
+				"Hex:4,HexNAc:3,S:2,P:1,Ac:1",
+				"HexNAc:2,S:3--redEnd"
+			};
+		// Maximum numbers of cleavages and cross-ring cleavages
+		int[][] aLimits = { {2, 1}, {3, 0}, {-1, 1}, {1, 2} };
+		// The large composition has hundreds of thousands of fragments without
+		// the limit of cleavages or with two cross-ring cleavages
+		String strLarge = "Hex:5,HexNAc:4,dHex:1,Neu5Ac:2--redEnd";
+		int[][] aLargeLimits = { {2, 1}, {3, 0} };
+		for ( String strComp : aCompositions ) {
+			Composition comp = CompositionUtils.parse(strComp);
+			comp.setMassOptions(true, PerderivatizationType.METHYL);
+			for ( int[] aLimit : ( strComp.equals(strLarge) )? aLargeLimits : aLimits ) {
+				for ( boolean bWindow : new boolean[] {false, true} ) {
+					CompositionFragmenter fragSeq = createFragmenter(aLimit, bWindow, false);
+					CompositionFragmenter fragComb = createFragmenter(aLimit, bWindow, true);
+
+					long t0 = System.currentTimeMillis();
+					List<CompositionFragment> lSeq = fragSeq.computeFragmentObjects(comp);
+					long t1 = System.currentTimeMillis();
+					List<CompositionFragment> lComb = fragComb.computeFragmentObjects(comp);
+					long t2 = System.currentTimeMillis();
+					System.out.println(strComp+" "+fragComb.getCurrentFragmentOptions()+( bWindow? " window" : "" )
+							+": "+lComb.size()+" fragments, "+(isSameSet(lSeq, lComb)? "OK" : "NG")
+							+" ("+(t1-t0)+"ms vs "+(t2-t1)+"ms)");
+				}
+			}
+		}
+	}
+
+	private static CompositionFragmenter createFragmenter(int[] aLimit, boolean bWindow, boolean bCombinatorial) {
+		CompositionFragmenter fragmenter = new CompositionFragmenter();
+		fragmenter.setCache(new CompositionFragmenterCache());
+		fragmenter.setAllFragments(true);
+		fragmenter.setMaxCleavages(aLimit[0]);
+		fragmenter.setMaxCrossRingCleavages(aLimit[1]);
+		if ( bWindow ) {
+			FragmentMassWindow window = new FragmentMassWindow(400.0d, 900.0d);
+			window.addIon(1, 22.989218d);
+			window.addIon(2, 2*22.989218d);
+			fragmenter.setMassWindow(window);
+		}
+		fragmenter.setCombinatorialEnumeration(bCombinatorial);
+		return fragmenter;
+	}
+
+	private static boolean isSameSet(List<CompositionFragment> lFrags1, List<CompositionFragment> lFrags2) {
+		if ( lFrags1.size() != lFrags2.size() )
+			return false;
+		Set<String> setFrags1 = new HashSet<>();
+		for ( CompositionFragment frag : lFrags1 )
+			setFrags1.add(frag.toString());
+		Set<String> setFrags2 = new HashSet<>();
+		for ( CompositionFragment frag : lFrags2 )
+			setFrags2.add(frag.toString());
+		return setFrags2.size() == lFrags2.size() && setFrags1.equals(setFrags2);
+	}
+}
@@ -0,0 +1,100 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentLattice;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the fragments merged on a FragmentLattice shared by all compositions
+ * of a range with the fragments computed for each composition alone. The
+ * fragments must be in the same order.
+ */
+public class TestFragmentLattice {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[][] aMinMax = {
+				{"Hex:3,HexNAc:2--redEnd", "Hex:5,HexNAc:4,dHex:1,Neu5Ac:1--redEnd"},
+				{null, "Hex:3,HexNAc:3,S:2"}
+			};
+		for ( String[] aPair : aMinMax ) {
+			Composition compMin = ( aPair[0] == null )? null : CompositionUtils.parse(aPair[0]);
+			Composition compMax = CompositionUtils.parse(aPair[1]);
+			compMax.setMassOptions(true, PerderivatizationType.METHYL);
+			if ( compMin != null )
+				compMin.setMassOptions(true, PerderivatizationType.METHYL);
+			List<Composition> lComps = CompositionUtils.generateCompositions(compMin, compMax, Double.MAX_VALUE);
+
+			FragmentLattice lattice = new FragmentLattice();
+			CompositionFragmenter fragLattice = createFragmenter();
+			fragLattice.setFragmentLattice(lattice);
+			int nDifferences = 0;
+			for ( Composition comp : lComps ) {
+				List<CompositionFragment> lFrags = fragLattice.computeFragmentObjects(comp);
+				List<CompositionFragment> lFragsRef = createFragmenter().computeFragmentObjects(comp);
+				if ( !isSameList(lFrags, lFragsRef) )
+					nDifferences++;
+			}
+			int nComputed = lattice.getNumberOfComputedNodes();
+			System.out.println(compMin+" - "+compMax+": "+lComps.size()+" compositions, "+lattice.getNumberOfNodes()
+					+" nodes, "+nComputed+" computed, "+nDifferences+" differences, "
+					+(nDifferences == 0 && nComputed == lattice.getNumberOfNodes()? "OK" : "NG"));
+
+			// Edges are linked in both directions, and all nodes are reached from the compositions
+			Set<FragmentLattice.Node> setNodes = new HashSet<>();
+			List<FragmentLattice.Node> lNodes = new ArrayList<>();
+			for ( Composition comp : lComps ) {
+				FragmentLattice.Node node = lattice.getNode(fragLattice.getCurrentFragmentOptions(), comp);
+				if ( setNodes.add(node) )
+					lNodes.add(node);
+			}
+			boolean bLinked = true;
+			int nEdges = 0;
+			for ( int i=0; i<lNodes.size(); i++ ) {
+				FragmentLattice.Node node = lNodes.get(i);
+				for ( FragmentLattice.Node parent : node.getParents() ) {
+					if ( !parent.getChildren().contains(node) )
+						bLinked = false;
+					nEdges++;
+				}
+				for ( FragmentLattice.Node child : node.getChildren() ) {
+					if ( setNodes.add(child) )
+						lNodes.add(child);
+				}
+			}
+			System.out.println(compMin+" - "+compMax+": "+nEdges+" edges, "
+					+(bLinked && nEdges == lattice.getNumberOfEdges() && lNodes.size() == lattice.getNumberOfNodes()? "OK" : "NG"));
+		}
+	}
+
+	private static CompositionFragmenter createFragmenter() {
+		CompositionFragmenter fragmenter = new CompositionFragmenter();
+		fragmenter.setCache(new CompositionFragmenterCache());
+		fragmenter.setAllFragments(true);
+		fragmenter.setMaxCleavages(2);
+		fragmenter.setMaxCrossRingCleavages(1);
+		return fragmenter;
+	}
+
+	private static boolean isSameList(List<CompositionFragment> lFrags1, List<CompositionFragment> lFrags2) {
+		if ( lFrags1.size() != lFrags2.size() )
+			return false;
+		for ( int i=0; i<lFrags1.size(); i++ ) {
+			if ( !lFrags1.get(i).toString().equals(lFrags2.get(i).toString()) )
+				return false;
+		}
+		return true;
+	}
+}
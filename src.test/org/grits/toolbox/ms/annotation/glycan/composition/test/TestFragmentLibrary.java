@@ -0,0 +1,91 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.index.CompositionFragmentLibrary;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the fragments read from a reopened fragment library with the ones
+ * computed without the library. The library is also read with small mapped
+ * segments, so the records span several segments.
+ */
+public class TestFragmentLibrary {
+
+	public static void main(String[] args) throws DictionaryException, IOException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[] aCompositions = {
+				"Hex:3,HexNAc:2--redEnd",
+				"Hex:2,HexNAc:2,S:1",
+				"Hex:5,HexNAc:4,dHex:1,Neu5Ac:2--redEnd",
+				"Hex:3,HexNAc:1,Ac:1--2AB",
+				"HexNAc:2,S:1--Red=123.456789"
+			};
+		File file = File.createTempFile("fragments", ".lib");
+		file.delete();
+		try {
+			for ( String strComp : aCompositions ) {
+				Composition comp = CompositionUtils.parse(strComp);
+				comp.setMassOptions(true, PerderivatizationType.METHYL);
+
+				// Computes fragments and writes them to the library
+				List<CompositionFragment> lComputed;
+				try ( CompositionFragmentLibrary library = CompositionFragmentLibrary.open(file) ) {
+					lComputed = createFragmenter(library).computeFragmentObjects(comp);
+				}
+				// Reads fragments from the reopened library
+				List<CompositionFragment> lRead;
+				try ( CompositionFragmentLibrary library = CompositionFragmentLibrary.open(file) ) {
+					if ( !library.contains(createFragmenter(library).getCurrentFragmentOptions(), comp) )
+						System.out.println(strComp+": not in the library");
+					lRead = createFragmenter(library).computeFragmentObjects(comp);
+				}
+				System.out.println(strComp+": "+lRead.size()+" fragments, "
+						+(isSameFragments(lComputed, lRead)? "OK" : "NG"));
+				// Reads fragments with the segments not aligned to the records
+				try ( CompositionFragmentLibrary library = CompositionFragmentLibrary.open(file, 4099) ) {
+					lRead = createFragmenter(library).computeFragmentObjects(comp);
+				}
+				System.out.println(strComp+" in small segments: "+lRead.size()+" fragments, "
+						+(isSameFragments(lComputed, lRead)? "OK" : "NG"));
+			}
+		} finally {
+			file.delete();
+			new File(file.getPath()+".idx").delete();
+		}
+	}
+
+	private static CompositionFragmenter createFragmenter(CompositionFragmentLibrary library) {
+		CompositionFragmenter fragmenter = new CompositionFragmenter();
+		fragmenter.setCache(new CompositionFragmenterCache());
+		fragmenter.setAllFragments(true);
+		fragmenter.setMaxCleavages(2);
+		fragmenter.setMaxCrossRingCleavages(1);
+		fragmenter.setLibrary(library);
+		return fragmenter;
+	}
+
+	private static boolean isSameFragments(List<CompositionFragment> lFrags1, List<CompositionFragment> lFrags2) {
+		if ( lFrags1.size() != lFrags2.size() )
+			return false;
+		for ( int i=0; i<lFrags1.size(); i++ ) {
+			CompositionFragment frag1 = lFrags1.get(i);
+			CompositionFragment frag2 = lFrags2.get(i);
+			if ( !frag1.toString().equals(frag2.toString()) || !frag1.getKey().equals(frag2.getKey()) )
+				return false;
+			if ( frag1.computeMass() != frag2.computeMass() )
+				return false;
+		}
+		return true;
+	}
+}
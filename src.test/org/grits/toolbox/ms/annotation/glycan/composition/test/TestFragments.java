@@ -3,7 +3,9 @@ package org.grits.toolbox.ms.annotation.glycan.composition.test;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
@@ -65,24 +67,21 @@ public class TestFragments {
 		System.out.println("Total # of fragments: "+lFragments.size());
 		System.out.println(String.format("Calculation time: %.3f", (end - start)/1000));
 		start = (double)System.currentTimeMillis();
+		// Parse each fragment once for the masses
+		final Map<String, Double> mapMasses = new HashMap<>();
+		for ( String strFrag : lFragments ) {
+			Composition frag = CompositionUtils.parse(strFrag);
+			frag.setMassOptions(isMonoisotopic, perDeriv);
+			mapMasses.put(strFrag, frag.computeMass());
+		}
 		Collections.sort(lFragments, new Comparator<String>() {
 			@Override
 			public int compare(String o1, String o2) {
-				try {
-					Composition comp1 = CompositionUtils.parse(o1);
-					Composition comp2 = CompositionUtils.parse(o2);
-					comp1.setMassOptions(isMonoisotopic, perDeriv);
-					comp2.setMassOptions(isMonoisotopic, perDeriv);
-					double deff = comp1.computeMass() - comp2.computeMass();
-					if ( deff > 0 ) return -1;
-					if ( deff < 0 ) return 1;
+				double deff = mapMasses.get(o1) - mapMasses.get(o2);
+				if ( deff > 0 ) return -1;
+				if ( deff < 0 ) return 1;
 
-					return o1.compareTo(o2);
-				} catch (DictionaryException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				return 0;
+				return o1.compareTo(o2);
 			}
 			
 		});
@@ -0,0 +1,124 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.PackedComposition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Tests the encode/decode round trip of packed compositions with the bit fields
+ * at the limits of the words, using all combinations of the minimum, maximum
+ * and highest bit counts of each residue.
+ */
+public class TestPackedComposition {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[] aMaxCompositions = {
+				// 31 + 31 + 2 bits fill a single word
+				"Hex:2147483647,HexNAc:2147483647,dHex:3",
+				// The reducing end bit needs the second word
+				"Hex:2147483647,HexNAc:2147483647,dHex:3--redEnd",
+				// Fields never span words, so the second word starts at the third residue
+				"Hex:2147483647,HexNAc:2147483647,dHex:2147483647,Neu5Ac:2147483647,S:1--redEnd",
+				// Counts at the boundaries of the field widths
+				"Hex:1,HexNAc:2,dHex:7,Neu5Ac:8,S:255,P:256"
+			};
+		for ( String strMax : aMaxCompositions ) {
+			Composition compMax = CompositionUtils.parse(strMax);
+			compMax.setMassOptions(true, PerderivatizationType.METHYL);
+			PackedComposition codec = new PackedComposition(compMax);
+			List<ResidueType> lRess = codec.getResidueTypes();
+
+			// Minimum, maximum and highest bit counts of each residue
+			List<int[]> lCornerCounts = new ArrayList<>();
+			for ( ResidueType res : lRess ) {
+				int nMax = compMax.getNumberOfResidue(res);
+				Set<Integer> setCounts = new TreeSet<>();
+				setCounts.add(0);
+				setCounts.add(1);
+				setCounts.add(Integer.highestOneBit(nMax));
+				setCounts.add(nMax);
+				int[] aCounts = new int[setCounts.size()];
+				int i = 0;
+				for ( int n : setCounts )
+					aCounts[i++] = n;
+				lCornerCounts.add(aCounts);
+			}
+
+			int nCompositions = 0;
+			int nFailed = 0;
+			Set<String> setPacked = new HashSet<>();
+			long[] aWords = new long[codec.getNumberOfWords()];
+			int[] aIndices = new int[lRess.size()];
+			boolean bHasNext = true;
+			while ( bHasNext ) {
+				for ( int iRedEnd=0; iRedEnd<2; iRedEnd++ ) {
+					if ( iRedEnd == 1 && compMax.getReducingEnd() == null )
+						continue;
+					Composition comp = new Composition();
+					comp.setMassOptions(true, PerderivatizationType.METHYL);
+					for ( int i=0; i<lRess.size(); i++ ) {
+						int n = lCornerCounts.get(i)[aIndices[i]];
+						if ( n > 0 )
+							comp.addResidues(lRess.get(i), n);
+					}
+					if ( iRedEnd == 1 )
+						comp.setReducingEnd(compMax.getReducingEnd());
+					codec.encode(comp, aWords, 0);
+					Composition decoded = codec.decode(aWords, 0);
+					if ( !decoded.equals(comp) || !decoded.toString().equals(comp.toString()) )
+						nFailed++;
+					// The packed words must be unique for each composition
+					StringBuilder sb = new StringBuilder();
+					for ( long lWord : aWords )
+						sb.append(Long.toHexString(lWord)).append(",");
+					if ( !setPacked.add(sb.toString()) )
+						nFailed++;
+					nCompositions++;
+				}
+				// Next combination of the counts
+				bHasNext = false;
+				for ( int i=0; i<aIndices.length; i++ ) {
+					if ( ++aIndices[i] < lCornerCounts.get(i).length ) {
+						bHasNext = true;
+						break;
+					}
+					aIndices[i] = 0;
+				}
+			}
+			System.out.println(strMax+": "+codec.getNumberOfWords()+" word(s), "+nCompositions+" compositions, "
+					+((nFailed == 0)? "OK" : "NG"));
+		}
+
+		// Counts exceeding two words
+		Composition compTooLarge = CompositionUtils.parse(
+				"Hex:2147483647,HexNAc:2147483647,dHex:2147483647,Neu5Ac:2147483647,S:1,P:3--redEnd");
+		try {
+			new PackedComposition(compTooLarge);
+			System.out.println(compTooLarge+": NG");
+		} catch (IllegalArgumentException e) {
+			System.out.println(compTooLarge+": not packed, OK");
+		}
+
+		// Counts exceeding the field of the codec
+		Composition compMax = CompositionUtils.parse("Hex:7,HexNAc:8");
+		PackedComposition codec = new PackedComposition(compMax);
+		try {
+			codec.encode(CompositionUtils.parse("Hex:8,HexNAc:8"));
+			System.out.println("Hex:8,HexNAc:8 with "+compMax+": NG");
+		} catch (IllegalArgumentException e) {
+			System.out.println("Hex:8,HexNAc:8 with "+compMax+": not packed, OK");
+		}
+	}
+}
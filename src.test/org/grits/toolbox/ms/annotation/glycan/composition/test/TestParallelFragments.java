@@ -0,0 +1,139 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the fragments computed over the substructures in parallel with the
+ * ones computed sequentially. The fragments must be in the same order, also
+ * with a shared cache, and the same fragments must be computed when many
+ * fragmenters share a cache and run at the same time.
+ */
+public class TestParallelFragments {
+
+	public static void main(String[] args) throws DictionaryException, InterruptedException, ExecutionException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[] aCompositions = {
+				"Hex:3,HexNAc:2--redEnd",
+				"Hex:2,HexNAc:2,S:1",
+				"Hex:5,HexNAc:4,dHex:1--redEnd",
+				"Hex:4,HexNAc:3,S:2,P:1,Ac:1",
+				"HexNAc:2,S:3--redEnd",
+				"Hex:4,HexNAc:4,Neu5Ac:1,Neu5Gc:1"
+			};
+		final List<Composition> lCompositions = new ArrayList<>();
+		for ( String strComp : aCompositions ) {
+			Composition comp = CompositionUtils.parse(strComp);
+			comp.setMassOptions(true, PerderivatizationType.METHYL);
+			lCompositions.add(comp);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			// Sequential fragments as references
+			List<List<CompositionFragment>> lSequentials = new ArrayList<>();
+			for ( Composition comp : lCompositions )
+				lSequentials.add(createFragmenter(new CompositionFragmenterCache(), null).computeFragmentObjects(comp));
+
+			// Parallel fragments with a cache of each fragmenter
+			for ( int i=0; i<lCompositions.size(); i++ ) {
+				List<CompositionFragment> lParallel = createFragmenter(new CompositionFragmenterCache(), executor)
+						.computeFragmentObjects(lCompositions.get(i));
+				System.out.println(aCompositions[i]+": "+lParallel.size()+" fragments, "
+						+(isSameList(lSequentials.get(i), lParallel)? "OK" : "NG"));
+			}
+
+			// Fragments merged from cached substructures depend on the cache, so the
+			// same compositions are computed in the same order with shared caches
+			CompositionFragmenterCache cacheSeq = new CompositionFragmenterCache();
+			CompositionFragmenterCache cachePar = new CompositionFragmenterCache();
+			boolean bSame = true;
+			for ( int iRound=0; iRound<2; iRound++ ) {
+				for ( Composition comp : lCompositions ) {
+					List<CompositionFragment> lSequential = createFragmenter(cacheSeq, null).computeFragmentObjects(comp);
+					List<CompositionFragment> lParallel = createFragmenter(cachePar, executor).computeFragmentObjects(comp);
+					if ( !isSameList(lSequential, lParallel) )
+						bSame = false;
+				}
+			}
+			System.out.println("Shared cache: "+(bSame? "OK" : "NG"));
+
+			// Parallel fragments of all compositions at the same time with a shared cache
+			final CompositionFragmenterCache cache = new CompositionFragmenterCache();
+			final ExecutorService executorSubs = executor;
+			ExecutorService executorComps = Executors.newFixedThreadPool(3);
+			try {
+				List<Future<List<CompositionFragment>>> lFutures = new ArrayList<>();
+				for ( int iRound=0; iRound<2; iRound++ ) {
+					for ( final Composition comp : lCompositions ) {
+						lFutures.add(executorComps.submit(new Callable<List<CompositionFragment>>() {
+							@Override
+							public List<CompositionFragment> call() throws Exception {
+								return createFragmenter(cache, executorSubs).computeFragmentObjects(comp.copy());
+							}
+						}));
+					}
+				}
+				bSame = true;
+				for ( int i=0; i<lFutures.size(); i++ ) {
+					if ( !isSameSet(lSequentials.get(i % lCompositions.size()), lFutures.get(i).get()) )
+						bSame = false;
+				}
+				System.out.println("Concurrent shared cache: "+lFutures.size()+" computations, "+(bSame? "OK" : "NG"));
+			} finally {
+				executorComps.shutdown();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static CompositionFragmenter createFragmenter(CompositionFragmenterCache cache, ExecutorService executor) {
+		CompositionFragmenter fragmenter = new CompositionFragmenter();
+		fragmenter.setCache(cache);
+		fragmenter.setAllFragments(true);
+		fragmenter.setMaxCleavages(2);
+		fragmenter.setMaxCrossRingCleavages(1);
+		fragmenter.setExecutorService(executor);
+		return fragmenter;
+	}
+
+	private static boolean isSameList(List<CompositionFragment> lFrags1, List<CompositionFragment> lFrags2) {
+		if ( lFrags1.size() != lFrags2.size() )
+			return false;
+		for ( int i=0; i<lFrags1.size(); i++ ) {
+			if ( !lFrags1.get(i).toString().equals(lFrags2.get(i).toString()) )
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSameSet(List<CompositionFragment> lFrags1, List<CompositionFragment> lFrags2) {
+		if ( lFrags1.size() != lFrags2.size() )
+			return false;
+		Set<String> setFrags = new HashSet<>();
+		for ( CompositionFragment frag : lFrags1 )
+			setFrags.add(frag.toString());
+		for ( CompositionFragment frag : lFrags2 )
+			if ( !setFrags.contains(frag.toString()) )
+				return false;
+		return true;
+	}
+}
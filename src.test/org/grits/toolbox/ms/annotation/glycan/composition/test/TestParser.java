@@ -4,7 +4,9 @@ import java.util.List;
 
 import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
 import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
 
@@ -34,6 +36,22 @@ public class TestParser {
 			Composition persed = CompositionUtils.parse(strFrag);
 			System.out.println("\t"+i+++"\t"+strFrag+": "+strFrag.equals(persed.toString()));
 		}
+
+		// Fragments parsed from their strings must be the same fragments with the same masses
+		String strComposition2 = "Hex:5,HexNAc:4,dHex:1--redEnd";
+		Composition comp2 = CompositionUtils.parse(strComposition2);
+		comp2.setMassOptions(true, PerderivatizationType.METHYL);
+		fragmenter.setMaxCrossRingCleavages(1);
+		List<CompositionFragment> lFragObjs = fragmenter.computeFragmentObjects(comp2);
+		int nDiffs = 0;
+		for ( CompositionFragment frag : lFragObjs ) {
+			Composition persed = CompositionUtils.parse(frag.toString());
+			persed.setMassOptions(true, PerderivatizationType.METHYL);
+			if ( !frag.equals(persed) || Math.abs(frag.computeMass() - persed.computeMass()) > 1e-6 )
+				nDiffs++;
+		}
+		System.out.println( strComposition2 +": "+lFragObjs.size()+" fragments, "+nDiffs+" differences, "
+				+(nDiffs == 0? "OK" : "NG") );
 	}
 
 }
@@ -0,0 +1,72 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.test;
+
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Compares the substructures and compositions generated by the non-recursive
+ * implementations with the ones generated by the recursive reference
+ * implementations. The substructures and compositions must be in the same
+ * order.
+ */
+public class TestSubstructureGeneration {
+
+	public static void main(String[] args) throws DictionaryException {
+		ResidueDictionary.loadDefaultDictionaries();
+
+		String[] aCompositions = {
+				"Hex:3,HexNAc:2--redEnd",
+				"Hex:5,HexNAc:4,dHex:1,Neu5Ac:2",
+				"Hex:4,HexNAc:3,S:2,P:1,Ac:1",
+				"HexNAc:2,S:3--redEnd",
+				"Hex:6,HexNAc:5,dHex:2,Neu5Gc:1--redEnd"
+			};
+		for ( String strComp : aCompositions ) {
+			Composition comp = CompositionUtils.parse(strComp);
+			comp.setMassOptions(true, PerderivatizationType.METHYL);
+
+			long t0 = System.currentTimeMillis();
+			List<Composition> lSubs = CompositionUtils.generateSubstructuresForReducingEnd(comp);
+			long t1 = System.currentTimeMillis();
+			List<Composition> lSubsRef = CompositionUtils.generateSubstructuresForReducingEndRecursive(comp);
+			long t2 = System.currentTimeMillis();
+			System.out.println(strComp+": "+lSubs.size()+" substructures, "
+					+(isSameList(lSubs, lSubsRef)? "OK" : "NG")+" ("+(t1-t0)+"ms vs "+(t2-t1)+"ms)");
+		}
+
+		String[][] aMinMax = {
+				{"Hex:3,HexNAc:2", "Hex:7,HexNAc:6,Neu5Ac:4,dHex:1"},
+				{null, "Hex:6,HexNAc:5,dHex:2,S:2"},
+				{"Hex:3,HexNAc:2--redEnd", "Hex:5,HexNAc:4,Neu5Ac:2--redEnd"},
+				{"Hex:3,HexNAc:2", "Hex:6,HexNAc:5,dHex:2,Neu5Ac:2"}
+			};
+		for ( String[] aPair : aMinMax ) {
+			Composition compMin = ( aPair[0] == null )? null : CompositionUtils.parse(aPair[0]);
+			Composition compMax = CompositionUtils.parse(aPair[1]);
+			compMax.setMassOptions(true, PerderivatizationType.METHYL);
+			if ( compMin != null )
+				compMin.setMassOptions(true, PerderivatizationType.METHYL);
+			for ( double dThreshold : new double[] {2500.0d, 3500.0d, Double.MAX_VALUE} ) {
+				List<Composition> lComps = CompositionUtils.generateCompositions(compMin, compMax, dThreshold);
+				List<Composition> lCompsRef = CompositionUtils.generateCompositionsRecursive(compMin, compMax, dThreshold);
+				System.out.println(compMin+" - "+compMax+" ("+dThreshold+"): "+lComps.size()+" compositions, "
+						+(isSameList(lComps, lCompsRef)? "OK" : "NG"));
+			}
+		}
+	}
+
+	private static boolean isSameList(List<Composition> lComps1, List<Composition> lComps2) {
+		if ( lComps1.size() != lComps2.size() )
+			return false;
+		for ( int i=0; i<lComps1.size(); i++ ) {
+			if ( !lComps1.get(i).equals(lComps2.get(i)) )
+				return false;
+		}
+		return true;
+	}
+}
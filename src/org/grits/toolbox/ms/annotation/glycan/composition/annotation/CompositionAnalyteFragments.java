@@ -1,12 +1,14 @@
 package org.grits.toolbox.ms.annotation.glycan.composition.annotation;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 
 import org.grits.toolbox.ms.annotation.glycan.composition.annotation.analyte.CompositionAnalyteFragment;
 import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentLattice;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentMassTable;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
-import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
 import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
@@ -17,6 +19,27 @@ import org.grits.toolbox.ms.om.data.Fragment;
 
 public class CompositionAnalyteFragments extends GlycanAnalyteFragments {
 
+	private FragmentLattice fragmentLattice;
+	private CompositionFragmenterCache fragmenterCache;
+
+	public CompositionAnalyteFragments() {
+		this(null);
+	}
+
+	public CompositionAnalyteFragments(FragmentLattice fragmentLattice) {
+		this(fragmentLattice, null);
+	}
+
+	/**
+	 * @param fragmentLattice FragmentLattice sharing the fragments of substructures, or {@code null}
+	 * @param fragmenterCache CompositionFragmenterCache shared by the fragmenters, or {@code null}
+	 *                        for a cache of each fragmenter
+	 */
+	public CompositionAnalyteFragments(FragmentLattice fragmentLattice, CompositionFragmenterCache fragmenterCache) {
+		this.fragmentLattice = fragmentLattice;
+		this.fragmenterCache = fragmenterCache;
+	}
+
 	/**
 	 * @param sequence
 	 * @param settings
@@ -58,22 +81,51 @@ public class CompositionAnalyteFragments extends GlycanAnalyteFragments {
 		// set the number of allowed fragments
 		t_fragmenter.setMaxCleavages(maxNumClvg);
 		t_fragmenter.setMaxCrossRingCleavages(maxNumCr);
+		t_fragmenter.setFragmentLattice(fragmentLattice);
+		if ( fragmenterCache != null )
+			t_fragmenter.setCache(fragmenterCache);
 		try {
 			Composition composition = CompositionUtils.parse(sequence);
 			PerderivatizationType perDeriv = PerderivatizationType.forName(settings.getGlycanSettings().getPerDerivatisationType());
-			List<IAnalyteFragment> lFrags = new ArrayList<>();
-			for ( String strFrag : t_fragmenter.computeFragments(composition) ) {
-				CompositionAnalyteFragment analyteFrag = new CompositionAnalyteFragment();
-				CompositionFragment frag = (CompositionFragment)CompositionUtils.parse(strFrag);
-				// mass options must be set for each fragment
-				frag.setMassOptions(isMonoisotopic, perDeriv);
-				analyteFrag.setFragment(frag);
-				lFrags.add(analyteFrag);
-			}
-			return lFrags;
+			// Fragment objects are created only when they are used
+			FragmentMassTable table = t_fragmenter.computeFragmentMassTable(composition, isMonoisotopic, perDeriv);
+			return new FragmentMassTableList(table);
 		} catch (DictionaryException e) {
 			e.printStackTrace();
 			return null;
 		}
 	}
+
+	/**
+	 * Read-only list of the fragments in a mass table, in the order computed by
+	 * the fragmenter. The elements are created once when they are first visited
+	 * and take their masses from the table.
+	 */
+	private static class FragmentMassTableList extends AbstractList<IAnalyteFragment> {
+
+		private FragmentMassTable table;
+		// Index in mass order for each fragment ordinal
+		private int[] indices;
+		private CompositionAnalyteFragment[] elements;
+
+		public FragmentMassTableList(FragmentMassTable table) {
+			this.table = table;
+			this.indices = new int[table.size()];
+			for ( int i=0; i<table.size(); i++ )
+				this.indices[table.getOrdinal(i)] = i;
+			this.elements = new CompositionAnalyteFragment[table.size()];
+		}
+
+		@Override
+		public synchronized IAnalyteFragment get(int index) {
+			if ( this.elements[index] == null )
+				this.elements[index] = new CompositionAnalyteFragment(this.table, this.indices[index]);
+			return this.elements[index];
+		}
+
+		@Override
+		public int size() {
+			return this.indices.length;
+		}
+	}
 }
@@ -3,12 +3,33 @@ package org.grits.toolbox.ms.annotation.glycan.composition.annotation;
 import org.grits.toolbox.ms.annotation.gelato.AnalyteStructureAnnotation;
 import org.grits.toolbox.ms.annotation.gelato.AnnotateFragments;
 import org.grits.toolbox.ms.annotation.gelato.glycan.GlycanAnalyteMatcher;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentLattice;
 
 public class CompositionAnalyteMatcher extends GlycanAnalyteMatcher {
 
+	private FragmentLattice fragmentLattice;
+	private CompositionFragmenterCache fragmenterCache;
+
 	public CompositionAnalyteMatcher(int iCurScan, AnalyteStructureAnnotation parent) {
+		this(iCurScan, parent, null);
+	}
+
+	public CompositionAnalyteMatcher(int iCurScan, AnalyteStructureAnnotation parent, FragmentLattice fragmentLattice) {
+		this(iCurScan, parent, fragmentLattice, null);
+	}
+
+	/**
+	 * @param iCurScan
+	 * @param parent
+	 * @param fragmentLattice FragmentLattice shared by the compositions in the run, or {@code null}
+	 * @param fragmenterCache CompositionFragmenterCache shared by the compositions in the run, or {@code null}
+	 */
+	public CompositionAnalyteMatcher(int iCurScan, AnalyteStructureAnnotation parent, FragmentLattice fragmentLattice,
+			CompositionFragmenterCache fragmenterCache) {
 		super(iCurScan, parent);
-		// TODO Auto-generated constructor stub
+		this.fragmentLattice = fragmentLattice;
+		this.fragmenterCache = fragmenterCache;
 	}
 
 	/**
@@ -16,6 +37,6 @@ public class CompositionAnalyteMatcher extends GlycanAnalyteMatcher {
 	 **/
 	@Override
 	public AnnotateFragments getNewAnnotateFragmentsObject() {
-		return new CompositionAnnotateFragments(this);
+		return new CompositionAnnotateFragments(this, fragmentLattice, fragmenterCache);
 	}
 }
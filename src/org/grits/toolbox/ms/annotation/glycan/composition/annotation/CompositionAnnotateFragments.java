@@ -4,7 +4,8 @@ import org.grits.toolbox.ms.annotation.gelato.AnalyteMatcher;
 import org.grits.toolbox.ms.annotation.gelato.glycan.GlycanAnnotateFragments;
 import org.grits.toolbox.ms.annotation.glycan.composition.annotation.analyte.CompositionAnalyte;
 import org.grits.toolbox.ms.annotation.glycan.composition.annotation.analyte.CompositionAnalyteFragment;
-import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentLattice;
 import org.grits.toolbox.ms.annotation.structure.GelatoAnalyte;
 import org.grits.toolbox.ms.annotation.structure.GlycanStructure;
 import org.grits.toolbox.ms.annotation.structure.IAnalyteFragment;
@@ -12,24 +13,40 @@ import org.grits.toolbox.ms.annotation.structure.IAnalyteFragments;
 
 public class CompositionAnnotateFragments extends GlycanAnnotateFragments {
 
+	private FragmentLattice fragmentLattice;
+	private CompositionFragmenterCache fragmenterCache;
+
 	public CompositionAnnotateFragments(AnalyteMatcher parentAnalyteMatcher) {
+		this(parentAnalyteMatcher, null);
+	}
+
+	public CompositionAnnotateFragments(AnalyteMatcher parentAnalyteMatcher, FragmentLattice fragmentLattice) {
+		this(parentAnalyteMatcher, fragmentLattice, null);
+	}
+
+	public CompositionAnnotateFragments(AnalyteMatcher parentAnalyteMatcher, FragmentLattice fragmentLattice,
+			CompositionFragmenterCache fragmenterCache) {
 		super(parentAnalyteMatcher);
+		this.fragmentLattice = fragmentLattice;
+		this.fragmenterCache = fragmenterCache;
 	}
 
 	@Override
 	protected IAnalyteFragments getNewAnalyteFragmentObject() {
-		return new CompositionAnalyteFragments();
+		return new CompositionAnalyteFragments(fragmentLattice, fragmenterCache);
 	}
 
 	@Override
 	protected GelatoAnalyte getNewFragmentGelatoAnalyteObject(IAnalyteFragment fragment, String sId) {
 		CompositionAnalyteFragment analyteFrag = (CompositionAnalyteFragment) fragment;
-		CompositionFragment copy = analyteFrag.getFragment().copy();
 		GlycanStructure fragStructure = new GlycanStructure();
-		fragStructure.setSequence(analyteFrag.getFragment().toString());
+		fragStructure.setSequence(analyteFrag.getSequence());
 		fragStructure.setId(sId);	
 
-		CompositionAnalyte flagAnalyte = new CompositionAnalyte(fragStructure.getSequence(), copy);
+		// The mass is the one of the computed fragment, which is the same as the one
+		// parsed from the sequence. The CompositionFragment is created only when the
+		// composition of a matched fragment is used
+		CompositionAnalyte flagAnalyte = new CompositionAnalyte(fragStructure.getSequence(), analyteFrag);
 		GelatoAnalyte fragGelatoAnalyte = new GelatoAnalyte(flagAnalyte, fragStructure);
 		return fragGelatoAnalyte;
 	}
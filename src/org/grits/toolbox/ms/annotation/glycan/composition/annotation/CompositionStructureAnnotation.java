@@ -9,6 +9,9 @@ import org.grits.toolbox.ms.annotation.gelato.AnalyteMatcher;
 import org.grits.toolbox.ms.annotation.gelato.GelatoUtils;
 import org.grits.toolbox.ms.annotation.gelato.glycan.GlycanStructureAnnotation;
 import org.grits.toolbox.ms.annotation.glycan.composition.annotation.analyte.CompositionAnalyte;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenterCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentLattice;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ICompositionConstraint;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
@@ -37,7 +40,7 @@ public class CompositionStructureAnnotation extends GlycanStructureAnnotation {
 
 	@Override
 	protected AnalyteMatcher getNewAnalyteMatcher(int iCurScan) {
-		return new CompositionAnalyteMatcher(iCurScan, this);
+		return new CompositionAnalyteMatcher(iCurScan, this, fragmentLattice, fragmenterCache);
 	}
 
 	@Override
@@ -62,10 +65,27 @@ public class CompositionStructureAnnotation extends GlycanStructureAnnotation {
 	}
 
 	private double dMassThreshold = Double.MAX_VALUE;
+	// Constraints on the residue counts of the generated compositions
+	private List<ICompositionConstraint> constraints = new ArrayList<>();
+	// Fragments of substructures shared by all compositions in this run
+	private FragmentLattice fragmentLattice;
+	// Fragments and mass tables cached for the compositions in this run
+	private CompositionFragmenterCache fragmenterCache;
+
+	/**
+	 * Adds a constraint on the residue counts of the compositions generated
+	 * between the min and max compositions.
+	 * @param constraint ICompositionConstraint to be added
+	 */
+	public void addConstraint(ICompositionConstraint constraint) {
+		constraints.add(constraint);
+	}
 
 	@Override
 	protected void initializeStructures() {
 		caluclateMassThreshold(getData().getDataHeader().getMethod());
+		fragmentLattice = new FragmentLattice();
+		fragmenterCache = new CompositionFragmenterCache();
 
 		super.initializeStructures();
 	}
@@ -152,7 +172,7 @@ public class CompositionStructureAnnotation extends GlycanStructureAnnotation {
 			compMax.setMassOptions(isMono, perDeriv);
 
 			List<AnalyteStructure> lAnalyteStructures = new ArrayList<>();
-			List<Composition> lComps = CompositionUtils.generateCompositions(compMin, compMax, dMassThreshold);
+			List<Composition> lComps = CompositionUtils.generateCompositions(compMin, compMax, dMassThreshold, constraints);
 			for ( Composition comp : lComps ) {
 				AnalyteStructure as = new AnalyteStructure();
 				String strComp = comp.toString();
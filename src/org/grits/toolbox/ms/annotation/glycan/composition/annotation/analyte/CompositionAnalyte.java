@@ -6,18 +6,39 @@ import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
 public class CompositionAnalyte extends Analyte {
 
 	private Composition m_composition;
+	// Fragment whose composition is created on demand
+	private CompositionAnalyteFragment m_fragment;
 
 	public CompositionAnalyte(String stringRepresentation, Composition composition) {
 		super(stringRepresentation);
 		this.m_composition = composition;
+		this.m_fragment = null;
+	}
+
+	/**
+	 * Creates an analyte of the given fragment. The mass is taken from the
+	 * fragment without creating the composition, which is created on first
+	 * request.
+	 *
+	 * @param stringRepresentation String format of the fragment
+	 * @param fragment CompositionAnalyteFragment of the analyte
+	 */
+	public CompositionAnalyte(String stringRepresentation, CompositionAnalyteFragment fragment) {
+		super(stringRepresentation);
+		this.m_composition = null;
+		this.m_fragment = fragment;
 	}
 
 	@Override
 	public double computeMass() {
+		if ( this.m_composition == null )
+			return this.m_fragment.getMass();
 		return this.m_composition.computeMass();
 	}
 
 	public Composition getComposition() {
+		if ( this.m_composition == null )
+			this.m_composition = this.m_fragment.getFragment();
 		return this.m_composition;
 	}
 
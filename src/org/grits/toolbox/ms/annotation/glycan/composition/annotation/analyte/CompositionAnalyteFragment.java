@@ -1,11 +1,34 @@
 package org.grits.toolbox.ms.annotation.glycan.composition.annotation.analyte;
 
+import org.grits.toolbox.ms.annotation.glycan.composition.generator.FragmentMassTable;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
 import org.grits.toolbox.ms.annotation.structure.IAnalyteFragment;
 
 public class CompositionAnalyteFragment implements IAnalyteFragment {
 
 	private CompositionFragment m_fragment;
+	// Fragment in a mass table, created on demand
+	private FragmentMassTable m_table;
+	private int m_iIndex;
+
+	public CompositionAnalyteFragment() {
+		this.m_fragment = null;
+		this.m_table = null;
+		this.m_iIndex = -1;
+	}
+
+	/**
+	 * Creates a fragment backed by the given mass table. The CompositionFragment
+	 * is created on first request.
+	 *
+	 * @param table FragmentMassTable holding the fragment
+	 * @param iIndex the index of the fragment in mass order
+	 */
+	public CompositionAnalyteFragment(FragmentMassTable table, int iIndex) {
+		this.m_fragment = null;
+		this.m_table = table;
+		this.m_iIndex = iIndex;
+	}
 
 	@Override
 	public long getId() {
@@ -14,14 +37,39 @@ public class CompositionAnalyteFragment implements IAnalyteFragment {
 
 	@Override
 	public String getType() {
-		return m_fragment.getFragmentType();
+		if ( this.m_fragment == null && this.m_table != null )
+			return this.m_table.getFragmentType(this.m_iIndex);
+		return this.m_fragment.getFragmentType();
 	}
 
 	public void setFragment(CompositionFragment fragment) {
 		this.m_fragment = fragment;
+		this.m_table = null;
+		this.m_iIndex = -1;
 	}
 
 	public CompositionFragment getFragment() {
+		if ( this.m_fragment == null && this.m_table != null )
+			this.m_fragment = this.m_table.getFragment(this.m_iIndex);
 		return this.m_fragment;
 	}
+
+	/**
+	 * Returns the mass of the fragment without creating the CompositionFragment
+	 * if it is backed by a mass table.
+	 */
+	public double getMass() {
+		if ( this.m_table != null )
+			return this.m_table.getMass(this.m_iIndex);
+		return this.m_fragment.computeMass();
+	}
+
+	/**
+	 * Returns the String format of the fragment.
+	 */
+	public String getSequence() {
+		if ( this.m_table != null )
+			return this.m_table.getFragmentString(this.m_iIndex);
+		return this.m_fragment.toString();
+	}
 }
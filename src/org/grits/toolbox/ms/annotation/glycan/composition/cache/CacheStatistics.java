@@ -0,0 +1,64 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for the hit, miss and eviction counters of a cache.
+ */
+public class CacheStatistics {
+
+	private AtomicLong m_nHits;
+	private AtomicLong m_nMisses;
+	private AtomicLong m_nEvictions;
+
+	public CacheStatistics() {
+		this.m_nHits = new AtomicLong();
+		this.m_nMisses = new AtomicLong();
+		this.m_nEvictions = new AtomicLong();
+	}
+
+	public void recordHit() {
+		this.m_nHits.incrementAndGet();
+	}
+
+	public void recordMiss() {
+		this.m_nMisses.incrementAndGet();
+	}
+
+	public void recordEviction() {
+		this.m_nEvictions.incrementAndGet();
+	}
+
+	public long getHitCount() {
+		return this.m_nHits.get();
+	}
+
+	public long getMissCount() {
+		return this.m_nMisses.get();
+	}
+
+	public long getEvictionCount() {
+		return this.m_nEvictions.get();
+	}
+
+	/**
+	 * Returns the ratio of hits to all requests, or {@code 0} if no request.
+	 */
+	public double getHitRate() {
+		long nHits = getHitCount();
+		long nRequests = nHits + getMissCount();
+		return (nRequests == 0) ? 0d : (double) nHits / nRequests;
+	}
+
+	public void reset() {
+		this.m_nHits.set(0);
+		this.m_nMisses.set(0);
+		this.m_nEvictions.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits=%d, misses=%d, evictions=%d, hit rate=%.3f", getHitCount(), getMissCount(),
+				getEvictionCount(), getHitRate());
+	}
+}
@@ -0,0 +1,42 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.cache;
+
+/**
+ * Interface for a bounded cache which can be accessed concurrently.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public interface ICache<K, V> {
+
+	/**
+	 * Returns the value cached for the given key.
+	 *
+	 * @param key key of the value
+	 * @return the cached value, or {@code null} if no value is cached
+	 */
+	public V get(K key);
+
+	/**
+	 * Caches the given value for the given key. Other entries may be evicted to
+	 * keep the bound of this cache.
+	 *
+	 * @param key   key of the value
+	 * @param value value to be cached (must not be {@code null})
+	 */
+	public void put(K key, V value);
+
+	/**
+	 * Removes all entries from this cache.
+	 */
+	public void clear();
+
+	/**
+	 * Returns the number of entries in this cache.
+	 */
+	public long size();
+
+	/**
+	 * Returns the statistics of this cache.
+	 */
+	public CacheStatistics getStatistics();
+}
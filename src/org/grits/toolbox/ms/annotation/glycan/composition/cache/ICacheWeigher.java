@@ -0,0 +1,16 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.cache;
+
+/**
+ * Interface for calculating the weight of a cache entry, which is used for the
+ * bound of a cache.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public interface ICacheWeigher<K, V> {
+
+	/**
+	 * Returns the weight of the given entry (must not be negative).
+	 */
+	public long weigh(K key, V value);
+}
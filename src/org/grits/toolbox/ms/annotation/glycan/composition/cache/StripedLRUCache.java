@@ -0,0 +1,180 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache bounded by the total weight of entries with the least recently used
+ * (LRU) eviction. The entries are divided into stripes by the hash of keys and
+ * each stripe has its own lock and LRU order, so concurrent accesses to
+ * different stripes do not block each other. Each stripe keeps an equal share
+ * of the weight bound.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+public class StripedLRUCache<K, V> implements ICache<K, V> {
+
+	private static final int DEFAULT_STRIPES = 16;
+
+	private Stripe<K, V>[] m_aStripes;
+	private ICacheWeigher<K, V> m_weigher;
+	private CacheStatistics m_stats;
+
+	/**
+	 * Creates a cache bounded by the number of entries.
+	 *
+	 * @param nMaxSize The maximum number of entries
+	 */
+	public StripedLRUCache(long nMaxSize) {
+		this(nMaxSize, null, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Creates a cache bounded by the total weight of entries.
+	 *
+	 * @param nMaxWeight The maximum total weight of entries
+	 * @param weigher    ICacheWeigher for the weight of entries ({@code null} for
+	 *                   weight 1 per entry)
+	 * @param nStripes   The number of stripes, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public StripedLRUCache(long nMaxWeight, ICacheWeigher<K, V> weigher, int nStripes) {
+		int nSize = 1;
+		while (nSize < nStripes)
+			nSize <<= 1;
+		this.m_aStripes = (Stripe<K, V>[]) new Stripe<?, ?>[nSize];
+		long nMaxStripeWeight = Math.max(1, (nMaxWeight + nSize - 1) / nSize);
+		for (int i = 0; i < nSize; i++)
+			this.m_aStripes[i] = new Stripe<>(nMaxStripeWeight);
+		this.m_weigher = weigher;
+		this.m_stats = new CacheStatistics();
+	}
+
+	private Stripe<K, V> getStripe(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return this.m_aStripes[h & (this.m_aStripes.length - 1)];
+	}
+
+	@Override
+	public V get(K key) {
+		Stripe<K, V> stripe = getStripe(key);
+		Weighted<V> entry;
+		synchronized (stripe) {
+			entry = stripe.get(key);
+		}
+		if (entry == null) {
+			this.m_stats.recordMiss();
+			return null;
+		}
+		this.m_stats.recordHit();
+		return entry.m_value;
+	}
+
+	@Override
+	public void put(K key, V value) {
+		long nWeight = (this.m_weigher == null) ? 1 : this.m_weigher.weigh(key, value);
+		Stripe<K, V> stripe = getStripe(key);
+		int nEvicted;
+		synchronized (stripe) {
+			nEvicted = stripe.putAndEvict(key, new Weighted<>(value, nWeight));
+		}
+		for (int i = 0; i < nEvicted; i++)
+			this.m_stats.recordEviction();
+	}
+
+	@Override
+	public void clear() {
+		for (Stripe<K, V> stripe : this.m_aStripes) {
+			synchronized (stripe) {
+				stripe.clear();
+				stripe.m_nWeight = 0;
+			}
+		}
+	}
+
+	@Override
+	public long size() {
+		long nSize = 0;
+		for (Stripe<K, V> stripe : this.m_aStripes) {
+			synchronized (stripe) {
+				nSize += stripe.size();
+			}
+		}
+		return nSize;
+	}
+
+	/**
+	 * Returns the total weight of the entries in this cache.
+	 */
+	public long getWeight() {
+		long nWeight = 0;
+		for (Stripe<K, V> stripe : this.m_aStripes) {
+			synchronized (stripe) {
+				nWeight += stripe.m_nWeight;
+			}
+		}
+		return nWeight;
+	}
+
+	@Override
+	public CacheStatistics getStatistics() {
+		return this.m_stats;
+	}
+
+	/**
+	 * Value with its weight.
+	 */
+	private static class Weighted<V> {
+		private V m_value;
+		private long m_nWeight;
+
+		private Weighted(V value, long nWeight) {
+			this.m_value = value;
+			this.m_nWeight = nWeight;
+		}
+	}
+
+	/**
+	 * Stripe of entries in access order, guarded by its own monitor.
+	 */
+	private static class Stripe<K, V> extends LinkedHashMap<K, Weighted<V>> {
+		private static final long serialVersionUID = 1L;
+
+		private long m_nMaxWeight;
+		private long m_nWeight;
+
+		private Stripe(long nMaxWeight) {
+			super(16, 0.75f, true);
+			this.m_nMaxWeight = nMaxWeight;
+			this.m_nWeight = 0;
+		}
+
+		/**
+		 * Puts the entry and evicts the least recently used entries exceeding the
+		 * bound. The new entry is kept even if it exceeds the bound by itself.
+		 *
+		 * @return The number of evicted entries
+		 */
+		private int putAndEvict(K key, Weighted<V> entry) {
+			Weighted<V> entryOld = put(key, entry);
+			if (entryOld != null)
+				this.m_nWeight -= entryOld.m_nWeight;
+			this.m_nWeight += entry.m_nWeight;
+
+			int nEvicted = 0;
+			Iterator<Map.Entry<K, Weighted<V>>> itEntry = entrySet().iterator();
+			while (this.m_nWeight > this.m_nMaxWeight && size() > 1 && itEntry.hasNext()) {
+				Map.Entry<K, Weighted<V>> entryEldest = itEntry.next();
+				if (entryEldest.getKey().equals(key))
+					continue;
+				this.m_nWeight -= entryEldest.getValue().m_nWeight;
+				itEntry.remove();
+				nEvicted++;
+			}
+			return nEvicted;
+		}
+	}
+}
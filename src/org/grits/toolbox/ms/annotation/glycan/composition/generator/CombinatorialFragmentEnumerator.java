@@ -0,0 +1,269 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionKey;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.MonosaccharideType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.fragment.IFragmentType;
+import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
+
+/**
+ * Class enumerating the fragments of a composition by the multisets of
+ * fragment types applied to the monosaccharides, as an alternative to cleaving
+ * residues one by one in CompositionFragmenter. A fragment is identified by the
+ * number of cleaved copies of each monosaccharide type, the multiset of
+ * cross-ring fragment types of each monosaccharide type and the multiset of
+ * glycosidic fragment types, which are shared by all monosaccharide types.
+ * Each multiset is enumerated once as a combination with repetition, so no
+ * fragment is generated twice.<br>
+ * The sequential cleavage only yields a fragment if there is an order of
+ * cleavages whose intermediate fragments are all valid. The same rule is
+ * applied here with the fragments enumerated in the order of the number of
+ * cleavages: a fragment is accepted if it is valid and one of its direct
+ * predecessors, which restore one cleavage of the last cleaved monosaccharide
+ * type, was accepted.
+ *
+ * @see CompositionFragmenter#setCombinatorialEnumeration(boolean)
+ */
+class CombinatorialFragmentEnumerator {
+
+	private CompositionFragmenter m_fragmenter;
+	private Composition m_composition;
+	private List<MonosaccharideType> m_lMSTypes;
+	private int[] m_aMaxCounts;
+	// Cross-ring fragment types for each monosaccharide type
+	private List<List<IFragmentType>> m_lCrossRingTypes;
+	private List<IFragmentType> m_lGlycosidicTypes;
+	private int m_nMaxCleavages;
+	private int m_nMaxCrossRingCleavages;
+
+	// Current assignment of the enumeration
+	private int[] m_aCounts;
+	private List<List<IFragmentType>> m_lCrossRings;
+	private List<IFragmentType> m_lGlycosidics;
+
+	private Set<CompositionKey> m_setAcceptedPrev;
+	private Set<CompositionKey> m_setAccepted;
+	private List<CompositionFragment> m_lFragments;
+
+	CombinatorialFragmentEnumerator(CompositionFragmenter fragmenter, Composition composition, int nMaxCleavages,
+			int nMaxCrossRingCleavages) {
+		this.m_fragmenter = fragmenter;
+		this.m_composition = composition;
+		this.m_nMaxCleavages = nMaxCleavages;
+		this.m_nMaxCrossRingCleavages = nMaxCrossRingCleavages;
+	}
+
+	/**
+	 * Prepares the fragment types of the monosaccharides.
+	 *
+	 * @return {@code false} if the glycosidic fragment types differ between the
+	 *         monosaccharide types, which can not be enumerated by this class
+	 * @throws DictionaryException
+	 */
+	boolean initialize() throws DictionaryException {
+		this.m_lMSTypes = new ArrayList<>();
+		this.m_lCrossRingTypes = new ArrayList<>();
+		this.m_lGlycosidicTypes = null;
+		for (ResidueType res : this.m_composition.getResidueTypes()) {
+			if (!(res instanceof MonosaccharideType))
+				continue;
+			MonosaccharideType msType = (MonosaccharideType) res;
+			List<IFragmentType> lCrossRings = new ArrayList<>();
+			List<IFragmentType> lGlycosidics = new ArrayList<>();
+			for (IFragmentType fragType : this.m_fragmenter.getFragments(msType)) {
+				if (fragType.getCleavageType().isCrossRing())
+					lCrossRings.add(fragType);
+				else
+					lGlycosidics.add(fragType);
+			}
+			if (this.m_lGlycosidicTypes == null)
+				this.m_lGlycosidicTypes = lGlycosidics;
+			else if (!this.m_lGlycosidicTypes.equals(lGlycosidics))
+				return false;
+			this.m_lMSTypes.add(msType);
+			this.m_lCrossRingTypes.add(lCrossRings);
+		}
+		if (this.m_lGlycosidicTypes == null)
+			this.m_lGlycosidicTypes = new ArrayList<>();
+
+		this.m_aMaxCounts = new int[this.m_lMSTypes.size()];
+		for (int i = 0; i < this.m_aMaxCounts.length; i++)
+			this.m_aMaxCounts[i] = this.m_composition.getNumberOfResidue(this.m_lMSTypes.get(i));
+		return true;
+	}
+
+	/**
+	 * Enumerates the fragments in the order of the number of cleavages.
+	 *
+	 * @param lFragments List to be added the fragments
+	 * @throws DictionaryException
+	 */
+	void enumerate(List<CompositionFragment> lFragments) throws DictionaryException {
+		this.m_lFragments = lFragments;
+		this.m_aCounts = new int[this.m_lMSTypes.size()];
+		this.m_lCrossRings = new ArrayList<>();
+		for (int i = 0; i < this.m_lMSTypes.size(); i++)
+			this.m_lCrossRings.add(new ArrayList<IFragmentType>());
+		this.m_lGlycosidics = new ArrayList<>();
+
+		int nTotal = 0;
+		for (int n : this.m_aMaxCounts)
+			nTotal += n;
+		if (this.m_nMaxCleavages >= 0 && this.m_nMaxCrossRingCleavages >= 0)
+			nTotal = Math.min(nTotal, this.m_nMaxCleavages + this.m_nMaxCrossRingCleavages);
+
+		this.m_setAcceptedPrev = new HashSet<>();
+		this.m_setAcceptedPrev.add(new CompositionFragment(this.m_composition).getKey());
+		for (int nLevel = 1; nLevel <= nTotal; nLevel++) {
+			this.m_setAccepted = new HashSet<>();
+			enumerateCounts(0, nLevel, 0);
+			if (this.m_setAccepted.isEmpty())
+				break;
+			this.m_setAcceptedPrev = this.m_setAccepted;
+		}
+	}
+
+	/**
+	 * Chooses the number of cleaved copies and the cross-ring fragment types for
+	 * each monosaccharide type.
+	 */
+	private void enumerateCounts(int iType, int nRemaining, int nCrossRings) throws DictionaryException {
+		if (iType == this.m_lMSTypes.size()) {
+			if (nRemaining != 0)
+				return;
+			int nGlycosidics = 0;
+			for (int i = 0; i < this.m_aCounts.length; i++)
+				nGlycosidics += this.m_aCounts[i] - this.m_lCrossRings.get(i).size();
+			if (this.m_nMaxCleavages >= 0 && nGlycosidics > this.m_nMaxCleavages)
+				return;
+			if (nGlycosidics > 0 && this.m_lGlycosidicTypes.isEmpty())
+				return;
+			enumerateGlycosidics(0, nGlycosidics, isRootUsed());
+			return;
+		}
+		int nMax = Math.min(this.m_aMaxCounts[iType], nRemaining);
+		for (int k = 0; k <= nMax; k++) {
+			this.m_aCounts[iType] = k;
+			for (int c = 0; c <= k; c++) {
+				if (this.m_nMaxCrossRingCleavages >= 0 && nCrossRings + c > this.m_nMaxCrossRingCleavages)
+					break;
+				if (c > 0 && this.m_lCrossRingTypes.get(iType).isEmpty())
+					break;
+				enumerateCrossRings(iType, 0, c, k, nRemaining, nCrossRings + c);
+			}
+		}
+		this.m_aCounts[iType] = 0;
+	}
+
+	/**
+	 * Chooses a multiset of cross-ring fragment types of the monosaccharide type
+	 * as a combination with repetition.
+	 */
+	private void enumerateCrossRings(int iType, int iStart, int nLeft, int nCount, int nRemaining,
+			int nCrossRings) throws DictionaryException {
+		List<IFragmentType> lChosen = this.m_lCrossRings.get(iType);
+		if (nLeft == 0) {
+			enumerateCounts(iType + 1, nRemaining - nCount, nCrossRings);
+			return;
+		}
+		List<IFragmentType> lTypes = this.m_lCrossRingTypes.get(iType);
+		for (int i = iStart; i < lTypes.size(); i++) {
+			IFragmentType fragType = lTypes.get(i);
+			// Only one root side fragment can be contained
+			if (fragType.getCleavageType().isRootSide() && isRootUsed())
+				continue;
+			lChosen.add(fragType);
+			enumerateCrossRings(iType, i, nLeft - 1, nCount, nRemaining, nCrossRings);
+			lChosen.remove(lChosen.size() - 1);
+		}
+	}
+
+	/**
+	 * Chooses a multiset of glycosidic fragment types as a combination with
+	 * repetition.
+	 */
+	private void enumerateGlycosidics(int iStart, int nLeft, boolean bRootUsed) throws DictionaryException {
+		if (nLeft == 0) {
+			accept();
+			return;
+		}
+		for (int i = iStart; i < this.m_lGlycosidicTypes.size(); i++) {
+			IFragmentType fragType = this.m_lGlycosidicTypes.get(i);
+			boolean bRoot = fragType.getCleavageType().isRootSide();
+			if (bRoot && bRootUsed)
+				continue;
+			this.m_lGlycosidics.add(fragType);
+			enumerateGlycosidics(i, nLeft - 1, bRootUsed || bRoot);
+			this.m_lGlycosidics.remove(this.m_lGlycosidics.size() - 1);
+		}
+	}
+
+	private boolean isRootUsed() {
+		for (List<IFragmentType> lChosen : this.m_lCrossRings)
+			for (IFragmentType fragType : lChosen)
+				if (fragType.getCleavageType().isRootSide())
+					return true;
+		for (IFragmentType fragType : this.m_lGlycosidics)
+			if (fragType.getCleavageType().isRootSide())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Builds the fragment of the current assignment and accepts it if it is valid
+	 * and one of its predecessors has been accepted.
+	 */
+	private void accept() throws DictionaryException {
+		CompositionFragment frag = new CompositionFragment(this.m_composition);
+		for (int i = 0; i < this.m_aCounts.length; i++) {
+			if (this.m_aCounts[i] == 0)
+				continue;
+			frag.addResidues(this.m_lMSTypes.get(i), -this.m_aCounts[i]);
+			for (IFragmentType fragType : this.m_lCrossRings.get(i))
+				frag.addFragment(fragType);
+		}
+		for (IFragmentType fragType : this.m_lGlycosidics)
+			frag.addFragment(fragType);
+
+		if (!frag.isValidStructure())
+			return;
+		if (!this.m_fragmenter.canReachWindow(frag))
+			return;
+		if (!hasAcceptedPredecessor(frag))
+			return;
+		this.m_setAccepted.add(frag.getKey());
+		this.m_lFragments.add(frag);
+	}
+
+	private boolean hasAcceptedPredecessor(CompositionFragment frag) {
+		int iLast = this.m_aCounts.length - 1;
+		while (this.m_aCounts[iLast] == 0)
+			iLast--;
+		MonosaccharideType msLast = this.m_lMSTypes.get(iLast);
+
+		// Fragment types which can be restored to the last cleaved monosaccharide
+		Set<IFragmentType> setTypes = new HashSet<>(this.m_lCrossRings.get(iLast));
+		if (this.m_aCounts[iLast] > this.m_lCrossRings.get(iLast).size())
+			setTypes.addAll(this.m_lGlycosidics);
+		for (IFragmentType fragType : setTypes) {
+			CompositionFragment pred = frag.copy();
+			pred.addResidues(msLast, 1);
+			if (fragType.getCleavageType().isRootSide()) {
+				pred.addFragment(null);
+				if (this.m_composition.getReducingEnd() != null)
+					pred.setReducingEnd(this.m_composition.getReducingEnd());
+			} else
+				pred.addLeafFragments(fragType, -1);
+			if (this.m_setAcceptedPrev.contains(pred.getKey()))
+				return true;
+		}
+		return false;
+	}
+}
@@ -1,16 +1,33 @@
 package org.grits.toolbox.ms.annotation.glycan.composition.generator;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.log4j.Logger;
+import org.grits.toolbox.ms.annotation.glycan.composition.index.CompositionFragmentLibrary;
+import org.grits.toolbox.ms.annotation.glycan.composition.index.CompositionIndexConfiguration;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionKey;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.MonosaccharideType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.fragment.CrossRingCleavageType;
@@ -20,14 +37,7 @@ import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.frag
 import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryException;
 
 public class CompositionFragmenter {
-
-	private static final Map<String, List<String>> mapCompositionToFragments;
-	private static final Map<String, List<String>> mapCompositionToSubstructures;
-
-	static {
-		mapCompositionToFragments = new HashMap<>();
-		mapCompositionToSubstructures = new HashMap<>();
-	}
+	private static final Logger logger = Logger.getLogger(CompositionFragmenter.class);
 
 	private boolean m_bAFragments;
 	private boolean m_bBFragments;
@@ -39,6 +49,18 @@ public class CompositionFragmenter {
 	private int m_nMaxCleavages;
 	private int m_nMaxCrossRingCleavages;
 
+	private CompositionFragmenterCache m_cache;
+	private ExecutorService m_executor;
+	private CompositionFragmentLibrary m_library;
+	private FragmentMassWindow m_window;
+	private boolean m_bCombinatorial;
+	private FragmentLattice m_lattice;
+	// Maximum mass increase by a cleavage for each monosaccharide and options
+	private Map<String, Double> m_mapMaxMassIncrease;
+
+	private long m_nCleavageDuplicates;
+	private long m_nMergeDuplicates;
+
 	public CompositionFragmenter() {
 
 		this.m_bAFragments = false;
@@ -50,6 +72,17 @@ public class CompositionFragmenter {
 
 		this.m_nMaxCleavages = -1;
 		this.m_nMaxCrossRingCleavages = -1;
+
+		this.m_cache = new CompositionFragmenterCache();
+		this.m_executor = null;
+		this.m_library = null;
+		this.m_window = null;
+		this.m_bCombinatorial = false;
+		this.m_lattice = null;
+		this.m_mapMaxMassIncrease = new HashMap<>();
+
+		this.m_nCleavageDuplicates = 0;
+		this.m_nMergeDuplicates = 0;
 	}
 
 	/**
@@ -209,6 +242,162 @@ public class CompositionFragmenter {
 		this.m_nMaxCrossRingCleavages = nMaxCrossRingCleavages;
 	}
 
+	/**
+	 * Returns the cache of fragments used by this fragmenter.
+	 * 
+	 * @return CompositionFragmenterCache (a cache of this fragmenter unless specified)
+	 */
+	public CompositionFragmenterCache getCache() {
+		return this.m_cache;
+	}
+
+	/**
+	 * Sets the cache of fragments used by this fragmenter.
+	 * 
+	 * @param cache CompositionFragmenterCache, or {@code null} for a new cache of this fragmenter
+	 */
+	public void setCache(CompositionFragmenterCache cache) {
+		this.m_cache = ( cache == null )? new CompositionFragmenterCache() : cache;
+	}
+
+	/**
+	 * Returns the executor used for computing fragments of substructures in
+	 * parallel.
+	 * 
+	 * @return ExecutorService, or {@code null} if fragments are computed sequentially
+	 */
+	public ExecutorService getExecutorService() {
+		return this.m_executor;
+	}
+
+	/**
+	 * Sets the executor used for computing fragments of substructures in
+	 * parallel (e.g. {@code ForkJoinPool.commonPool()}). The fragments are merged
+	 * in the same order as the sequential computation, so the result does not
+	 * depend on the executor. With a cache shared by fragmenters running at the
+	 * same time, the order depends on the substructures already cached as in the
+	 * sequential computation. The executor is not shut down by this fragmenter.
+	 * 
+	 * @param executor ExecutorService, or {@code null} to compute fragments sequentially
+	 */
+	public void setExecutorService(ExecutorService executor) {
+		this.m_executor = executor;
+	}
+
+	/**
+	 * Returns the persistent library of fragments used by this fragmenter.
+	 * 
+	 * @return CompositionFragmentLibrary, or {@code null} if no library is used
+	 */
+	public CompositionFragmentLibrary getLibrary() {
+		return this.m_library;
+	}
+
+	/**
+	 * Sets the persistent library of fragments. Fragments of a composition are
+	 * read from the library before computing, and computed fragments are added
+	 * to the library. The library is not closed by this fragmenter.
+	 * 
+	 * @param library CompositionFragmentLibrary, or {@code null} to use no library
+	 */
+	public void setLibrary(CompositionFragmentLibrary library) {
+		this.m_library = library;
+	}
+
+	/**
+	 * Returns the m/z window of fragments.
+	 * 
+	 * @return FragmentMassWindow, or {@code null} if all fragments are computed
+	 */
+	public FragmentMassWindow getMassWindow() {
+		return this.m_window;
+	}
+
+	/**
+	 * Sets the m/z window of fragments. Only the fragments within the window are
+	 * computed, in the same order as without the window, and the cleavages of a
+	 * fragment are not expanded if no further cleavage can reach the window. The
+	 * masses are calculated with the mass options of the given compositions.
+	 * 
+	 * @param window FragmentMassWindow, or {@code null} to compute all fragments
+	 */
+	public void setMassWindow(FragmentMassWindow window) {
+		this.m_window = window;
+	}
+
+	/**
+	 * Returns whether the fragments are enumerated by the multisets of fragment
+	 * types instead of cleaving residues one by one.
+	 */
+	public boolean isCombinatorialEnumeration() {
+		return this.m_bCombinatorial;
+	}
+
+	/**
+	 * Sets whether the fragments are enumerated by the multisets of fragment
+	 * types applied to the monosaccharides. The same fragments are computed
+	 * without generating duplicates, but in a different order.
+	 * 
+	 * @param bCombinatorial {@code true} to enumerate the multisets of fragment types
+	 * @see CombinatorialFragmentEnumerator
+	 */
+	public void setCombinatorialEnumeration(boolean bCombinatorial) {
+		this.m_bCombinatorial = bCombinatorial;
+	}
+
+	/**
+	 * Returns the lattice sharing the fragments of substructures.
+	 * 
+	 * @return FragmentLattice, or {@code null} if the fragments of substructures
+	 *     are shared through the cache
+	 */
+	public FragmentLattice getFragmentLattice() {
+		return this.m_lattice;
+	}
+
+	/**
+	 * Sets the lattice sharing the fragments of substructures between all
+	 * compositions of a run. The fragments computed from each substructure are
+	 * held by the lattice instead of the cache, so they are never evicted until
+	 * the lattice is released, and the fragments of a composition are merged from
+	 * all of its substructures. The memory held by the lattice grows with the
+	 * run and is not limited by the bounds of the cache.
+	 * 
+	 * @param lattice FragmentLattice, or {@code null} to share the fragments
+	 *     through the cache
+	 */
+	public void setFragmentLattice(FragmentLattice lattice) {
+		this.m_lattice = lattice;
+	}
+
+	/**
+	 * Returns the number of duplicated fragments generated by cleaving residues
+	 * of the same composition in different orders.
+	 * 
+	 * @return The number of duplicates found since creation or the last reset
+	 */
+	public long getNumberOfCleavageDuplicates() {
+		return this.m_nCleavageDuplicates;
+	}
+
+	/**
+	 * Returns the number of duplicated fragments shared by the substructures of
+	 * a composition and removed on merging.
+	 * 
+	 * @return The number of duplicates found since creation or the last reset
+	 */
+	public long getNumberOfMergeDuplicates() {
+		return this.m_nMergeDuplicates;
+	}
+
+	/**
+	 * Resets the numbers of duplicated fragments.
+	 */
+	public void resetDuplicateCounts() {
+		this.m_nCleavageDuplicates = 0;
+		this.m_nMergeDuplicates = 0;
+	}
+
 	public String getCurrentFragmentOptions() {
 		String strOption = "";
 		if ( this.m_bAFragments )
@@ -228,91 +417,496 @@ public class CompositionFragmenter {
 		return strOption;
 	}
 
+	/**
+	 * Returns the options for the cache keys of the fragments of the given
+	 * composition. The mass window and mass options are added if the window is set.
+	 */
+	private String getCacheOptions(Composition composition) {
+		String strOptions = getCurrentFragmentOptions();
+		// The order of the fragments differs from the sequential cleavages
+		if ( this.m_bCombinatorial )
+			strOptions += '*';
+		if ( this.m_window == null )
+			return strOptions;
+		return strOptions+'@'+this.m_window.toString()
+			+( composition.isMonoisotopicMass()? "M" : "A" )+composition.getPerderivatizationType();
+	}
+
 	/**
 	 * Computes all possible fragments from the given composition.
 	 * 
 	 * @param composition a Composition
 	 * @return List of String format of all possible composition fragments
 	 * @throws DictionaryException
+	 * @see #computeFragmentObjects(Composition)
 	 */
 	public List<String> computeFragments(Composition composition) throws DictionaryException {
-		String strKey = getCurrentFragmentOptions();
+		List<CompositionFragment> lFragments = computeFragmentObjects(composition);
+		// Strings are created only for the result
+		List<String> lStrFragments = new ArrayList<>(lFragments.size());
+		for ( CompositionFragment fragment : lFragments )
+			lStrFragments.add(fragment.toString());
+		return lStrFragments;
+	}
 
-		String strComp = composition.toString();
-		if ( mapCompositionToFragments.containsKey(strComp+strKey) )
-			return mapCompositionToFragments.get(strComp+strKey);
+	/**
+	 * Computes all possible fragments from the given composition. The fragments
+	 * are cached and shared with the other results, so they must be copied before
+	 * modification (e.g. setting mass options).
+	 * 
+	 * @param composition a Composition
+	 * @return Unmodifiable list of all possible composition fragments
+	 * @throws DictionaryException
+	 */
+	public List<CompositionFragment> computeFragmentObjects(Composition composition) throws DictionaryException {
+		String strOptions = getCacheOptions(composition);
+
+		CompositionKey keyComp = composition.getKey();
+		List<CompositionFragment> lCached = this.m_cache.getFragments(strOptions, keyComp);
+		if ( lCached != null )
+			return Collections.unmodifiableList(lCached);
 
+		// Read through the library
+		List<CompositionFragment> lLibrary = readLibrary(strOptions, composition);
+		if ( lLibrary != null ) {
+			this.m_cache.putFragments(strOptions, keyComp, lLibrary);
+			return Collections.unmodifiableList(lLibrary);
+		}
+
+		if ( this.m_lattice != null ) {
+			List<CompositionFragment> lFragments = mergeLatticeFragments(composition, strOptions);
+			this.m_cache.putFragments(strOptions, keyComp, lFragments);
+			writeLibrary(strOptions, composition, lFragments);
+			return Collections.unmodifiableList(lFragments);
+		}
+
+		Map<CompositionKey, List<CompositionFragment>> mapSubFragments = new HashMap<>();
+		List<CompositionKey> lSubKeys = new ArrayList<>();
+		List<Composition> lSubstructures = collectSubstructures(composition, strOptions, lSubKeys, mapSubFragments);
+
+		// Collect substructures whose fragments are not cached
+		List<Composition> lToCompute = new ArrayList<>();
+		for (Composition comp : lSubstructures) {
+			CompositionKey keySub = comp.getKey();
+			if ( mapSubFragments.containsKey(keySub) )
+				continue;
+			List<CompositionFragment> lSubFragments = this.m_cache.getCleavageFragments(strOptions, keySub);
+			if ( lSubFragments != null )
+				mapSubFragments.put(keySub, lSubFragments);
+			else
+				lToCompute.add(comp);
+		}
+		// Compute fragments for substructures
+		computeSubstructureFragments(composition, lToCompute, mapSubFragments);
+		for ( Composition comp : lToCompute )
+			this.m_cache.putCleavageFragments(strOptions, comp.getKey(), mapSubFragments.get(comp.getKey()));
+
+		// Merge in the order of substructures
+		FragmentCollector collector = new FragmentCollector();
+		for (Composition comp : lSubstructures)
+			collector.addAll(mapSubFragments.get(comp.getKey()));
+		this.m_nMergeDuplicates += collector.getNumberOfDuplicates();
+
+		List<CompositionFragment> lFragments = collector.getFragments();
+		this.m_cache.putFragments(strOptions, keyComp, lFragments);
+		this.m_cache.putSubstructures(strOptions, keyComp,
+				new CompositionFragmenterCache.SubstructureEntry(lSubKeys, lFragments));
+		writeLibrary(strOptions, composition, lFragments);
+		return Collections.unmodifiableList(lFragments);
+	}
+
+	/**
+	 * Merges the fragments of the substructures of the given composition on the
+	 * lattice. The fragments are computed only for the substructures whose
+	 * fragments are not held by the lattice.
+	 */
+	private List<CompositionFragment> mergeLatticeFragments(Composition composition, String strOptions)
+			throws DictionaryException {
+		List<FragmentLattice.Node> lNodes = this.m_lattice.getSubstructures(strOptions, composition);
+
+		Map<CompositionKey, List<CompositionFragment>> mapSubFragments = new HashMap<>();
+		List<Composition> lToCompute = new ArrayList<>();
+		List<FragmentLattice.Node> lNodesToCompute = new ArrayList<>();
+		for ( FragmentLattice.Node node : lNodes ) {
+			List<CompositionFragment> lSubFragments = node.getFragments();
+			if ( lSubFragments != null ) {
+				mapSubFragments.put(node.getKey(), lSubFragments);
+				continue;
+			}
+			lToCompute.add(node.getComposition());
+			lNodesToCompute.add(node);
+		}
+		computeSubstructureFragments(composition, lToCompute, mapSubFragments);
+		for ( FragmentLattice.Node node : lNodesToCompute )
+			mapSubFragments.put(node.getKey(), node.setFragments(mapSubFragments.get(node.getKey())));
+
+		// Merge in the order of substructures
+		FragmentCollector collector = new FragmentCollector();
+		for ( FragmentLattice.Node node : lNodes )
+			collector.addAll(mapSubFragments.get(node.getKey()));
+		this.m_nMergeDuplicates += collector.getNumberOfDuplicates();
+		return collector.getFragments();
+	}
+
+	/**
+	 * Collects the substructures of the given composition and itself whose
+	 * fragments are merged, in ascending order of mass. The substructures
+	 * subsumed by a substructure with cached fragments are excluded.
+	 * 
+	 * @param composition a Composition
+	 * @param strOptions String of the current fragment options
+	 * @param lSubKeys List to be filled with the keys of all substructures
+	 * @param mapSubFragments Map to be filled with the cached fragments of the
+	 *     substructures subsuming the others
+	 * @return List of Compositions whose fragments are merged
+	 */
+	private List<Composition> collectSubstructures(Composition composition, String strOptions,
+			List<CompositionKey> lSubKeys, Map<CompositionKey, List<CompositionFragment>> mapSubFragments) {
 		List<Composition> lSubstructures = new ArrayList<>();
 
 		// Consider substructures
-		Set<String> lIsSubsumed = new HashSet<>();
-		mapCompositionToSubstructures.put(strComp+strKey, new ArrayList<>());
+		Set<CompositionKey> lIsSubsumed = new HashSet<>();
 		for ( Composition sub : CompositionUtils.generateSubstructures(composition) ) {
-			mapCompositionToSubstructures.get(strComp+strKey).add(sub.toString()+strKey);
+			CompositionKey keySub = sub.getKey();
+			lSubKeys.add(keySub);
 			lSubstructures.add(sub);
-			if ( mapCompositionToSubstructures.containsKey(sub.toString()+strKey) )
-				lIsSubsumed.addAll(mapCompositionToSubstructures.get(sub.toString()+strKey));
+			// Fragments of the substructure covers the fragments of its substructures
+			CompositionFragmenterCache.SubstructureEntry entry = this.m_cache.getSubstructures(strOptions, keySub);
+			if ( entry != null ) {
+				lIsSubsumed.addAll(entry.getSubstructures());
+				mapSubFragments.put(keySub, entry.getFragments());
+			}
 		}
 		// Add itself
 		lSubstructures.add(composition);
 		// Sort substructures
 		CompositionUtils.sortCompositionsByMass(lSubstructures, true);
 
-		int nDuplication1 = 0;
-		int nDuplication2 = 0;
+		List<Composition> lMerged = new ArrayList<>(lSubstructures.size());
+		for ( Composition comp : lSubstructures )
+			if ( !lIsSubsumed.contains(comp.getKey()) )
+				lMerged.add(comp);
+		return lMerged;
+	}
 
-		List<String> lFragments = new ArrayList<>();
-		for (Composition comp : lSubstructures) {
-			String strSubKey = comp.toString()+strKey;
-			if ( lIsSubsumed.contains(strSubKey) )
+	/**
+	 * Returns an iterator over all possible fragments from the given composition
+	 * in the same order as {@link #computeFragmentObjects(Composition)}. The
+	 * fragments are computed lazily for each substructure while iterating, so
+	 * the computation stops when the iteration is stopped, and the fragments of
+	 * a substructure are released after they are iterated. Fragments of
+	 * substructures are cached but the merged fragments are neither cached nor
+	 * added to the library.
+	 * 
+	 * @param composition a Composition
+	 * @return Iterator of the composition fragments, which must not be modified
+	 * @throws DictionaryException
+	 */
+	public Iterator<CompositionFragment> iterateFragments(Composition composition) throws DictionaryException {
+		String strOptions = getCacheOptions(composition);
+
+		List<CompositionFragment> lCached = this.m_cache.getFragments(strOptions, composition.getKey());
+		if ( lCached != null )
+			return Collections.unmodifiableList(lCached).iterator();
+		List<CompositionFragment> lLibrary = readLibrary(strOptions, composition);
+		if ( lLibrary != null )
+			return lLibrary.iterator();
+
+		// Prepare fragment types in advance since the iterator can not throw
+		for ( ResidueType res : composition.getResidueTypes() )
+			if ( res instanceof MonosaccharideType )
+				this.getFragments((MonosaccharideType) res);
+
+		Map<CompositionKey, List<CompositionFragment>> mapSubFragments = new HashMap<>();
+		List<Composition> lSubstructures = collectSubstructures(composition, strOptions, new ArrayList<CompositionKey>(),
+				mapSubFragments);
+		return new FragmentIterator(lSubstructures, mapSubFragments, strOptions);
+	}
+
+	/**
+	 * Returns a sequential stream of all possible fragments from the given
+	 * composition, which are computed lazily.
+	 * 
+	 * @param composition a Composition
+	 * @return Stream of the composition fragments, which must not be modified
+	 * @throws DictionaryException
+	 * @see #iterateFragments(Composition)
+	 */
+	public Stream<CompositionFragment> streamFragments(Composition composition) throws DictionaryException {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterateFragments(composition),
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Iterator over the fragments of substructures computing them one by one.
+	 */
+	private class FragmentIterator implements Iterator<CompositionFragment> {
+		private Iterator<Composition> m_itSubstructure;
+		private Map<CompositionKey, List<CompositionFragment>> m_mapSubFragments;
+		private String m_strOptions;
+		private Iterator<CompositionFragment> m_itFragment;
+		private Set<CompositionKey> m_setKeys;
+		private CompositionFragment m_fragNext;
+
+		private FragmentIterator(List<Composition> lSubstructures,
+				Map<CompositionKey, List<CompositionFragment>> mapSubFragments, String strOptions) {
+			this.m_itSubstructure = lSubstructures.iterator();
+			this.m_mapSubFragments = mapSubFragments;
+			this.m_strOptions = strOptions;
+			this.m_itFragment = Collections.emptyIterator();
+			this.m_setKeys = new HashSet<>();
+			this.m_fragNext = null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while ( this.m_fragNext == null ) {
+				if ( this.m_itFragment.hasNext() ) {
+					CompositionFragment frag = this.m_itFragment.next();
+					if ( this.m_setKeys.add(frag.getKey()) )
+						this.m_fragNext = frag;
+					else
+						m_nMergeDuplicates++;
+					continue;
+				}
+				if ( !this.m_itSubstructure.hasNext() )
+					return false;
+				this.m_itFragment = getSubstructureFragments(this.m_itSubstructure.next()).iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public CompositionFragment next() {
+			if ( !hasNext() )
+				throw new NoSuchElementException();
+			CompositionFragment frag = this.m_fragNext;
+			this.m_fragNext = null;
+			return frag;
+		}
+
+		private List<CompositionFragment> getSubstructureFragments(Composition sub) {
+			CompositionKey keySub = sub.getKey();
+			List<CompositionFragment> lSubFragments = this.m_mapSubFragments.remove(keySub);
+			if ( lSubFragments == null )
+				lSubFragments = m_cache.getCleavageFragments(this.m_strOptions, keySub);
+			if ( lSubFragments != null )
+				return lSubFragments;
+			lSubFragments = new ArrayList<>();
+			try {
+				m_nCleavageDuplicates += computeFragments0(lSubFragments, sub);
+			} catch (DictionaryException e) {
+				// Fragment types are prepared in advance
+				throw new IllegalStateException(e);
+			}
+			m_cache.putCleavageFragments(this.m_strOptions, keySub, lSubFragments);
+			return lSubFragments;
+		}
+	}
+
+	private List<CompositionFragment> readLibrary(String strOptions, Composition composition) {
+		if ( this.m_library == null )
+			return null;
+		try {
+			List<String> lRecords = this.m_library.get(strOptions, composition);
+			if ( lRecords == null )
+				return null;
+			List<CompositionFragment> lFragments = new ArrayList<>(lRecords.size());
+			for ( String strRecord : lRecords ) {
+				CompositionFragment frag = CompositionUtils.parseFragmentRecord(strRecord);
+				frag.setMassOptions(composition.isMonoisotopicMass(), composition.getPerderivatizationType());
+				lFragments.add((CompositionFragment) frag.freeze());
+			}
+			return lFragments;
+		} catch (IOException | DictionaryException e) {
+			// Fragments are computed if they can not be read
+			logger.error("Unable to read fragments of " + composition + " from the library", e);
+			return null;
+		}
+	}
+
+	private void writeLibrary(String strOptions, Composition composition, List<CompositionFragment> lFragments) {
+		if ( this.m_library == null )
+			return;
+		try {
+			this.m_library.put(strOptions, composition, lFragments);
+		} catch (IOException e) {
+			logger.error("Unable to write fragments of " + composition + " to the library", e);
+		}
+	}
+
+	/**
+	 * Computes fragments of the given compositions with the current options and
+	 * adds them to the library. The compositions already in the library are
+	 * skipped.
+	 * 
+	 * @param lCompositions List of Compositions
+	 * @return The number of compositions added to the library
+	 * @throws DictionaryException
+	 * @throws IOException if the library can not be written
+	 */
+	public int prebuildLibrary(List<Composition> lCompositions) throws DictionaryException, IOException {
+		if ( this.m_library == null )
+			throw new IllegalStateException("No fragment library is set.");
+		int nAdded = 0;
+		for ( Composition composition : lCompositions ) {
+			String strOptions = getCacheOptions(composition);
+			if ( this.m_library.contains(strOptions, composition) )
 				continue;
-			List<String> lSubFragments = new ArrayList<>();
-			if ( mapCompositionToFragments.containsKey(strSubKey) ) {
-				lSubFragments = mapCompositionToFragments.get(strSubKey);
-			} else {
-				// Compute fragments for substructures
-				nDuplication1 += computeFragments0(lSubFragments, comp);
-				mapCompositionToFragments.put(strSubKey, lSubFragments);
+			List<CompositionFragment> lFragments = computeFragmentObjects(composition);
+			// Fragments may have been cached before the library is set
+			this.m_library.put(strOptions, composition, lFragments);
+			nAdded++;
+		}
+		this.m_library.flush();
+		return nAdded;
+	}
+
+	/**
+	 * Computes fragments of all the compositions in the composition space of the
+	 * given configuration and adds them to the library.
+	 * 
+	 * @param config CompositionIndexConfiguration of the composition space
+	 * @return The number of compositions added to the library
+	 * @throws DictionaryException
+	 * @throws IOException if the library can not be written
+	 * @see #prebuildLibrary(List)
+	 */
+	public int prebuildLibrary(CompositionIndexConfiguration config) throws DictionaryException, IOException {
+		return prebuildLibrary(CompositionUtils.generateCompositions(config.getMinComposition(),
+				config.getMaxComposition(), config.getMassThreshold()));
+	}
+
+	/**
+	 * Computes all possible fragments from the given composition as a table of
+	 * fragment masses with the given mass options. The table is cached and shared
+	 * with the other results.
+	 * 
+	 * @param composition a Composition
+	 * @param isMonoisotopic {@code true} for monoisotopic masses
+	 * @param perDeriv PerderivatizationType for the masses
+	 * @return FragmentMassTable of all possible composition fragments
+	 * @throws DictionaryException
+	 * @see #computeFragmentObjects(Composition)
+	 */
+	public FragmentMassTable computeFragmentMassTable(Composition composition, boolean isMonoisotopic,
+			PerderivatizationType perDeriv) throws DictionaryException {
+		String strOptions = getCacheOptions(composition)+'|'+( isMonoisotopic? "M" : "A" )+perDeriv;
+		CompositionKey keyComp = composition.getKey();
+		FragmentMassTable table = this.m_cache.getMassTable(strOptions, keyComp);
+		if ( table != null )
+			return table;
+
+		table = new FragmentMassTable(computeFragmentObjects(composition), isMonoisotopic, perDeriv);
+		this.m_cache.putMassTable(strOptions, keyComp, table);
+		return table;
+	}
+
+	private void computeSubstructureFragments(Composition composition, List<Composition> lSubstructures,
+			Map<CompositionKey, List<CompositionFragment>> mapSubFragments) throws DictionaryException {
+		if ( this.m_executor == null || lSubstructures.size() < 2 ) {
+			for ( Composition sub : lSubstructures ) {
+				List<CompositionFragment> lSubFragments = new ArrayList<>();
+				this.m_nCleavageDuplicates += computeFragments0(lSubFragments, sub);
+				mapSubFragments.put(sub.getKey(), lSubFragments);
 			}
+			return;
+		}
+
+		// Prepare fragment types for all monosaccharides in advance,
+		// substructures contain only the residues in the composition
+		for ( ResidueType res : composition.getResidueTypes() )
+			if ( res instanceof MonosaccharideType )
+				this.getFragments((MonosaccharideType) res);
 
-			for ( String strFragment : lSubFragments )
-				if ( !lFragments.contains(strFragment) ) {
-					lFragments.add(strFragment);
-				} else
-					nDuplication2++;
+		List<List<CompositionFragment>> lResults = new ArrayList<>();
+		List<Future<Integer>> lFutures = new ArrayList<>();
+		for ( final Composition sub : lSubstructures ) {
+			final List<CompositionFragment> lSubFragments = new ArrayList<>();
+			lResults.add(lSubFragments);
+			lFutures.add(this.m_executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws DictionaryException {
+					return computeFragments0(lSubFragments, sub);
+				}
+			}));
 		}
-//		System.out.println( String.format("Duplication: %d,%d", nDuplication1, nDuplication2) );
 
-		mapCompositionToFragments.put(strComp+strKey, lFragments);
-		return lFragments;
+		try {
+			for ( int i=0; i<lSubstructures.size(); i++ ) {
+				this.m_nCleavageDuplicates += getResult(lFutures.get(i));
+				mapSubFragments.put(lSubstructures.get(i).getKey(), lResults.get(i));
+			}
+		} finally {
+			for ( Future<Integer> future : lFutures )
+				future.cancel(true);
+		}
+	}
+
+	private static int getResult(Future<Integer> future) throws DictionaryException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DictionaryException("Fragment computation was interrupted.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if ( cause instanceof DictionaryException )
+				throw (DictionaryException) cause;
+			if ( cause instanceof RuntimeException )
+				throw (RuntimeException) cause;
+			if ( cause instanceof Error )
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
 	}
 
-	private int computeFragments0(List<String> lFragments, Composition composition) throws DictionaryException {
+	private int computeFragments0(List<CompositionFragment> lFragments, Composition composition)
+			throws DictionaryException {
 		if ( composition.getNumberOfMonosaccharides() == 1 && composition.getReducingEnd() == null)
 			return 0;
 
+		// No fragment of the composition can reach the window
+		if ( this.m_window != null && !canReachWindow(new CompositionFragment(composition)) )
+			return 0;
+
+		if ( this.m_bCombinatorial ) {
+			CombinatorialFragmentEnumerator enumerator = new CombinatorialFragmentEnumerator(
+					this, composition, this.m_nMaxCleavages, this.m_nMaxCrossRingCleavages);
+			// Falls back to the sequential cleavages for the fragment types not supported
+			if ( enumerator.initialize() ) {
+				enumerator.enumerate(lFragments);
+				removeFragmentsOutOfWindow(lFragments);
+				freezeFragments(lFragments);
+				return 0;
+			}
+		}
+
 		int nDup = 0;
+		boolean bHasItself = false;
 		for (ResidueType res : composition.getResidueTypes()) {
 			// Cleaves only monosaccharides
 			if (!(res instanceof MonosaccharideType))
 				continue;
 			MonosaccharideType msType = (MonosaccharideType) res;
+			List<IFragmentType> lFragTypes = this.getFragments(msType);
 			int nRes = composition.getNumberOfResidue(res);
 
-			List<String> lFragmentsCurrent = lFragments;
-			if ( lFragmentsCurrent.isEmpty() )
-				lFragmentsCurrent.add(composition.toString());
+			List<CompositionFragment> lFragmentsCurrent = lFragments;
+			if ( lFragmentsCurrent.isEmpty() ) {
+				lFragmentsCurrent.add(new CompositionFragment(composition));
+				bHasItself = true;
+			}
 			for ( int i=0; i<nRes; i++ ) {
 				
-				List<String> lFragmentsNext = new ArrayList<>();
-				for ( String strFrag : lFragmentsCurrent ) {
-					Composition terget = CompositionUtils.parse( strFrag );
+				FragmentCollector collectorNext = new FragmentCollector(lFragmentsCurrent.size());
+				for ( CompositionFragment target : lFragmentsCurrent ) {
 
-					for (IFragmentType fragType : this.getFragments(msType)) {
-						// Generate fragments
-						CompositionFragment frag = new CompositionFragment(terget);
-						if ( fragType.getCleavageType().isRootSide() && frag.getRootFragment() != null )
+					for (IFragmentType fragType : lFragTypes) {
+						if ( fragType.getCleavageType().isRootSide() && target.getRootFragment() != null )
 							continue;
+						// Generate fragments
+						CompositionFragment frag = target.copy();
 						// Remove current residue
 						frag.addResidues(res, -1);
 						// Add a fragment instead of removed residue
@@ -320,30 +914,149 @@ public class CompositionFragmenter {
 							continue;
 						if (!frag.isValidStructure())
 							continue;
-						if ( lFragmentsNext.contains(frag.toString()) ) {
-							nDup++;
-							continue;
-						}
 						if (this.m_nMaxCrossRingCleavages >= 0
 								&& frag.getNumberOfCrossRingFragments() > this.m_nMaxCrossRingCleavages)
 							continue;
 						if (this.m_nMaxCleavages >= 0
 								&& frag.getNumberOfNonCrossRingFragments() > this.m_nMaxCleavages)
 							continue;
-						lFragmentsNext.add(frag.toString());
+						// Neither the fragment nor further cleavages can reach the window
+						if (this.m_window != null && !canReachWindow(frag))
+							continue;
+						collectorNext.add(frag);
 					}
 				}
 
-//				System.out.println(String.format("Substructures(%s:%d): %d",res, i+1, lFragmentsNext.size()));
-				lFragmentsCurrent = lFragmentsNext;
+				nDup += collectorNext.getNumberOfDuplicates();
+				lFragmentsCurrent = collectorNext.getFragments();
 				lFragments.addAll(lFragmentsCurrent);
 			}
 		}
-		lFragments.remove(composition.toString());
+		// Remove the composition itself added first
+		if ( bHasItself )
+			lFragments.remove(0);
+
+		removeFragmentsOutOfWindow(lFragments);
+		freezeFragments(lFragments);
 
 		return nDup;
 	}
 
+	/**
+	 * Freezes the computed fragments, which are shared through the cache.
+	 */
+	private static void freezeFragments(List<CompositionFragment> lFragments) {
+		for ( CompositionFragment frag : lFragments )
+			frag.freeze();
+	}
+
+	/**
+	 * Removes fragments out of the window, which are kept for further cleavages.
+	 */
+	private void removeFragmentsOutOfWindow(List<CompositionFragment> lFragments) {
+		if ( this.m_window == null )
+			return;
+		Iterator<CompositionFragment> itFragment = lFragments.iterator();
+		while ( itFragment.hasNext() )
+			if ( !this.m_window.contains(itFragment.next().computeMass()) )
+				itFragment.remove();
+	}
+
+	/**
+	 * Returns whether the given fragment or its further cleavages can be in the
+	 * mass window. The mass of a further cleavage is bounded by the mass of the
+	 * fragment plus the maximum mass increase by a cleavage for each remaining
+	 * monosaccharide, so the cleavages are never lighter than the lower limit if
+	 * the bound is.
+	 */
+	boolean canReachWindow(CompositionFragment frag) throws DictionaryException {
+		if ( this.m_window == null )
+			return true;
+		int nCleavages = frag.getNumberOfMonosaccharides();
+		if ( this.m_nMaxCleavages >= 0 && this.m_nMaxCrossRingCleavages >= 0 )
+			nCleavages = Math.min(nCleavages,
+					this.m_nMaxCleavages - frag.getNumberOfNonCrossRingFragments()
+					+ this.m_nMaxCrossRingCleavages - frag.getNumberOfCrossRingFragments());
+		double dIncrease = 0d;
+		if ( nCleavages > 0 ) {
+			for ( ResidueType res : frag.getResidueTypes() )
+				if ( res instanceof MonosaccharideType )
+					dIncrease = Math.max(dIncrease, getMaxMassIncrease((MonosaccharideType) res, frag));
+		}
+		double dBound = frag.computeMass() + nCleavages * dIncrease + MASS_MARGIN;
+		return dBound >= this.m_window.getMinMass();
+	}
+
+	private static final double MASS_MARGIN = 0.001d;
+
+	/**
+	 * Returns the maximum mass increase by a cleavage of the given monosaccharide.
+	 * The mass changes only depend on whether the other parts (core residues,
+	 * reducing end and fragments) exist, so they are measured on small fragments
+	 * covering those cases.
+	 */
+	private double getMaxMassIncrease(MonosaccharideType msType, Composition composition)
+			throws DictionaryException {
+		String strKey = msType.toString()+getCurrentFragmentOptions()
+				+( composition.isMonoisotopicMass()? "M" : "A" )+composition.getPerderivatizationType()
+				+"--"+composition.getReducingEnd();
+		synchronized ( this.m_mapMaxMassIncrease ) {
+			Double dCached = this.m_mapMaxMassIncrease.get(strKey);
+			if ( dCached != null )
+				return dCached;
+		}
+
+		List<IFragmentType> lFragTypes = this.getFragments(msType);
+		// Fragments already existing in the probes
+		List<IFragmentType> lOthers = new ArrayList<>();
+		lOthers.add(null);
+		for ( IFragmentType fragType : lFragTypes ) {
+			if ( fragType.getCleavageType().isRootSide() ) {
+				lOthers.add(fragType);
+				break;
+			}
+		}
+		for ( IFragmentType fragType : lFragTypes ) {
+			if ( !fragType.getCleavageType().isRootSide() ) {
+				lOthers.add(fragType);
+				break;
+			}
+		}
+
+		double dMax = 0d;
+		for ( int nRes=1; nRes<=2; nRes++ ) {
+			for ( int iRedEnd=0; iRedEnd<2; iRedEnd++ ) {
+				if ( iRedEnd == 1 && composition.getReducingEnd() == null )
+					continue;
+				for ( IFragmentType fragOther : lOthers ) {
+					Composition comp = new Composition();
+					comp.addResidues(msType, nRes);
+					if ( iRedEnd == 1 )
+						comp.setReducingEnd(composition.getReducingEnd());
+					comp.setMassOptions(composition.isMonoisotopicMass(), composition.getPerderivatizationType());
+					CompositionFragment probe = new CompositionFragment(comp);
+					if ( fragOther != null && !probe.addFragment(fragOther) )
+						continue;
+					double dMass = probe.computeMass();
+					for ( IFragmentType fragType : lFragTypes ) {
+						if ( fragType.getCleavageType().isRootSide() && probe.getRootFragment() != null )
+							continue;
+						CompositionFragment frag = probe.copy();
+						frag.addResidues(msType, -1);
+						if ( !frag.addFragment(fragType) )
+							continue;
+						dMax = Math.max(dMax, frag.computeMass() - dMass);
+					}
+				}
+			}
+		}
+
+		synchronized ( this.m_mapMaxMassIncrease ) {
+			this.m_mapMaxMassIncrease.put(strKey, dMax);
+		}
+		return dMax;
+	}
+
 /*
 	private int computeFragments(List<String> lFragments, Composition composition) throws DictionaryException {
 		if (lFragments.contains(composition.toString()))
@@ -394,29 +1107,31 @@ public class CompositionFragmenter {
 		return nDuplication;
 	}
 */
-	private static Map<String, List<IFragmentType>> mapMSToFragments = new HashMap<>();
-
-	private List<IFragmentType> getFragments(MonosaccharideType msType) throws DictionaryException {
+	List<IFragmentType> getFragments(MonosaccharideType msType) throws DictionaryException {
 		String strKey = msType.toString()+getCurrentFragmentOptions();
-		if ( mapMSToFragments.containsKey(strKey) )
-			return mapMSToFragments.get(strKey);
+		List<IFragmentType> lCached = this.m_cache.getMonosaccharideFragments(strKey);
+		if ( lCached != null )
+			return lCached;
 
-		// Generate fragments for the monosaccharide type
-		FragmentDictionary.generateAllMonosaccharideFragments(msType);
 		List<IFragmentType> lFragments = new ArrayList<>();
-		if ( this.m_bAFragments )
-			lFragments.addAll( FragmentDictionary.getFragments(msType, CrossRingCleavageType.A) );
-		if ( this.m_bBFragments )
-			lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.B) );
-		if ( this.m_bCFragments )
-			lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.C) );
-		if ( this.m_bXFragments )
-			lFragments.addAll( FragmentDictionary.getFragments(msType, CrossRingCleavageType.X) );
-		if ( this.m_bYFragments )
-			lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.Y) );
-		if ( this.m_bZFragments )
-			lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.Z) );
-		mapMSToFragments.put(strKey, lFragments);
+		// FragmentDictionary is not thread-safe
+		synchronized ( FragmentDictionary.class ) {
+			// Generate fragments for the monosaccharide type
+			FragmentDictionary.generateAllMonosaccharideFragments(msType);
+			if ( this.m_bAFragments )
+				lFragments.addAll( FragmentDictionary.getFragments(msType, CrossRingCleavageType.A) );
+			if ( this.m_bBFragments )
+				lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.B) );
+			if ( this.m_bCFragments )
+				lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.C) );
+			if ( this.m_bXFragments )
+				lFragments.addAll( FragmentDictionary.getFragments(msType, CrossRingCleavageType.X) );
+			if ( this.m_bYFragments )
+				lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.Y) );
+			if ( this.m_bZFragments )
+				lFragments.addAll( FragmentDictionary.getFragments(msType, GlycosidicCleavageType.Z) );
+		}
+		this.m_cache.putMonosaccharideFragments(strKey, lFragments);
 		return lFragments;
 	}
 }
@@ -0,0 +1,229 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.cache.CacheStatistics;
+import org.grits.toolbox.ms.annotation.glycan.composition.cache.ICache;
+import org.grits.toolbox.ms.annotation.glycan.composition.cache.ICacheWeigher;
+import org.grits.toolbox.ms.annotation.glycan.composition.cache.StripedLRUCache;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionKey;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.fragment.IFragmentType;
+
+/**
+ * Class holding the caches used by CompositionFragmenter. The fragments,
+ * substructures and fragment mass tables are cached for each combination of
+ * fragment options and composition, and bounded by the total number of
+ * objects held by the entries: the fragments, the substructures with the
+ * fragments covering them, and the table entries with the fragments of the
+ * tables, respectively. A cache can be shared by fragmenters with any options
+ * and can be accessed concurrently.
+ *
+ * @see CompositionFragmenter#setCache(CompositionFragmenterCache)
+ */
+public class CompositionFragmenterCache {
+
+	/** Default maximum number of cached fragments */
+	public static final long DEFAULT_MAX_FRAGMENTS = 2000000L;
+	/** Default maximum number of cached substructures and their fragments */
+	public static final long DEFAULT_MAX_SUBSTRUCTURES = 2000000L;
+	/** Default maximum number of cached fragment mass table entries and their fragments */
+	public static final long DEFAULT_MAX_MASS_TABLE_ENTRIES = 4000000L;
+	/** Default maximum number of cached fragment type lists */
+	public static final long DEFAULT_MAX_MONOSACCHARIDE_FRAGMENTS = 1024L;
+
+	private static final int STRIPES = 16;
+
+	private ICache<OptionKey, List<CompositionFragment>> m_cacheFragments;
+	private ICache<OptionKey, SubstructureEntry> m_cacheSubstructures;
+	private ICache<OptionKey, FragmentMassTable> m_cacheMassTables;
+	private ICache<String, List<IFragmentType>> m_cacheMSFragments;
+
+	/**
+	 * Creates a cache with the default bounds.
+	 */
+	public CompositionFragmenterCache() {
+		this(DEFAULT_MAX_FRAGMENTS, DEFAULT_MAX_SUBSTRUCTURES);
+	}
+
+	/**
+	 * Creates LRU caches with the given bounds.
+	 *
+	 * @param nMaxFragments     The maximum number of cached fragments
+	 * @param nMaxSubstructures The maximum number of cached substructures and
+	 *                          the fragments held with them
+	 */
+	public CompositionFragmenterCache(long nMaxFragments, long nMaxSubstructures) {
+		this(new StripedLRUCache<>(nMaxFragments, new ICacheWeigher<OptionKey, List<CompositionFragment>>() {
+			@Override
+			public long weigh(OptionKey key, List<CompositionFragment> value) {
+				return value.size() + 1;
+			}
+		}, STRIPES), new StripedLRUCache<>(nMaxSubstructures, new ICacheWeigher<OptionKey, SubstructureEntry>() {
+			@Override
+			public long weigh(OptionKey key, SubstructureEntry value) {
+				// The fragments are held by the entry even if evicted from the fragment cache
+				return value.getSubstructures().size() + value.getFragments().size() + 1;
+			}
+		}, STRIPES), new StripedLRUCache<>(DEFAULT_MAX_MASS_TABLE_ENTRIES, new ICacheWeigher<OptionKey, FragmentMassTable>() {
+			@Override
+			public long weigh(OptionKey key, FragmentMassTable value) {
+				// The table holds the fragment list in addition to the entries
+				return value.size() + value.getNumberOfFragments() + 1;
+			}
+		}, STRIPES), new StripedLRUCache<>(DEFAULT_MAX_MONOSACCHARIDE_FRAGMENTS));
+	}
+
+	/**
+	 * Creates a cache with the given cache implementations.
+	 *
+	 * @param cacheFragments      ICache for the fragments of compositions
+	 * @param cacheSubstructures  ICache for the substructures of compositions
+	 * @param cacheMassTables     ICache for the fragment mass tables of compositions
+	 * @param cacheMSFragments    ICache for the fragment types of monosaccharides
+	 */
+	public CompositionFragmenterCache(ICache<OptionKey, List<CompositionFragment>> cacheFragments,
+			ICache<OptionKey, SubstructureEntry> cacheSubstructures,
+			ICache<OptionKey, FragmentMassTable> cacheMassTables,
+			ICache<String, List<IFragmentType>> cacheMSFragments) {
+		this.m_cacheFragments = cacheFragments;
+		this.m_cacheSubstructures = cacheSubstructures;
+		this.m_cacheMassTables = cacheMassTables;
+		this.m_cacheMSFragments = cacheMSFragments;
+	}
+
+	List<CompositionFragment> getFragments(String strOptions, CompositionKey key) {
+		return this.m_cacheFragments.get(new OptionKey(strOptions, key));
+	}
+
+	void putFragments(String strOptions, CompositionKey key, List<CompositionFragment> lFragments) {
+		this.m_cacheFragments.put(new OptionKey(strOptions, key), lFragments);
+	}
+
+	/**
+	 * Returns the fragments from the cleavages of a composition alone, which
+	 * are merged with the ones of its substructures into the fragments of the
+	 * composition. They are cached apart from the merged fragments.
+	 */
+	List<CompositionFragment> getCleavageFragments(String strOptions, CompositionKey key) {
+		return this.m_cacheFragments.get(new OptionKey(strOptions, key, true));
+	}
+
+	void putCleavageFragments(String strOptions, CompositionKey key, List<CompositionFragment> lFragments) {
+		this.m_cacheFragments.put(new OptionKey(strOptions, key, true), lFragments);
+	}
+
+	SubstructureEntry getSubstructures(String strOptions, CompositionKey key) {
+		return this.m_cacheSubstructures.get(new OptionKey(strOptions, key));
+	}
+
+	void putSubstructures(String strOptions, CompositionKey key, SubstructureEntry entry) {
+		this.m_cacheSubstructures.put(new OptionKey(strOptions, key), entry);
+	}
+
+	FragmentMassTable getMassTable(String strOptions, CompositionKey key) {
+		return this.m_cacheMassTables.get(new OptionKey(strOptions, key));
+	}
+
+	void putMassTable(String strOptions, CompositionKey key, FragmentMassTable table) {
+		this.m_cacheMassTables.put(new OptionKey(strOptions, key), table);
+	}
+
+	List<IFragmentType> getMonosaccharideFragments(String strKey) {
+		return this.m_cacheMSFragments.get(strKey);
+	}
+
+	void putMonosaccharideFragments(String strKey, List<IFragmentType> lFragments) {
+		this.m_cacheMSFragments.put(strKey, lFragments);
+	}
+
+	public CacheStatistics getFragmentStatistics() {
+		return this.m_cacheFragments.getStatistics();
+	}
+
+	public CacheStatistics getSubstructureStatistics() {
+		return this.m_cacheSubstructures.getStatistics();
+	}
+
+	public CacheStatistics getMassTableStatistics() {
+		return this.m_cacheMassTables.getStatistics();
+	}
+
+	public CacheStatistics getMonosaccharideFragmentStatistics() {
+		return this.m_cacheMSFragments.getStatistics();
+	}
+
+	/**
+	 * Removes all cached entries.
+	 */
+	public void clear() {
+		this.m_cacheFragments.clear();
+		this.m_cacheSubstructures.clear();
+		this.m_cacheMassTables.clear();
+		this.m_cacheMSFragments.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("fragments: %d (%s), substructures: %d (%s)", this.m_cacheFragments.size(),
+				getFragmentStatistics(), this.m_cacheSubstructures.size(), getSubstructureStatistics());
+	}
+
+	/**
+	 * Key of a composition with fragment options.
+	 */
+	public static final class OptionKey {
+		private final String m_strOptions;
+		private final CompositionKey m_key;
+		private final boolean m_bCleavage;
+
+		private OptionKey(String strOptions, CompositionKey key) {
+			this(strOptions, key, false);
+		}
+
+		private OptionKey(String strOptions, CompositionKey key, boolean bCleavage) {
+			this.m_strOptions = strOptions;
+			this.m_key = key;
+			this.m_bCleavage = bCleavage;
+		}
+
+		@Override
+		public int hashCode() {
+			return ( this.m_key.hashCode() * 31 + this.m_strOptions.hashCode() ) * 2 + ( this.m_bCleavage? 1 : 0 );
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if ( this == obj )
+				return true;
+			if ( !(obj instanceof OptionKey) )
+				return false;
+			OptionKey key = (OptionKey) obj;
+			return this.m_bCleavage == key.m_bCleavage && this.m_key.equals(key.m_key)
+					&& this.m_strOptions.equals(key.m_strOptions);
+		}
+	}
+
+	/**
+	 * Substructures of a composition together with all the fragments of the
+	 * composition and the substructures. They are cached together since the
+	 * substructures are only valid with the fragments covering them.
+	 */
+	public static final class SubstructureEntry {
+		private final List<CompositionKey> m_lSubstructures;
+		private final List<CompositionFragment> m_lFragments;
+
+		SubstructureEntry(List<CompositionKey> lSubstructures, List<CompositionFragment> lFragments) {
+			this.m_lSubstructures = lSubstructures;
+			this.m_lFragments = lFragments;
+		}
+
+		public List<CompositionKey> getSubstructures() {
+			return this.m_lSubstructures;
+		}
+
+		public List<CompositionFragment> getFragments() {
+			return this.m_lFragments;
+		}
+	}
+}
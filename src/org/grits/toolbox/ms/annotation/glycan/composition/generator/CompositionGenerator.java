@@ -3,10 +3,35 @@ package org.grits.toolbox.ms.annotation.glycan.composition.generator;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.CompositionGeneratorSettings;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ICompositionConstraint;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ICountConstraint;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.ResidueMassIncrements;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
 
+/**
+ * Iterator generating compositions between the given minimum and maximum
+ * compositions. The residue counts are walked with a mixed-radix counter
+ * (odometer) so that only the current counts are held in memory. The first
+ * residue is the fastest changing digit.<br>
+ * When every residue increases the mass, a composition exceeding the mass
+ * threshold prunes the whole subtree of the counter, i.e. all the compositions
+ * having the same or more residues on the current and lower digits.<br>
+ * The mass is kept as running sums of residue mass increments for each digit
+ * (see {@link ResidueMassIncrements}), so no composition is created for the
+ * counts exceeding the threshold. The generated compositions have the mass
+ * options of the minimum composition (or maximum one if no minimum) and no
+ * reducing end, and the mass threshold is applied to their masses. The
+ * reducing ends of the minimum and maximum compositions are ignored.<br>
+ * Constraints on the residue counts (see {@link ICompositionConstraint}) are
+ * checked before walking the lower digits, so the lower digits are skipped as
+ * a whole when no counts of them can satisfy a constraint.
+ */
 public class CompositionGenerator implements Iterator<Composition> {
 
 	private Composition m_compMin;
@@ -14,10 +39,20 @@ public class CompositionGenerator implements Iterator<Composition> {
 	private double m_dMassThreshold;
 
 	private List<ResidueType> m_lRess;
+	private int[] m_aMinCounts;
+	private int[] m_aMaxCounts;
+	private ResidueMassIncrements m_massIncrements;
+	private boolean m_bIsMassMonotone;
+	private List<ICountConstraint> m_lConstraints;
 
 	private Composition m_compCurrent;
-	private int m_iCurrent;
-	private List<int[]> m_lIndices;
+	private Composition m_compNext;
+	private int[] m_aCounts;
+	private double[] m_aIncrementSums;
+	private int[] m_aLinkageUnitSums;
+	private int m_iLastDigit;
+	private boolean m_bStarted;
+	private boolean m_bFinished;
 
 	public CompositionGenerator(Composition compMin, Composition compMax) {
 		this.m_compMin = compMin;
@@ -26,42 +61,79 @@ public class CompositionGenerator implements Iterator<Composition> {
 		initialize();
 	}
 
+	/**
+	 * Creates a generator with the residue counts, mass options, reducing end,
+	 * mass threshold and constraints of the given settings.
+	 *
+	 * @param settings CompositionGeneratorSettings
+	 */
+	public CompositionGenerator(CompositionGeneratorSettings settings) {
+		this(settings.createMinComposition(), settings.createMaxComposition());
+		if ( settings.getThresholdMass() >= 0 )
+			this.m_dMassThreshold = settings.getThresholdMass();
+		for ( ICompositionConstraint constraint : settings.getConstraints() )
+			addConstraint(constraint);
+	}
+
 	private void initialize() {
-		// Create possible combinations
 		this.m_lRess = new ArrayList<>();
 		this.m_lRess.addAll(this.m_compMax.getResidueTypes());
 		int nIndices = this.m_lRess.size();
-		int[] indicesMin = new int[nIndices];
-		// Set first indices
+		this.m_aMinCounts = new int[nIndices];
+		this.m_aMaxCounts = new int[nIndices];
 		for ( int i=0; i<nIndices; i++ ) {
-			indicesMin[i] = 0;
-			if ( this.m_compMin == null ||this.m_compMin.isEmpty() )
+			ResidueType res = this.m_lRess.get(i);
+			this.m_aMaxCounts[i] = this.m_compMax.getNumberOfResidue(res);
+			if ( this.m_compMin == null || this.m_compMin.isEmpty() )
 				continue;
-			indicesMin[i] = this.m_compMin.getNumberOfResidue(this.m_lRess.get(i));
-			if ( indicesMin[i] < 0 )
-				indicesMin[i] = 0;
+			this.m_aMinCounts[i] = this.m_compMin.getNumberOfResidue(res);
+			if ( this.m_aMinCounts[i] < 0 )
+				this.m_aMinCounts[i] = 0;
 		}
-		List<int[]> lIndices = new ArrayList<>();
-		lIndices.add(indicesMin);
-		for ( int i=0; i<nIndices; i++ ) {
-			int nMax = this.m_compMax.getNumberOfResidue(this.m_lRess.get(i));
-			nMax -= indicesMin[i];
-			List<int[]> lNewIndices = new ArrayList<>();
-			for ( int j=0; j<=nMax; j++ ) {
-				for ( int[] oldIndices : lIndices ) {
-					// Create a copy of indices
-					int[] newIndices = new int[nIndices];
-					for ( int k=0; k<nIndices; k++ )
-						newIndices[k] = oldIndices[k];
-					newIndices[i] += j;
-					lNewIndices.add(newIndices);
-				}
-			}
-			lIndices = lNewIndices;
-		}
-		this.m_lIndices = lIndices;
 
-		this.m_iCurrent = -1;
+		Composition compOptions = getOptionComposition();
+		// The generated compositions have no reducing end
+		this.m_massIncrements = new ResidueMassIncrements(this.m_lRess,
+				compOptions.isMonoisotopicMass(), compOptions.getPerderivatizationType(), null);
+		this.m_bIsMassMonotone = this.m_massIncrements.isMonotone();
+		this.m_lConstraints = new ArrayList<>();
+
+		initializeCounter();
+	}
+
+	/**
+	 * Creates a generator for the sub-box of the given generator. The residues,
+	 * mass options and mass threshold are shared with the given generator.
+	 *
+	 * @param genParent CompositionGenerator to be divided
+	 * @param aMinCounts Array of the minimum counts of the sub-box
+	 * @param aMaxCounts Array of the maximum counts of the sub-box
+	 */
+	CompositionGenerator(CompositionGenerator genParent, int[] aMinCounts, int[] aMaxCounts) {
+		this.m_compMin = genParent.m_compMin;
+		this.m_compMax = genParent.m_compMax;
+		this.m_dMassThreshold = genParent.m_dMassThreshold;
+		this.m_lRess = genParent.m_lRess;
+		this.m_aMinCounts = aMinCounts;
+		this.m_aMaxCounts = aMaxCounts;
+		this.m_massIncrements = genParent.m_massIncrements;
+		this.m_bIsMassMonotone = genParent.m_bIsMassMonotone;
+		this.m_lConstraints = genParent.m_lConstraints;
+
+		initializeCounter();
+	}
+
+	private void initializeCounter() {
+		int nIndices = this.m_lRess.size();
+		this.m_aCounts = new int[nIndices];
+		// Sums of increments from each digit to the most significant digit
+		this.m_aIncrementSums = new double[nIndices+1];
+		this.m_aLinkageUnitSums = new int[nIndices+1];
+
+		this.m_compCurrent = null;
+		this.m_compNext = null;
+		this.m_bStarted = false;
+		this.m_bFinished = false;
 	}
 
 	public void setMassThreshold(double dMass) {
@@ -72,48 +144,246 @@ public class CompositionGenerator implements Iterator<Composition> {
 		return this.m_dMassThreshold;
 	}
 
+	/**
+	 * Adds a constraint on the residue counts of the generated compositions. The
+	 * residues not contained in the maximum composition are treated as zero.
+	 *
+	 * @param constraint ICompositionConstraint to be added
+	 */
+	public void addConstraint(ICompositionConstraint constraint) {
+		this.m_lConstraints.add(constraint.createCountConstraint(this.m_lRess));
+	}
+
+	/**
+	 * Returns a spliterator of the compositions generated by this generator. The
+	 * spliterator divides the box of residue counts so the compositions can be
+	 * generated in parallel, e.g. with
+	 * {@code StreamSupport.stream(gen.spliterator(true), true)}. This generator
+	 * must not be used after the call.
+	 *
+	 * @param bOrdered {@code true} if the compositions must be encountered in the
+	 *                 same order as this generator
+	 * @return CompositionSpliterator
+	 */
+	public CompositionSpliterator spliterator(boolean bOrdered) {
+		return new CompositionSpliterator(this, bOrdered);
+	}
+
+	/**
+	 * Returns a stream of the compositions generated by this generator.
+	 *
+	 * @param bParallel {@code true} for a parallel stream
+	 * @return Stream of the compositions in the same order as this generator
+	 * @see #spliterator(boolean)
+	 */
+	public Stream<Composition> stream(boolean bParallel) {
+		return StreamSupport.stream(spliterator(true), bParallel);
+	}
+
+	/**
+	 * Divides the remaining box into two at the most significant digit having
+	 * two or more counts. The lower half of the digit is removed from this
+	 * generator and returned as a new generator, so the returned generator
+	 * generates the compositions preceding the ones of this generator.
+	 *
+	 * @return CompositionGenerator for the lower half, or {@code null} if this
+	 *         generator has already started or can not be divided
+	 */
+	CompositionGenerator trySplit() {
+		if ( this.m_bStarted )
+			return null;
+		for ( int i=this.m_aCounts.length-1; i>=0; i-- ) {
+			int nRange = this.m_aMaxCounts[i] - this.m_aMinCounts[i];
+			if ( nRange < 1 )
+				continue;
+			int nMid = this.m_aMinCounts[i] + (nRange - 1) / 2;
+			int[] aLowerMax = this.m_aMaxCounts.clone();
+			aLowerMax[i] = nMid;
+			CompositionGenerator genLower = new CompositionGenerator(this, this.m_aMinCounts.clone(), aLowerMax);
+			this.m_aMinCounts = this.m_aMinCounts.clone();
+			this.m_aMinCounts[i] = nMid + 1;
+			return genLower;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of compositions in the box between the minimum and
+	 * maximum compositions. The mass threshold is not considered, so this is an
+	 * upper bound of the number of generated compositions.
+	 *
+	 * @return The number of compositions in the box ({@code Long.MAX_VALUE} if it
+	 *         overflows)
+	 */
+	public long estimatedSize() {
+		long nSize = 1;
+		for ( int i=0; i<this.m_aMinCounts.length; i++ ) {
+			int nRange = this.m_aMaxCounts[i] - this.m_aMinCounts[i] + 1;
+			if ( nRange <= 0 )
+				return 0;
+			if ( nSize > Long.MAX_VALUE / nRange )
+				return Long.MAX_VALUE;
+			nSize *= nRange;
+		}
+		return nSize;
+	}
+
 	@Override
 	public boolean hasNext() {
-		int iOld = this.m_iCurrent;
-		this.m_iCurrent++;
-		updateCurrent();
-		boolean result = (this.m_compCurrent != null);
-		this.m_iCurrent = iOld;
-		return result;
+		updateNext();
+		return (this.m_compNext != null);
 	}
 
 	@Override
 	public Composition next() {
-		this.m_iCurrent++;
-		updateCurrent();
+		updateNext();
+		if ( this.m_compNext == null )
+			throw new NoSuchElementException();
+		this.m_compCurrent = this.m_compNext;
+		this.m_compNext = null;
 		return this.m_compCurrent;
 	}
 
-	private void updateCurrent() {
-		this.m_compCurrent = null;
-		while (this.m_iCurrent < this.m_lIndices.size()) {
-			int[] indicesCurrent = this.m_lIndices.get(this.m_iCurrent);
-			Composition composition = new Composition();
-			composition.setMassOptions(
-					this.m_compMin.isMonoisotopicMass(),
-					this.m_compMin.getPerderivatizationType()
-				);
-			for ( int i=0; i<this.m_lRess.size(); i++ ) {
-				int count = indicesCurrent[i];
-				if ( count == 0 )
-					continue;
-				ResidueType res = this.m_lRess.get(i);
-				composition.addResidues(res, count);
+	/**
+	 * Looks ahead the next composition not exceeding the mass threshold.
+	 */
+	private void updateNext() {
+		if ( this.m_compNext != null )
+			return;
+		int iDigit = 0;
+		while ( advance(iDigit) ) {
+			iDigit = 0;
+			updateMass();
+			if ( getCurrentMass() > this.m_dMassThreshold ) {
+				// The digits lower than the last changed digit are at their minimum,
+				// so increasing the last changed digit or lower ones exceeds the threshold, too
+				if ( this.m_bIsMassMonotone )
+					iDigit = this.m_iLastDigit + 1;
+				continue;
 			}
-			if ( composition.computeMass() > this.m_dMassThreshold ) {
-				this.m_iCurrent++;
+			if ( !isFeasible() ) {
+				// No counts with the current value of the last changed digit satisfy
+				// the constraints, so move to the next value of the digit
+				iDigit = this.m_iLastDigit;
 				continue;
 			}
-			this.m_compCurrent = composition;
+			if ( !isSatisfied() )
+				continue;
+			this.m_compNext = createComposition();
 			break;
 		}
 	}
 
+	/**
+	 * Moves the counter to the next counts in the box, starting from the given
+	 * digit. The digits lower than the given digit are reset to their minimum.
+	 *
+	 * @param iDigit The lowest digit to be incremented
+	 * @return {@code false} if no more counts are available
+	 */
+	private boolean advance(int iDigit) {
+		if ( this.m_bFinished )
+			return false;
+		int nIndices = this.m_aCounts.length;
+		if ( !this.m_bStarted ) {
+			this.m_bStarted = true;
+			for ( int i=0; i<nIndices; i++ ) {
+				if ( this.m_aMinCounts[i] > this.m_aMaxCounts[i] ) {
+					this.m_bFinished = true;
+					return false;
+				}
+				this.m_aCounts[i] = this.m_aMinCounts[i];
+			}
+			// All digits are at their minimum
+			this.m_iLastDigit = nIndices;
+			return true;
+		}
+		for ( int i=0; i<iDigit && i<nIndices; i++ )
+			this.m_aCounts[i] = this.m_aMinCounts[i];
+		for ( int i=iDigit; i<nIndices; i++ ) {
+			if ( this.m_aCounts[i] < this.m_aMaxCounts[i] ) {
+				this.m_aCounts[i]++;
+				this.m_iLastDigit = i;
+				return true;
+			}
+			// Carry to the next digit
+			this.m_aCounts[i] = this.m_aMinCounts[i];
+		}
+		this.m_bFinished = true;
+		return false;
+	}
+
+	/**
+	 * Updates the running sums of increments for the digits changed by the last
+	 * advance, i.e. the last changed digit and lower ones.
+	 */
+	private void updateMass() {
+		int nIndices = this.m_aCounts.length;
+		for ( int i=Math.min(this.m_iLastDigit, nIndices-1); i>=0; i-- ) {
+			this.m_aIncrementSums[i] = this.m_aIncrementSums[i+1]
+					+ this.m_aCounts[i] * this.m_massIncrements.getIncrement(i);
+			this.m_aLinkageUnitSums[i] = this.m_aLinkageUnitSums[i+1]
+					+ this.m_aCounts[i] * this.m_massIncrements.getLinkageUnit(i);
+		}
+	}
+
+	/**
+	 * Returns the mass of the current counts.
+	 */
+	private double getCurrentMass() {
+		return this.m_massIncrements.computeMass(this.m_aIncrementSums[0], this.m_aLinkageUnitSums[0]);
+	}
+
+	/**
+	 * Returns {@code false} if no counts satisfy the constraints while the last
+	 * changed digit and higher ones keep their current values. The digits lower
+	 * than the last changed digit are free.
+	 */
+	private boolean isFeasible() {
+		for ( ICountConstraint constraint : this.m_lConstraints ) {
+			if ( !constraint.isFeasible(this.m_aCounts, this.m_iLastDigit, this.m_aMinCounts, this.m_aMaxCounts) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns {@code true} if the current counts satisfy all the constraints.
+	 */
+	private boolean isSatisfied() {
+		for ( ICountConstraint constraint : this.m_lConstraints ) {
+			if ( !constraint.isSatisfied(this.m_aCounts) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the composition having the mass options for the generated
+	 * compositions. The options are taken from the minimum composition if
+	 * available.
+	 */
+	private Composition getOptionComposition() {
+		return ( this.m_compMin != null )? this.m_compMin : this.m_compMax;
+	}
+
+	private Composition createComposition() {
+		Composition compOptions = getOptionComposition();
+		Composition composition = new Composition();
+		composition.setMassOptions(
+				compOptions.isMonoisotopicMass(),
+				compOptions.getPerderivatizationType()
+			);
+		for ( int i=0; i<this.m_lRess.size(); i++ ) {
+			int count = this.m_aCounts[i];
+			if ( count == 0 )
+				continue;
+			ResidueType res = this.m_lRess.get(i);
+			composition.addResidues(res, count);
+		}
+		return composition;
+	}
+
 	public Composition getCurrent() {
 		return this.m_compCurrent;
 	}
@@ -0,0 +1,66 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+
+/**
+ * Spliterator of compositions generated by {@link CompositionGenerator}. The
+ * box of residue counts is divided into disjoint sub-boxes at the most
+ * significant digit, so each split generates a contiguous part of the
+ * generation order and a parallel stream can keep the order of the generator.
+ *
+ * @see CompositionGenerator#spliterator(boolean)
+ */
+public class CompositionSpliterator implements Spliterator<Composition> {
+
+	private CompositionGenerator m_generator;
+	private boolean m_bOrdered;
+
+	/**
+	 * @param generator CompositionGenerator which has not been started
+	 * @param bOrdered  {@code true} if the compositions must be encountered in the
+	 *                  generation order
+	 */
+	public CompositionSpliterator(CompositionGenerator generator, boolean bOrdered) {
+		this.m_generator = generator;
+		this.m_bOrdered = bOrdered;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Composition> action) {
+		if ( !this.m_generator.hasNext() )
+			return false;
+		action.accept(this.m_generator.next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super Composition> action) {
+		while ( this.m_generator.hasNext() )
+			action.accept(this.m_generator.next());
+	}
+
+	@Override
+	public Spliterator<Composition> trySplit() {
+		CompositionGenerator genLower = this.m_generator.trySplit();
+		if ( genLower == null )
+			return null;
+		return new CompositionSpliterator(genLower, this.m_bOrdered);
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.m_generator.estimatedSize();
+	}
+
+	@Override
+	public int characteristics() {
+		int iCharacteristics = DISTINCT | NONNULL | IMMUTABLE;
+		if ( this.m_bOrdered )
+			iCharacteristics |= ORDERED;
+		return iCharacteristics;
+	}
+
+}
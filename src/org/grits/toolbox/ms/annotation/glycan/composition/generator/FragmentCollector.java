@@ -0,0 +1,109 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionKey;
+
+/**
+ * Collection of unique composition fragments keeping the insertion order.
+ * Fragments are identified by their keys, so duplicates are found in constant
+ * time, and the number of rejected duplicates is counted.
+ *
+ * @see CompositionFragment#getKey()
+ */
+public class FragmentCollector {
+
+	private List<CompositionFragment> m_lFragments;
+	private Set<CompositionKey> m_setKeys;
+	private int m_nDuplicates;
+
+	public FragmentCollector() {
+		this(16);
+	}
+
+	public FragmentCollector(int nExpectedSize) {
+		this.m_lFragments = new ArrayList<>(nExpectedSize);
+		this.m_setKeys = new HashSet<>(Math.max(16, (int) (nExpectedSize / 0.75f) + 1));
+		this.m_nDuplicates = 0;
+	}
+
+	/**
+	 * Returns whether the given key of a fragment has been added.
+	 *
+	 * @param key CompositionKey of a fragment
+	 * @return {@code true} if a fragment with the key has been added
+	 */
+	public boolean contains(CompositionKey key) {
+		return this.m_setKeys.contains(key);
+	}
+
+	/**
+	 * Adds the given fragment unless a fragment with the same key has been added.
+	 *
+	 * @param fragment CompositionFragment to be added
+	 * @return {@code true} if the fragment is added, {@code false} if it is a
+	 *         duplicate
+	 */
+	public boolean add(CompositionFragment fragment) {
+		return add(fragment, fragment.getKey());
+	}
+
+	/**
+	 * Adds the given fragment with its key, which is calculated in advance,
+	 * unless a fragment with the same key has been added.
+	 *
+	 * @param fragment CompositionFragment to be added
+	 * @param key      CompositionKey of the fragment
+	 * @return {@code true} if the fragment is added, {@code false} if it is a
+	 *         duplicate
+	 */
+	public boolean add(CompositionFragment fragment, CompositionKey key) {
+		if ( !this.m_setKeys.add(key) ) {
+			this.m_nDuplicates++;
+			return false;
+		}
+		this.m_lFragments.add(fragment);
+		return true;
+	}
+
+	/**
+	 * Adds all the given fragments in the order.
+	 *
+	 * @param lFragments List of CompositionFragments to be added
+	 * @return The number of fragments added
+	 */
+	public int addAll(List<CompositionFragment> lFragments) {
+		int nAdded = 0;
+		for ( CompositionFragment fragment : lFragments )
+			if ( add(fragment) )
+				nAdded++;
+		return nAdded;
+	}
+
+	public int size() {
+		return this.m_lFragments.size();
+	}
+
+	public boolean isEmpty() {
+		return this.m_lFragments.isEmpty();
+	}
+
+	/**
+	 * Returns the number of duplicates rejected by this collector.
+	 */
+	public int getNumberOfDuplicates() {
+		return this.m_nDuplicates;
+	}
+
+	/**
+	 * Returns the collected fragments in the insertion order. The list is backed
+	 * by this collector.
+	 */
+	public List<CompositionFragment> getFragments() {
+		return this.m_lFragments;
+	}
+}
@@ -0,0 +1,257 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionKey;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Class for the lattice of compositions sharing their fragments over a run,
+ * e.g. all compositions of an annotation. A node is a composition with the
+ * edges to its parents and children, which have one more and one less residue
+ * respectively. Each node holds the fragments computed from the composition
+ * itself only once, and the fragments of a composition are the union of the
+ * fragments of its substructures. So the fragments are computed once for each
+ * unique substructure of all compositions in the lattice.<br>
+ * The nodes are separated by the fragment options, and they are never removed
+ * until the lattice is cleared. So the lattice holds the fragments of every
+ * node for the whole run, and they are not bounded by the limits of
+ * {@link CompositionFragmenterCache}, which only holds the merged fragments.
+ *
+ * @see CompositionFragmenter#setFragmentLattice(FragmentLattice)
+ */
+public class FragmentLattice {
+
+	private Map<String, Map<CompositionKey, Node>> m_mapOptionsToNodes;
+	// Residue types in the lattice to find parents of a new node
+	private Set<ResidueType> m_setResidueTypes;
+	private int m_nNodes;
+	private int m_nEdges;
+
+	public FragmentLattice() {
+		this.m_mapOptionsToNodes = new HashMap<>();
+		this.m_setResidueTypes = new HashSet<>();
+		this.m_nNodes = 0;
+		this.m_nEdges = 0;
+	}
+
+	/**
+	 * Returns the number of nodes in this lattice.
+	 */
+	public synchronized int getNumberOfNodes() {
+		return this.m_nNodes;
+	}
+
+	/**
+	 * Returns the number of parent-child edges in this lattice.
+	 */
+	public synchronized int getNumberOfEdges() {
+		return this.m_nEdges;
+	}
+
+	/**
+	 * Returns the number of nodes whose fragments have been computed.
+	 */
+	public synchronized int getNumberOfComputedNodes() {
+		int nComputed = 0;
+		for ( Map<CompositionKey, Node> mapNodes : this.m_mapOptionsToNodes.values() )
+			for ( Node node : mapNodes.values() )
+				if ( node.getFragments() != null )
+					nComputed++;
+		return nComputed;
+	}
+
+	/**
+	 * Removes all nodes.
+	 */
+	public synchronized void clear() {
+		this.m_mapOptionsToNodes.clear();
+		this.m_setResidueTypes.clear();
+		this.m_nNodes = 0;
+		this.m_nEdges = 0;
+	}
+
+	/**
+	 * Returns the node of the given composition.
+	 *
+	 * @param strOptions String of the fragment options
+	 * @param composition a Composition
+	 * @return Node of the composition, or {@code null} if it is not in this lattice
+	 */
+	public synchronized Node getNode(String strOptions, Composition composition) {
+		Map<CompositionKey, Node> mapNodes = this.m_mapOptionsToNodes.get(strOptions);
+		if ( mapNodes == null )
+			return null;
+		return mapNodes.get(composition.getKey());
+	}
+
+	/**
+	 * Returns the nodes of the substructures of the given composition and itself
+	 * in ascending order of mass, which is the order of merging their fragments.
+	 * The nodes are added to this lattice if they are not in it. The
+	 * substructures are generated outside the lock of this lattice.
+	 *
+	 * @param strOptions String of the fragment options
+	 * @param composition a Composition
+	 * @return List of Nodes of the substructures and the composition
+	 */
+	List<Node> getSubstructures(String strOptions, Composition composition) {
+		CompositionKey key = composition.getKey();
+		synchronized ( this ) {
+			Map<CompositionKey, Node> mapNodes = this.m_mapOptionsToNodes.get(strOptions);
+			Node node = ( mapNodes == null )? null : mapNodes.get(key);
+			if ( node != null && node.m_lSubstructures != null )
+				return node.m_lSubstructures;
+		}
+
+		List<Composition> lSubstructures = CompositionUtils.generateSubstructures(composition);
+		lSubstructures.add(composition);
+		CompositionUtils.sortCompositionsByMass(lSubstructures, true);
+		// Keys are cached in the compositions before taking the lock
+		for ( Composition sub : lSubstructures )
+			sub.getKey();
+
+		synchronized ( this ) {
+			Map<CompositionKey, Node> mapNodes = this.m_mapOptionsToNodes.get(strOptions);
+			if ( mapNodes == null ) {
+				mapNodes = new HashMap<>();
+				this.m_mapOptionsToNodes.put(strOptions, mapNodes);
+			}
+			// Substructures may have been set by another thread meanwhile
+			Node node = mapNodes.get(key);
+			if ( node != null && node.m_lSubstructures != null )
+				return node.m_lSubstructures;
+			// Substructures are added in ascending order of mass, mostly children first
+			List<Node> lNodes = new ArrayList<>(lSubstructures.size());
+			for ( Composition sub : lSubstructures )
+				lNodes.add(addNode(mapNodes, sub));
+			node = mapNodes.get(key);
+			node.m_lSubstructures = Collections.unmodifiableList(lNodes);
+			return node.m_lSubstructures;
+		}
+	}
+
+	private Node addNode(Map<CompositionKey, Node> mapNodes, Composition composition) {
+		CompositionKey key = composition.getKey();
+		Node node = mapNodes.get(key);
+		if ( node != null )
+			return node;
+		node = new Node(this, composition.copy().freeze(), key);
+		mapNodes.put(key, node);
+		this.m_nNodes++;
+		this.m_setResidueTypes.addAll(composition.getResidueTypes());
+
+		// Link to the children having one less residue
+		for ( ResidueType res : composition.getResidueTypes() ) {
+			Composition child = composition.copy();
+			child.addResidues(res, -1);
+			link(mapNodes.get(child.getKey()), node);
+		}
+		// Link to the parents having one more residue
+		for ( ResidueType res : this.m_setResidueTypes ) {
+			Composition parent = composition.copy();
+			parent.addResidues(res, 1);
+			link(node, mapNodes.get(parent.getKey()));
+		}
+		return node;
+	}
+
+	private void link(Node child, Node parent) {
+		if ( child == null || parent == null )
+			return;
+		child.m_lParents.add(parent);
+		parent.m_lChildren.add(child);
+		this.m_nEdges++;
+	}
+
+	/**
+	 * Class for a node of the lattice.
+	 */
+	public static final class Node {
+		// Lattice whose lock guards the edges
+		private final FragmentLattice m_lattice;
+		private final Composition m_composition;
+		private final CompositionKey m_key;
+		private final List<Node> m_lParents;
+		private final List<Node> m_lChildren;
+		// Substructures to be merged, set when the node is requested directly
+		private List<Node> m_lSubstructures;
+		private List<CompositionFragment> m_lFragments;
+
+		private Node(FragmentLattice lattice, Composition composition, CompositionKey key) {
+			this.m_lattice = lattice;
+			this.m_composition = composition;
+			this.m_key = key;
+			this.m_lParents = new ArrayList<>();
+			this.m_lChildren = new ArrayList<>();
+			this.m_lSubstructures = null;
+			this.m_lFragments = null;
+		}
+
+		/**
+		 * Returns the composition of this node, which is frozen.
+		 */
+		public Composition getComposition() {
+			return this.m_composition;
+		}
+
+		public CompositionKey getKey() {
+			return this.m_key;
+		}
+
+		/**
+		 * Returns a copy of the nodes having one more residue than this node.
+		 * Nodes added to the lattice afterwards are not in the copy.
+		 */
+		public List<Node> getParents() {
+			synchronized ( this.m_lattice ) {
+				return new ArrayList<>(this.m_lParents);
+			}
+		}
+
+		/**
+		 * Returns a copy of the nodes having one less residue than this node.
+		 * Nodes added to the lattice afterwards are not in the copy.
+		 */
+		public List<Node> getChildren() {
+			synchronized ( this.m_lattice ) {
+				return new ArrayList<>(this.m_lChildren);
+			}
+		}
+
+		/**
+		 * Returns the fragments computed from the composition of this node only.
+		 *
+		 * @return List of CompositionFragments, or {@code null} if they have not been
+		 *         computed
+		 */
+		public synchronized List<CompositionFragment> getFragments() {
+			return this.m_lFragments;
+		}
+
+		/**
+		 * Sets the fragments of this node unless they have already been set.
+		 *
+		 * @return List of CompositionFragments held by this node
+		 */
+		synchronized List<CompositionFragment> setFragments(List<CompositionFragment> lFragments) {
+			if ( this.m_lFragments == null )
+				this.m_lFragments = Collections.unmodifiableList(lFragments);
+			return this.m_lFragments;
+		}
+
+		@Override
+		public String toString() {
+			return this.m_composition.toString();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+
+/**
+ * Compact table of the fragment masses of a composition for a set of mass
+ * options. The masses are held in a sorted array with the ordinals of the
+ * fragments in the fragment list, so fragments matching a mass can be found by
+ * binary search, and fragment objects and strings are created only for the
+ * fragments actually used.
+ *
+ * @see CompositionFragmenter#computeFragmentMassTable(org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition,
+ *      boolean, PerderivatizationType)
+ */
+public class FragmentMassTable {
+
+	private List<CompositionFragment> m_lFragments;
+	private boolean m_bIsMonoisotopic;
+	private PerderivatizationType m_perDeriv;
+	private double[] m_aMasses;
+	private int[] m_aOrdinals;
+	private String[] m_aStrings;
+
+	/**
+	 * Creates a table of the given fragments.
+	 *
+	 * @param lFragments     List of CompositionFragments shared with the
+	 *                       fragmenter cache (not modified)
+	 * @param isMonoisotopic {@code true} for monoisotopic masses
+	 * @param perDeriv       PerderivatizationType for the masses
+	 */
+	FragmentMassTable(List<CompositionFragment> lFragments, boolean isMonoisotopic,
+			PerderivatizationType perDeriv) {
+		this.m_lFragments = lFragments;
+		this.m_bIsMonoisotopic = isMonoisotopic;
+		this.m_perDeriv = perDeriv;
+
+		int nFragments = lFragments.size();
+		// Masses are computed on the shared fragments without copying them
+		final double[] aMasses = new double[nFragments];
+		for ( int i=0; i<nFragments; i++ )
+			aMasses[i] = lFragments.get(i).computeMass(isMonoisotopic, perDeriv);
+
+		// Stable sort keeps the fragment order for the same masses
+		Integer[] aOrder = new Integer[nFragments];
+		for ( int i=0; i<nFragments; i++ )
+			aOrder[i] = i;
+		Arrays.sort(aOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(aMasses[i1], aMasses[i2]);
+			}
+		});
+
+		this.m_aMasses = new double[nFragments];
+		this.m_aOrdinals = new int[nFragments];
+		for ( int i=0; i<nFragments; i++ ) {
+			this.m_aOrdinals[i] = aOrder[i];
+			this.m_aMasses[i] = aMasses[aOrder[i]];
+		}
+		this.m_aStrings = new String[nFragments];
+	}
+
+	private CompositionFragment materialize(int iOrdinal) {
+		CompositionFragment frag = this.m_lFragments.get(iOrdinal).copy();
+		frag.setMassOptions(this.m_bIsMonoisotopic, this.m_perDeriv);
+		return frag;
+	}
+
+	/**
+	 * Returns the number of fragments in the fragment list held by this table.
+	 */
+	public int getNumberOfFragments() {
+		return this.m_lFragments.size();
+	}
+
+	public int size() {
+		return this.m_aMasses.length;
+	}
+
+	public boolean isMonoisotopicMass() {
+		return this.m_bIsMonoisotopic;
+	}
+
+	public PerderivatizationType getPerderivatizationType() {
+		return this.m_perDeriv;
+	}
+
+	/**
+	 * Returns the mass at the given index in mass order.
+	 */
+	public double getMass(int i) {
+		return this.m_aMasses[i];
+	}
+
+	/**
+	 * Returns the ordinal of the fragment at the given index in mass order, which
+	 * is the position in the fragment list of the composition.
+	 */
+	public int getOrdinal(int i) {
+		return this.m_aOrdinals[i];
+	}
+
+	/**
+	 * Returns a new CompositionFragment at the given index in mass order, with
+	 * the mass options of this table.
+	 */
+	public CompositionFragment getFragment(int i) {
+		return materialize(this.m_aOrdinals[i]);
+	}
+
+	/**
+	 * Returns the String representation of the fragment types of the fragment at
+	 * the given index in mass order, without creating the fragment.
+	 *
+	 * @see CompositionFragment#getFragmentType()
+	 */
+	public String getFragmentType(int i) {
+		return this.m_lFragments.get(this.m_aOrdinals[i]).getFragmentType();
+	}
+
+	/**
+	 * Returns the String format of the fragment at the given index in mass order.
+	 * The string is created on first request.
+	 */
+	public synchronized String getFragmentString(int i) {
+		if ( this.m_aStrings[i] == null )
+			this.m_aStrings[i] = this.m_lFragments.get(this.m_aOrdinals[i]).toString();
+		return this.m_aStrings[i];
+	}
+
+	/**
+	 * Returns the first index whose mass is equal to or higher than the given mass.
+	 */
+	public int lowerBound(double dMass) {
+		int iLow = 0;
+		int iHigh = this.m_aMasses.length;
+		while ( iLow < iHigh ) {
+			int iMid = (iLow + iHigh) >>> 1;
+			if ( this.m_aMasses[iMid] < dMass )
+				iLow = iMid + 1;
+			else
+				iHigh = iMid;
+		}
+		return iLow;
+	}
+
+	/**
+	 * Returns the first index whose mass is higher than the given mass.
+	 */
+	public int upperBound(double dMass) {
+		int iLow = 0;
+		int iHigh = this.m_aMasses.length;
+		while ( iLow < iHigh ) {
+			int iMid = (iLow + iHigh) >>> 1;
+			if ( this.m_aMasses[iMid] <= dMass )
+				iLow = iMid + 1;
+			else
+				iHigh = iMid;
+		}
+		return iLow;
+	}
+
+	/**
+	 * Finds fragments whose mass is within the given range.
+	 *
+	 * @param dLowerMass double value of the lower limit of the mass (inclusive)
+	 * @param dUpperMass double value of the upper limit of the mass (inclusive)
+	 * @return List of new CompositionFragments sorted by mass
+	 */
+	public List<CompositionFragment> findFragmentsInRange(double dLowerMass, double dUpperMass) {
+		List<CompositionFragment> lFragments = new ArrayList<>();
+		int iEnd = upperBound(dUpperMass);
+		for ( int i = lowerBound(dLowerMass); i < iEnd; i++ )
+			lFragments.add(getFragment(i));
+		return lFragments;
+	}
+}
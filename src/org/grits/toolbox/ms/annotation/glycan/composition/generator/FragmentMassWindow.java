@@ -0,0 +1,113 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.generator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for an m/z window of fragments with a set of ions (charge and adduct).
+ * A fragment is in the window if its m/z for any of the ions is within the
+ * window. If no ion is added, the window is of neutral masses.
+ *
+ * @see CompositionFragmenter#setMassWindow(FragmentMassWindow)
+ */
+public class FragmentMassWindow {
+
+	private double m_dMinMz;
+	private double m_dMaxMz;
+	private List<Integer> m_lCharges;
+	private List<Double> m_lAdductMasses;
+
+	/**
+	 * @param dMinMz double value of the lower limit of m/z (inclusive)
+	 * @param dMaxMz double value of the upper limit of m/z (inclusive)
+	 */
+	public FragmentMassWindow(double dMinMz, double dMaxMz) {
+		if ( dMinMz > dMaxMz )
+			throw new IllegalArgumentException("The lower limit must not be higher than the upper limit.");
+		this.m_dMinMz = dMinMz;
+		this.m_dMaxMz = dMaxMz;
+		this.m_lCharges = new ArrayList<>();
+		this.m_lAdductMasses = new ArrayList<>();
+	}
+
+	/**
+	 * Adds an ion of the fragments.
+	 *
+	 * @param nCharge the number of charges (must be positive)
+	 * @param dAdductMass double value of the total mass of adducts carrying the charges
+	 */
+	public void addIon(int nCharge, double dAdductMass) {
+		if ( nCharge <= 0 )
+			throw new IllegalArgumentException("The number of charges must be positive.");
+		this.m_lCharges.add(nCharge);
+		this.m_lAdductMasses.add(dAdductMass);
+	}
+
+	public double getMinMz() {
+		return this.m_dMinMz;
+	}
+
+	public double getMaxMz() {
+		return this.m_dMaxMz;
+	}
+
+	public int getNumberOfIons() {
+		return this.m_lCharges.size();
+	}
+
+	/**
+	 * Returns the lowest neutral mass whose m/z is within the window for any ion.
+	 */
+	public double getMinMass() {
+		if ( this.m_lCharges.isEmpty() )
+			return this.m_dMinMz;
+		double dMin = Double.POSITIVE_INFINITY;
+		for ( int i=0; i<this.m_lCharges.size(); i++ )
+			dMin = Math.min(dMin, toMass(this.m_dMinMz, i));
+		return dMin;
+	}
+
+	/**
+	 * Returns the highest neutral mass whose m/z is within the window for any ion.
+	 */
+	public double getMaxMass() {
+		if ( this.m_lCharges.isEmpty() )
+			return this.m_dMaxMz;
+		double dMax = Double.NEGATIVE_INFINITY;
+		for ( int i=0; i<this.m_lCharges.size(); i++ )
+			dMax = Math.max(dMax, toMass(this.m_dMaxMz, i));
+		return dMax;
+	}
+
+	private double toMass(double dMz, int iIon) {
+		int nCharge = this.m_lCharges.get(iIon);
+		return dMz * nCharge - this.m_lAdductMasses.get(iIon);
+	}
+
+	/**
+	 * Returns whether the m/z of the given neutral mass is within the window for
+	 * any ion.
+	 *
+	 * @param dMass double value of a neutral mass
+	 * @return {@code true} if the mass is in the window
+	 */
+	public boolean contains(double dMass) {
+		if ( this.m_lCharges.isEmpty() )
+			return this.m_dMinMz <= dMass && dMass <= this.m_dMaxMz;
+		for ( int i=0; i<this.m_lCharges.size(); i++ ) {
+			double dMz = (dMass + this.m_lAdductMasses.get(i)) / this.m_lCharges.get(i);
+			if ( this.m_dMinMz <= dMz && dMz <= this.m_dMaxMz )
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append('[').append(this.m_dMinMz).append(',').append(this.m_dMaxMz).append(']');
+		for ( int i=0; i<this.m_lCharges.size(); i++ )
+			sb.append(this.m_lCharges.get(i)).append('/').append(this.m_lAdductMasses.get(i)).append(';');
+		return sb.toString();
+	}
+}
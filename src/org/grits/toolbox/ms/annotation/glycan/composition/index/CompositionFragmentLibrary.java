@@ -0,0 +1,374 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionFragment;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+
+/**
+ * Class for the persistent library of composition fragments keyed by
+ * composition and fragment options. The fragments are appended to a log file
+ * and the offsets of the records are kept in an index file, which is written
+ * on {@link #flush()} and {@link #close()}. Records appended after the last
+ * flush are recovered by scanning the log on opening. The log file is
+ * memory-mapped for reading in segments addressed by long offsets, so the log
+ * is not limited to the 2 GB of a single mapping.<br>
+ * Log format: a header of magic number and version, followed by records of a
+ * key (length and UTF-8 bytes), the number of fragments and the fragment
+ * records (length and UTF-8 bytes, separated by new lines). The fragment
+ * records are written by
+ * {@link CompositionUtils#toFragmentRecord(CompositionFragment)}, which can be
+ * parsed back without loss of the reducing ends and custom masses.<br>
+ * Index format: a header of magic number, version, the length of the log
+ * covered by the index and the number of entries, followed by the entries of a
+ * key and an offset of the record in the log.
+ *
+ * @see org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionFragmenter#setLibrary(CompositionFragmentLibrary)
+ */
+public class CompositionFragmentLibrary implements Closeable {
+
+	static final int MAGIC = 0x4743464C; // "GCFL"
+	static final int INDEX_MAGIC = 0x47434649; // "GCFI"
+	static final int VERSION = 2;
+
+	private static final int HEADER_LENGTH = 8;
+	static final int DEFAULT_SEGMENT_LENGTH = 1 << 30;
+
+	private File m_fileLog;
+	private File m_fileIndex;
+	private RandomAccessFile m_raf;
+	private FileChannel m_channel;
+	// Mapped segments of the log, all but the last have the segment length
+	private List<MappedByteBuffer> m_lSegments;
+	private int m_nSegmentLength;
+	private long m_lMappedLength;
+	private long m_lLength;
+	private Map<String, Long> m_mapKeyToOffset;
+	private boolean m_bIndexModified;
+
+	private CompositionFragmentLibrary(File fileLog, int nSegmentLength) throws IOException {
+		this.m_fileLog = fileLog;
+		this.m_fileIndex = new File(fileLog.getPath() + ".idx");
+		this.m_raf = new RandomAccessFile(fileLog, "rw");
+		this.m_channel = this.m_raf.getChannel();
+		this.m_lSegments = new ArrayList<>();
+		this.m_nSegmentLength = nSegmentLength;
+		this.m_lMappedLength = 0;
+		this.m_mapKeyToOffset = new HashMap<>();
+		this.m_bIndexModified = false;
+	}
+
+	/**
+	 * Opens the library file, which is created if it does not exist.
+	 *
+	 * @param file log file of the library (the index file is the same path with
+	 *             ".idx")
+	 * @return CompositionFragmentLibrary
+	 * @throws IOException if the file can not be read or is not a library file
+	 */
+	public static CompositionFragmentLibrary open(File file) throws IOException {
+		return open(file, DEFAULT_SEGMENT_LENGTH);
+	}
+
+	/**
+	 * Opens the library file with the given length of the mapped segments of the
+	 * log. The segment length does not change the file format.
+	 *
+	 * @param file           log file of the library
+	 * @param nSegmentLength the length of the memory-mapped segments in bytes
+	 * @return CompositionFragmentLibrary
+	 * @throws IOException if the file can not be read or is not a library file
+	 * @see #open(File)
+	 */
+	public static CompositionFragmentLibrary open(File file, int nSegmentLength) throws IOException {
+		if (nSegmentLength < HEADER_LENGTH)
+			throw new IllegalArgumentException("Segment length is too small: " + nSegmentLength);
+		CompositionFragmentLibrary library = new CompositionFragmentLibrary(file, nSegmentLength);
+		try {
+			library.initialize();
+		} catch (IOException e) {
+			library.close();
+			throw e;
+		}
+		return library;
+	}
+
+	private void initialize() throws IOException {
+		if (this.m_channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(header, 0);
+		}
+		this.m_lLength = this.m_channel.size();
+		remap();
+		if (this.m_lLength < HEADER_LENGTH || getInt(0) != MAGIC || getInt(4) != VERSION)
+			throw new IOException("Not a fragment library file: " + this.m_fileLog);
+
+		long lIndexed = readIndex();
+		if (lIndexed < HEADER_LENGTH || lIndexed > this.m_lLength) {
+			this.m_mapKeyToOffset.clear();
+			lIndexed = HEADER_LENGTH;
+		}
+		// Recover records appended after the index was written
+		long lOffset = lIndexed;
+		while (lOffset < this.m_lLength) {
+			long lNext = scanRecord(lOffset);
+			if (lNext < 0)
+				break;
+			lOffset = lNext;
+			this.m_bIndexModified = true;
+		}
+		// Discard an incomplete record at the end
+		if (lOffset < this.m_lLength) {
+			this.m_channel.truncate(lOffset);
+			this.m_lLength = lOffset;
+			this.m_lSegments.clear();
+			this.m_lMappedLength = 0;
+			remap();
+		}
+	}
+
+	private long readIndex() throws IOException {
+		if (!this.m_fileIndex.exists())
+			return -1;
+		try (DataInputStream dis = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(this.m_fileIndex)))) {
+			if (dis.readInt() != INDEX_MAGIC || dis.readInt() != VERSION)
+				return -1;
+			long lIndexed = dis.readLong();
+			int nEntries = dis.readInt();
+			for (int i = 0; i < nEntries; i++) {
+				String strKey = dis.readUTF();
+				long lOffset = dis.readLong();
+				this.m_mapKeyToOffset.put(strKey, lOffset);
+			}
+			return lIndexed;
+		} catch (IOException e) {
+			// The index is rebuilt from the log
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads the key of the record at the given offset and adds it to the index.
+	 *
+	 * @return The offset of the next record, or -1 if the record is incomplete
+	 */
+	private long scanRecord(long lOffset) {
+		if (lOffset + 4 > this.m_lLength)
+			return -1;
+		int nKeyLength = getInt(lOffset);
+		if (nKeyLength < 0 || lOffset + 4 + nKeyLength + 8 > this.m_lLength)
+			return -1;
+		int nDataLength = getInt(lOffset + 4 + nKeyLength + 4);
+		long lNext = lOffset + 4 + nKeyLength + 8 + nDataLength;
+		if (nDataLength < 0 || lNext > this.m_lLength)
+			return -1;
+		this.m_mapKeyToOffset.put(readString(lOffset + 4, nKeyLength), lOffset);
+		return lNext;
+	}
+
+	private int getInt(long lOffset) {
+		int iSegment = (int) (lOffset / this.m_nSegmentLength);
+		int iPosition = (int) (lOffset % this.m_nSegmentLength);
+		MappedByteBuffer segment = this.m_lSegments.get(iSegment);
+		if (iPosition + 4 <= segment.limit())
+			return segment.getInt(iPosition);
+		// The value spans two segments
+		byte[] aBytes = new byte[4];
+		readBytes(lOffset, aBytes);
+		return ByteBuffer.wrap(aBytes).getInt();
+	}
+
+	private void readBytes(long lOffset, byte[] aBytes) {
+		int iRead = 0;
+		while (iRead < aBytes.length) {
+			long lPosition = lOffset + iRead;
+			ByteBuffer segment = this.m_lSegments.get((int) (lPosition / this.m_nSegmentLength)).duplicate();
+			segment.position((int) (lPosition % this.m_nSegmentLength));
+			int nRead = Math.min(segment.remaining(), aBytes.length - iRead);
+			segment.get(aBytes, iRead, nRead);
+			iRead += nRead;
+		}
+	}
+
+	private String readString(long lOffset, int nLength) {
+		byte[] aBytes = new byte[nLength];
+		readBytes(lOffset, aBytes);
+		return new String(aBytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Maps the log up to its current length. The last segment is mapped again if
+	 * it has been extended.
+	 */
+	private void remap() throws IOException {
+		if (this.m_lMappedLength % this.m_nSegmentLength != 0) {
+			this.m_lSegments.remove(this.m_lSegments.size() - 1);
+			this.m_lMappedLength -= this.m_lMappedLength % this.m_nSegmentLength;
+		}
+		while (this.m_lMappedLength < this.m_lLength) {
+			long lSize = Math.min(this.m_nSegmentLength, this.m_lLength - this.m_lMappedLength);
+			this.m_lSegments.add(this.m_channel.map(FileChannel.MapMode.READ_ONLY, this.m_lMappedLength, lSize));
+			this.m_lMappedLength += lSize;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long lPosition) throws IOException {
+		while (buffer.hasRemaining())
+			lPosition += this.m_channel.write(buffer, lPosition);
+	}
+
+	private static String getKey(String strOptions, Composition composition) {
+		return strOptions + "\t" + composition.toString();
+	}
+
+	/**
+	 * Returns the number of entries in this library.
+	 */
+	public synchronized int size() {
+		return this.m_mapKeyToOffset.size();
+	}
+
+	/**
+	 * Returns whether this library contains the fragments of the given
+	 * composition for the given fragment options.
+	 */
+	public synchronized boolean contains(String strOptions, Composition composition) {
+		return this.m_mapKeyToOffset.containsKey(getKey(strOptions, composition));
+	}
+
+	/**
+	 * Returns the fragments of the given composition for the given fragment
+	 * options.
+	 *
+	 * @param strOptions  String of the fragment options
+	 * @param composition Composition of the fragments
+	 * @return List of the fragment records (see
+	 *         {@link CompositionUtils#parseFragmentRecord(String)}), or
+	 *         {@code null} if this library does not contain the composition
+	 * @throws IOException if the appended fragments can not be mapped
+	 */
+	public synchronized List<String> get(String strOptions, Composition composition) throws IOException {
+		Long lOffset = this.m_mapKeyToOffset.get(getKey(strOptions, composition));
+		if (lOffset == null)
+			return null;
+		// The log is remapped only when appended records are read
+		if (lOffset >= this.m_lMappedLength)
+			remap();
+		long lPosition = lOffset;
+		int nKeyLength = getInt(lPosition);
+		lPosition += 4 + nKeyLength;
+		int nFragments = getInt(lPosition);
+		int nDataLength = getInt(lPosition + 4);
+		List<String> lFragments = new ArrayList<>(nFragments);
+		if (nFragments == 0)
+			return lFragments;
+		String strData = readString(lPosition + 8, nDataLength);
+		int iStart = 0;
+		for (int i = 0; i < nFragments; i++) {
+			int iEnd = strData.indexOf('\n', iStart);
+			if (iEnd < 0)
+				iEnd = strData.length();
+			lFragments.add(strData.substring(iStart, iEnd));
+			iStart = iEnd + 1;
+		}
+		return lFragments;
+	}
+
+	/**
+	 * Appends the fragments of the given composition for the given fragment
+	 * options. Nothing is done if this library already contains the composition.
+	 *
+	 * @param strOptions  String of the fragment options
+	 * @param composition Composition of the fragments
+	 * @param lFragments  List of the fragments
+	 * @throws IOException if the fragments can not be written
+	 */
+	public synchronized void put(String strOptions, Composition composition, List<CompositionFragment> lFragments)
+			throws IOException {
+		String strKey = getKey(strOptions, composition);
+		if (this.m_mapKeyToOffset.containsKey(strKey))
+			return;
+
+		StringBuilder sbData = new StringBuilder();
+		for (CompositionFragment fragment : lFragments) {
+			if (sbData.length() != 0)
+				sbData.append('\n');
+			sbData.append(CompositionUtils.toFragmentRecord(fragment));
+		}
+		byte[] aKey = strKey.getBytes(StandardCharsets.UTF_8);
+		byte[] aData = sbData.toString().getBytes(StandardCharsets.UTF_8);
+		long lRecordLength = 4L + aKey.length + 8 + aData.length;
+		if (lRecordLength > Integer.MAX_VALUE)
+			throw new IOException("Fragment record is too large: " + composition);
+		int nRecordLength = (int) lRecordLength;
+
+		ByteBuffer record = ByteBuffer.allocate(nRecordLength);
+		record.putInt(aKey.length).put(aKey).putInt(lFragments.size()).putInt(aData.length).put(aData).flip();
+		long lOffset = this.m_lLength;
+		writeFully(record, lOffset);
+		this.m_lLength += nRecordLength;
+		this.m_mapKeyToOffset.put(strKey, lOffset);
+		this.m_bIndexModified = true;
+	}
+
+	/**
+	 * Writes the index file if entries have been added since the last flush.
+	 *
+	 * @throws IOException if the index file can not be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (!this.m_bIndexModified)
+			return;
+		this.m_channel.force(false);
+		File fileTmp = new File(this.m_fileIndex.getPath() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileTmp)))) {
+			dos.writeInt(INDEX_MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeLong(this.m_lLength);
+			dos.writeInt(this.m_mapKeyToOffset.size());
+			for (Map.Entry<String, Long> entry : this.m_mapKeyToOffset.entrySet()) {
+				dos.writeUTF(entry.getKey());
+				dos.writeLong(entry.getValue());
+			}
+		}
+		Files.move(fileTmp.toPath(), this.m_fileIndex.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		this.m_bIndexModified = false;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.m_raf == null)
+			return;
+		try {
+			if (!this.m_lSegments.isEmpty())
+				flush();
+		} finally {
+			this.m_lSegments.clear();
+			this.m_raf.close();
+			this.m_raf = null;
+		}
+	}
+}
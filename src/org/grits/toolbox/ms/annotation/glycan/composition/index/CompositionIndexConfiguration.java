@@ -0,0 +1,92 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Class for the configuration of a {@link CompositionMassIndex}, i.e. the
+ * minimum and maximum compositions (including the reducing end and mass
+ * options) and the mass threshold given to
+ * {@link org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils#generateCompositions(Composition, Composition, double)}.
+ * The signature of the configuration is stored in the index file to detect an
+ * index built for another configuration.
+ */
+public class CompositionIndexConfiguration {
+
+	private Composition m_compMin;
+	private Composition m_compMax;
+	private double m_dMassThreshold;
+	private List<ResidueType> m_lRess;
+
+	/**
+	 * @param compMin        Composition with a minimum residue set ({@code null}
+	 *                       if no minimum)
+	 * @param compMax        Composition with a maximum residue set
+	 * @param dMassThreshold double value of the mass threshold
+	 */
+	public CompositionIndexConfiguration(Composition compMin, Composition compMax, double dMassThreshold) {
+		this.m_compMin = compMin;
+		this.m_compMax = compMax;
+		this.m_dMassThreshold = dMassThreshold;
+
+		TreeSet<ResidueType> setRess = new TreeSet<>(compMax.getResidueTypes());
+		if (compMin != null)
+			setRess.addAll(compMin.getResidueTypes());
+		this.m_lRess = new ArrayList<>(setRess);
+	}
+
+	public Composition getMinComposition() {
+		return this.m_compMin;
+	}
+
+	public Composition getMaxComposition() {
+		return this.m_compMax;
+	}
+
+	public double getMassThreshold() {
+		return this.m_dMassThreshold;
+	}
+
+	/**
+	 * Returns the residue types of the count records in the index.
+	 */
+	public List<ResidueType> getResidueTypes() {
+		return this.m_lRess;
+	}
+
+	/**
+	 * Returns the composition having the mass options of the indexed
+	 * compositions, which is the minimum composition if available.
+	 */
+	public Composition getOptionComposition() {
+		if (this.m_compMin != null && !this.m_compMin.isEmpty())
+			return this.m_compMin;
+		return this.m_compMax;
+	}
+
+	/**
+	 * Returns the signature string identifying this configuration.
+	 */
+	public String getSignature() {
+		Composition compOptions = getOptionComposition();
+		StringBuilder sb = new StringBuilder();
+		sb.append("min=").append((this.m_compMin == null) ? "" : this.m_compMin.toString());
+		sb.append(";max=").append(this.m_compMax.toString());
+		sb.append(";mono=").append(compOptions.isMonoisotopicMass());
+		sb.append(";perderiv=");
+		if (compOptions.getPerderivatizationType() != null)
+			sb.append(compOptions.getPerderivatizationType().getName());
+		sb.append(";threshold=").append(this.m_dMassThreshold);
+		sb.append(";residues=");
+		for (int i = 0; i < this.m_lRess.size(); i++) {
+			if (i != 0)
+				sb.append(",");
+			sb.append(this.m_lRess.get(i).toString());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,235 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.MassCalculator;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Class for the persistent index of compositions sorted by mass. The index file
+ * is created by {@link CompositionMassIndexBuilder} for a fixed configuration
+ * of minimum and maximum compositions (including the reducing end and mass
+ * options) and mass threshold, and is memory-mapped for reading. Mass window
+ * lookups are done with binary search directly on the mapped buffer.<br>
+ * File format: a header of magic number, version, configuration signature
+ * (length and UTF-8 bytes), residue count and record count, followed by the
+ * mass column (fixed-point {@code long} per record in units of
+ * {@link MassCalculator#UNITS_PER_DALTON}, sorted in ascending order) and the
+ * residue count records ({@code short} per residue per record). The lookups
+ * compare the fixed-point masses, so the bounds of a window are rounded to the
+ * units.
+ */
+public class CompositionMassIndex {
+
+	static final int MAGIC = 0x47434D49; // "GCMI"
+	static final int VERSION = 2;
+
+	private CompositionIndexConfiguration m_config;
+	private MappedByteBuffer m_buffer;
+	private int m_nRecords;
+	private int m_nResidues;
+	private int m_iMassOffset;
+	private int m_iCountOffset;
+
+	private CompositionMassIndex(CompositionIndexConfiguration config, MappedByteBuffer buffer, int iDataOffset,
+			int nRecords) {
+		this.m_config = config;
+		this.m_buffer = buffer;
+		this.m_nRecords = nRecords;
+		this.m_nResidues = config.getResidueTypes().size();
+		this.m_iMassOffset = iDataOffset;
+		this.m_iCountOffset = iDataOffset + nRecords * 8;
+	}
+
+	/**
+	 * Opens the index file built for the given configuration.
+	 *
+	 * @param file   index file
+	 * @param config CompositionIndexConfiguration of the index
+	 * @return CompositionMassIndex, or {@code null} if the file does not exist or
+	 *         was built for another configuration
+	 * @throws IOException if the file can not be read
+	 */
+	public static CompositionMassIndex open(File file, CompositionIndexConfiguration config) throws IOException {
+		if (!file.exists())
+			return null;
+
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		// Read header
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			return null;
+		int nSignatureLength = buffer.getInt();
+		if (nSignatureLength < 0 || nSignatureLength > buffer.remaining())
+			return null;
+		byte[] aSignature = new byte[nSignatureLength];
+		buffer.get(aSignature);
+		if (!new String(aSignature, StandardCharsets.UTF_8).equals(config.getSignature()))
+			return null;
+		if (buffer.remaining() < 8)
+			return null;
+		int nResidues = buffer.getInt();
+		int nRecords = buffer.getInt();
+		if (nResidues != config.getResidueTypes().size())
+			return null;
+		if ((long) nRecords * (8 + 2 * nResidues) != buffer.remaining())
+			throw new IOException("Index file is broken: " + file.getPath());
+		return new CompositionMassIndex(config, buffer, buffer.position(), nRecords);
+	}
+
+	/**
+	 * Opens the index file built for the given configuration, or builds it if the
+	 * file does not exist or was built for another configuration.
+	 *
+	 * @param file   index file
+	 * @param config CompositionIndexConfiguration of the index
+	 * @return CompositionMassIndex
+	 * @throws IOException if the file can not be read or written
+	 */
+	public static CompositionMassIndex openOrBuild(File file, CompositionIndexConfiguration config)
+			throws IOException {
+		CompositionMassIndex index = open(file, config);
+		if (index != null)
+			return index;
+		CompositionMassIndexBuilder.build(file, config);
+		return open(file, config);
+	}
+
+	public CompositionIndexConfiguration getConfiguration() {
+		return this.m_config;
+	}
+
+	/**
+	 * Returns the number of compositions in this index.
+	 */
+	public int size() {
+		return this.m_nRecords;
+	}
+
+	/**
+	 * Returns the mass of the composition at the given index.
+	 */
+	public double getMass(int i) {
+		return MassCalculator.toMass(getFixedMass(i));
+	}
+
+	/**
+	 * Returns the fixed-point mass of the composition at the given index.
+	 */
+	public long getFixedMass(int i) {
+		return this.m_buffer.getLong(this.m_iMassOffset + i * 8);
+	}
+
+	/**
+	 * Returns the count of the residue at the given residue index of the
+	 * composition at the given index.
+	 */
+	public int getResidueCount(int i, int iResidue) {
+		return this.m_buffer.getShort(this.m_iCountOffset + (i * this.m_nResidues + iResidue) * 2);
+	}
+
+	/**
+	 * Creates the composition at the given index.
+	 */
+	public Composition getComposition(int i) {
+		Composition compOptions = this.m_config.getOptionComposition();
+		Composition composition = new Composition();
+		composition.setMassOptions(compOptions.isMonoisotopicMass(), compOptions.getPerderivatizationType());
+		composition.setReducingEnd(this.m_config.getMaxComposition().getReducingEnd());
+		List<ResidueType> lRess = this.m_config.getResidueTypes();
+		for (int j = 0; j < this.m_nResidues; j++) {
+			int n = getResidueCount(i, j);
+			if (n == 0)
+				continue;
+			composition.addResidues(lRess.get(j), n);
+		}
+		return composition;
+	}
+
+	/**
+	 * Returns the first index whose mass is not lower than the given mass.
+	 */
+	public int lowerBound(double dMass) {
+		return lowerBound(MassCalculator.toFixedMass(dMass));
+	}
+
+	/**
+	 * Returns the first index whose fixed-point mass is not lower than the given
+	 * fixed-point mass.
+	 */
+	public int lowerBound(long lMass) {
+		int iLow = 0;
+		int iHigh = this.m_nRecords;
+		while (iLow < iHigh) {
+			int iMid = (iLow + iHigh) >>> 1;
+			if (getFixedMass(iMid) < lMass)
+				iLow = iMid + 1;
+			else
+				iHigh = iMid;
+		}
+		return iLow;
+	}
+
+	/**
+	 * Returns the first index whose mass is higher than the given mass.
+	 */
+	public int upperBound(double dMass) {
+		return upperBound(MassCalculator.toFixedMass(dMass));
+	}
+
+	/**
+	 * Returns the first index whose fixed-point mass is higher than the given
+	 * fixed-point mass.
+	 */
+	public int upperBound(long lMass) {
+		int iLow = 0;
+		int iHigh = this.m_nRecords;
+		while (iLow < iHigh) {
+			int iMid = (iLow + iHigh) >>> 1;
+			if (getFixedMass(iMid) <= lMass)
+				iLow = iMid + 1;
+			else
+				iHigh = iMid;
+		}
+		return iLow;
+	}
+
+	/**
+	 * Finds compositions whose mass is in the given mass window.
+	 *
+	 * @param dLowerMass lower mass of the window (inclusive)
+	 * @param dUpperMass upper mass of the window (inclusive)
+	 * @return List of compositions sorted by mass
+	 */
+	public List<Composition> findCompositionsInRange(double dLowerMass, double dUpperMass) {
+		List<Composition> lCompositions = new ArrayList<>();
+		int iEnd = upperBound(dUpperMass);
+		for (int i = lowerBound(dLowerMass); i < iEnd; i++)
+			lCompositions.add(getComposition(i));
+		return lCompositions;
+	}
+
+	/**
+	 * Finds compositions whose mass is within the given tolerance of the target
+	 * mass.
+	 *
+	 * @param dTargetMass   double value of the target mass
+	 * @param dTolerancePPM double value of the mass tolerance in ppm
+	 * @return List of compositions sorted by mass
+	 */
+	public List<Composition> findCompositions(double dTargetMass, double dTolerancePPM) {
+		double dTolerance = Math.abs(dTargetMass) * dTolerancePPM / 1000000d;
+		return findCompositionsInRange(dTargetMass - dTolerance, dTargetMass + dTolerance);
+	}
+}
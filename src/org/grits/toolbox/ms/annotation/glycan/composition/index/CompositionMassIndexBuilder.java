@@ -0,0 +1,115 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.MassCalculator;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.MassOptions;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Class for building the index file of {@link CompositionMassIndex}. The
+ * compositions generated by
+ * {@link CompositionUtils#generateCompositions(Composition, Composition, double)}
+ * are written as packed residue count records sorted by mass. Only their
+ * residue counts are generated (see
+ * {@link CompositionUtils#generateCompositionCounts(Composition, Composition, double, List)}),
+ * and they are sorted with primitive arrays. All the indexed
+ * compositions have the mass options of
+ * {@link CompositionIndexConfiguration#getOptionComposition()} and the reducing
+ * end of the maximum composition.
+ */
+public class CompositionMassIndexBuilder {
+
+	/**
+	 * Builds the index file for the given configuration. The file is written to
+	 * a temporary file first and then moved to the given file.
+	 *
+	 * @param file   index file to be written
+	 * @param config CompositionIndexConfiguration of the index
+	 * @throws IOException if the file can not be written or the index is too
+	 *                     large
+	 */
+	public static void build(File file, CompositionIndexConfiguration config) throws IOException {
+		List<ResidueType> lRess = config.getResidueTypes();
+		int nResidues = lRess.size();
+		int[] aCounts;
+		try {
+			aCounts = CompositionUtils.generateCompositionCounts(config.getMinComposition(),
+					config.getMaxComposition(), config.getMassThreshold(), lRess);
+		} catch (IllegalStateException e) {
+			throw new IOException("Too many compositions to be indexed", e);
+		}
+		int nRecords = (nResidues == 0) ? 0 : aCounts.length / nResidues;
+		if ((long) nRecords * (8 + 2 * nResidues) > Integer.MAX_VALUE)
+			throw new IOException("Too many compositions to be indexed: " + nRecords);
+		for (int n : aCounts) {
+			if (n > Short.MAX_VALUE)
+				throw new IOException("Too many residues to be indexed: " + n);
+		}
+
+		// Compute all masses in one batch
+		Composition compOptions = config.getOptionComposition();
+		MassOptions massOptions = new MassOptions(lRess, compOptions.isMonoisotopicMass(),
+				compOptions.getPerderivatizationType(), config.getMaxComposition().getReducingEnd());
+		long[] aMasses = new long[nRecords];
+		MassCalculator.computeFixedMasses(aCounts, 0, nRecords, massOptions, aMasses, 0);
+
+		// Sort records by mass, the generation order is kept for the same mass
+		long[] aSortedMasses = aMasses.clone();
+		Arrays.sort(aSortedMasses);
+		int[] aOrder = new int[nRecords];
+		// Number of records placed from the first position of each mass
+		int[] aPlaced = new int[nRecords];
+		for (int i = 0; i < nRecords; i++) {
+			int iFirst = findFirst(aSortedMasses, aMasses[i]);
+			aOrder[iFirst + aPlaced[iFirst]++] = i;
+		}
+
+		File fileTmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileTmp), 1 << 16))) {
+			byte[] aSignature = config.getSignature().getBytes(StandardCharsets.UTF_8);
+			dos.writeInt(CompositionMassIndex.MAGIC);
+			dos.writeInt(CompositionMassIndex.VERSION);
+			dos.writeInt(aSignature.length);
+			dos.write(aSignature);
+			dos.writeInt(nResidues);
+			dos.writeInt(nRecords);
+			for (int i = 0; i < nRecords; i++)
+				dos.writeLong(aSortedMasses[i]);
+			for (int i = 0; i < nRecords; i++) {
+				int iOffset = aOrder[i] * nResidues;
+				for (int j = 0; j < nResidues; j++)
+					dos.writeShort(aCounts[iOffset + j]);
+			}
+		}
+		Files.move(fileTmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Returns the first position of the given mass in the sorted masses.
+	 */
+	private static int findFirst(long[] aSortedMasses, long lMass) {
+		int iLow = 0;
+		int iHigh = aSortedMasses.length;
+		while (iLow < iHigh) {
+			int iMid = (iLow + iHigh) >>> 1;
+			if (aSortedMasses[iMid] < lMass)
+				iLow = iMid + 1;
+			else
+				iHigh = iMid;
+		}
+		return iLow;
+	}
+}
@@ -6,16 +6,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
 
 public class CompositionGeneratorSettings {
 
 	private Map<ResidueType, List<Integer>> m_mapResidueToMaxAndMin;
 	private double m_dThresholdMass;
+	private List<ICompositionConstraint> m_lConstraints;
+	private SubstituentType m_redEndType;
+	private boolean m_bIsMonoisotopic;
+	private PerderivatizationType m_perderivType;
 
 	public CompositionGeneratorSettings() {
 		this.m_mapResidueToMaxAndMin = new TreeMap<>();
 		this.m_dThresholdMass = -1d;
+		this.m_lConstraints = new ArrayList<>();
+		this.m_redEndType = null;
+		this.m_bIsMonoisotopic = true;
+		this.m_perderivType = null;
 	}
 
 	/**
@@ -54,4 +65,74 @@ public class CompositionGeneratorSettings {
 	public double getThresholdMass() {
 		return this.m_dThresholdMass;
 	}
+
+	/**
+	 * Adds a constraint on the residue counts. The constraints are evaluated in
+	 * the enumeration so that the regions of counts never satisfying them are
+	 * not generated.
+	 * @param constraint ICompositionConstraint to be added
+	 */
+	public void addConstraint(ICompositionConstraint constraint) {
+		this.m_lConstraints.add(constraint);
+	}
+
+	public List<ICompositionConstraint> getConstraints() {
+		return this.m_lConstraints;
+	}
+
+	/**
+	 * Sets the reducing end of the min and max compositions. The reducing end is
+	 * added to the compositions generated by
+	 * {@link org.grits.toolbox.ms.annotation.glycan.composition.structure.CompositionUtils#generateCompositions(CompositionGeneratorSettings)}
+	 * but not to the ones generated by
+	 * {@link org.grits.toolbox.ms.annotation.glycan.composition.generator.CompositionGenerator}.
+	 * @param redEnd SubstituentType of the reducing end ({@code null} for none)
+	 */
+	public void setReducingEnd(SubstituentType redEnd) {
+		this.m_redEndType = redEnd;
+	}
+
+	public SubstituentType getReducingEnd() {
+		return this.m_redEndType;
+	}
+
+	public void setMassOptions(boolean isMonoisotopic, PerderivatizationType perDeriv) {
+		this.m_bIsMonoisotopic = isMonoisotopic;
+		this.m_perderivType = perDeriv;
+	}
+
+	public boolean isMonoisotopicMass() {
+		return this.m_bIsMonoisotopic;
+	}
+
+	public PerderivatizationType getPerderivatizationType() {
+		return this.m_perderivType;
+	}
+
+	/**
+	 * Creates the composition with the minimum counts of the residues.
+	 */
+	public Composition createMinComposition() {
+		Composition comp = createComposition();
+		for ( ResidueType res : this.m_mapResidueToMaxAndMin.keySet() )
+			comp.addResidues(res, getMinCountForResidue(res));
+		return comp;
+	}
+
+	/**
+	 * Creates the composition with the maximum counts of the residues.
+	 */
+	public Composition createMaxComposition() {
+		Composition comp = createComposition();
+		for ( ResidueType res : this.m_mapResidueToMaxAndMin.keySet() )
+			comp.addResidues(res, getMaxCountForResidue(res));
+		return comp;
+	}
+
+	private Composition createComposition() {
+		Composition comp = new Composition();
+		comp.setMassOptions(this.m_bIsMonoisotopic, this.m_perderivType);
+		comp.setReducingEnd(this.m_redEndType);
+		return comp;
+	}
 }
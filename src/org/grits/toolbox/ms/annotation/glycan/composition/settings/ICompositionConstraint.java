@@ -0,0 +1,32 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.settings;
+
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Interface for the constraints on residue counts of generated compositions,
+ * e.g. biosynthetic rules.
+ *
+ * @see LinearConstraint
+ * @see ImplicationConstraint
+ */
+public interface ICompositionConstraint {
+
+	/**
+	 * Returns {@code true} if the given composition satisfies this constraint.
+	 *
+	 * @param comp Composition to be checked
+	 */
+	public boolean isSatisfied(Composition comp);
+
+	/**
+	 * Creates the constraint on the count arrays indexed by the given residue
+	 * types. The residues not in the given list are treated as zero.
+	 *
+	 * @param lRess List of residue types giving the indices of the counts
+	 * @return ICountConstraint for the counts
+	 */
+	public ICountConstraint createCountConstraint(List<ResidueType> lRess);
+}
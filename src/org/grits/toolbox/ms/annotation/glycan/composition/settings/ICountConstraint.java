@@ -0,0 +1,40 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.settings;
+
+/**
+ * Interface for a constraint evaluated on the residue count array of an
+ * enumerator. A region of the counts is given by the fixed counts of the
+ * digits from {@code iFreeDigits} and the ranges of the lower digits, so a
+ * region which can never satisfy the constraint is pruned as a whole.
+ *
+ * @see ICompositionConstraint#createCountConstraint(java.util.List)
+ */
+public interface ICountConstraint {
+
+	/**
+	 * Returns {@code true} if the given counts satisfy this constraint.
+	 *
+	 * @param aCounts Array of residue counts
+	 */
+	public boolean isSatisfied(int[] aCounts);
+
+	/**
+	 * Returns {@code false} if no counts in the region satisfy this constraint.
+	 * The result can be {@code true} even if no counts satisfy, but must not be
+	 * {@code false} if any counts satisfy.
+	 *
+	 * @param aCounts     Array of residue counts, fixed from {@code iFreeDigits}
+	 * @param iFreeDigits The number of lower digits which are free in the region
+	 * @param aMinCounts  Array of the minimum counts of the free digits
+	 * @param aMaxCounts  Array of the maximum counts of the free digits
+	 */
+	public boolean isFeasible(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts);
+
+	/**
+	 * Returns {@code true} if all the counts in the region satisfy this
+	 * constraint. The result can be {@code false} even if all counts satisfy, but
+	 * must not be {@code true} if any counts do not satisfy.
+	 *
+	 * @see #isFeasible(int[], int, int[], int[])
+	 */
+	public boolean isEntailed(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts);
+}
@@ -0,0 +1,71 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.settings;
+
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Class for a boolean implication of constraints, "if the premise is satisfied
+ * then the conclusion must be satisfied". For example, "sulfate only if HexNAc
+ * &gt;= 1" is created by
+ * {@code new ImplicationConstraint(LinearConstraint.atLeast(S, 1), LinearConstraint.atLeast(HexNAc, 1))}.
+ */
+public class ImplicationConstraint implements ICompositionConstraint {
+
+	private ICompositionConstraint m_premise;
+	private ICompositionConstraint m_conclusion;
+
+	/**
+	 * @param premise    ICompositionConstraint of the premise
+	 * @param conclusion ICompositionConstraint which must be satisfied if the
+	 *                   premise is satisfied
+	 */
+	public ImplicationConstraint(ICompositionConstraint premise, ICompositionConstraint conclusion) {
+		this.m_premise = premise;
+		this.m_conclusion = conclusion;
+	}
+
+	public ICompositionConstraint getPremise() {
+		return this.m_premise;
+	}
+
+	public ICompositionConstraint getConclusion() {
+		return this.m_conclusion;
+	}
+
+	@Override
+	public boolean isSatisfied(Composition comp) {
+		return !this.m_premise.isSatisfied(comp) || this.m_conclusion.isSatisfied(comp);
+	}
+
+	@Override
+	public ICountConstraint createCountConstraint(List<ResidueType> lRess) {
+		final ICountConstraint premise = this.m_premise.createCountConstraint(lRess);
+		final ICountConstraint conclusion = this.m_conclusion.createCountConstraint(lRess);
+		return new ICountConstraint() {
+			@Override
+			public boolean isSatisfied(int[] aCounts) {
+				return !premise.isSatisfied(aCounts) || conclusion.isSatisfied(aCounts);
+			}
+
+			@Override
+			public boolean isFeasible(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts) {
+				// Infeasible only if the premise always holds and the conclusion never holds
+				return !premise.isEntailed(aCounts, iFreeDigits, aMinCounts, aMaxCounts)
+						|| conclusion.isFeasible(aCounts, iFreeDigits, aMinCounts, aMaxCounts);
+			}
+
+			@Override
+			public boolean isEntailed(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts) {
+				return !premise.isFeasible(aCounts, iFreeDigits, aMinCounts, aMaxCounts)
+						|| conclusion.isEntailed(aCounts, iFreeDigits, aMinCounts, aMaxCounts);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "(" + this.m_premise.toString() + ") -> (" + this.m_conclusion.toString() + ")";
+	}
+}
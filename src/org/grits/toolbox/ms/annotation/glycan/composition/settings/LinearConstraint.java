@@ -0,0 +1,173 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.settings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.Composition;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+
+/**
+ * Class for a linear inequality over residue counts,
+ * {@code a1*n1 + a2*n2 + ... <= b}. For example, "NeuAc &lt;= HexNAc - 2" is
+ * created by {@code LinearConstraint.lessOrEqual(NeuAc, HexNAc, -2)}.
+ */
+public class LinearConstraint implements ICompositionConstraint {
+
+	private List<ResidueType> m_lRess;
+	private List<Integer> m_lCoefficients;
+	private int m_nBound;
+
+	/**
+	 * Creates an inequality with no terms, {@code 0 <= nBound}.
+	 *
+	 * @param nBound The upper bound of the sum of terms
+	 */
+	public LinearConstraint(int nBound) {
+		this.m_lRess = new ArrayList<>();
+		this.m_lCoefficients = new ArrayList<>();
+		this.m_nBound = nBound;
+	}
+
+	/**
+	 * Adds a term of the given residue count multiplied by the given coefficient.
+	 *
+	 * @param res          ResidueType of the term
+	 * @param nCoefficient The coefficient of the residue count
+	 * @return this constraint
+	 */
+	public LinearConstraint addTerm(ResidueType res, int nCoefficient) {
+		int i = this.m_lRess.indexOf(res);
+		if ( i != -1 ) {
+			this.m_lCoefficients.set(i, this.m_lCoefficients.get(i) + nCoefficient);
+			return this;
+		}
+		this.m_lRess.add(res);
+		this.m_lCoefficients.add(nCoefficient);
+		return this;
+	}
+
+	/**
+	 * Creates the constraint {@code n(res1) <= n(res2) + nOffset}.
+	 */
+	public static LinearConstraint lessOrEqual(ResidueType res1, ResidueType res2, int nOffset) {
+		return new LinearConstraint(nOffset).addTerm(res1, 1).addTerm(res2, -1);
+	}
+
+	/**
+	 * Creates the constraint {@code n(res) >= nMin}.
+	 */
+	public static LinearConstraint atLeast(ResidueType res, int nMin) {
+		return new LinearConstraint(-nMin).addTerm(res, -1);
+	}
+
+	/**
+	 * Creates the constraint {@code n(res) <= nMax}.
+	 */
+	public static LinearConstraint atMost(ResidueType res, int nMax) {
+		return new LinearConstraint(nMax).addTerm(res, 1);
+	}
+
+	public int getBound() {
+		return this.m_nBound;
+	}
+
+	@Override
+	public boolean isSatisfied(Composition comp) {
+		long nSum = 0;
+		for ( int i=0; i<this.m_lRess.size(); i++ ) {
+			int n = comp.getNumberOfResidue(this.m_lRess.get(i));
+			if ( n > 0 )
+				nSum += (long)this.m_lCoefficients.get(i) * n;
+		}
+		return nSum <= this.m_nBound;
+	}
+
+	@Override
+	public ICountConstraint createCountConstraint(List<ResidueType> lRess) {
+		List<Integer> lIndices = new ArrayList<>();
+		List<Integer> lCoefficients = new ArrayList<>();
+		for ( int i=0; i<this.m_lRess.size(); i++ ) {
+			int iRes = lRess.indexOf(this.m_lRess.get(i));
+			// Residues not in the counts are always zero
+			if ( iRes == -1 || this.m_lCoefficients.get(i) == 0 )
+				continue;
+			lIndices.add(iRes);
+			lCoefficients.add(this.m_lCoefficients.get(i));
+		}
+		int[] aIndices = new int[lIndices.size()];
+		int[] aCoefficients = new int[lIndices.size()];
+		for ( int i=0; i<aIndices.length; i++ ) {
+			aIndices[i] = lIndices.get(i);
+			aCoefficients[i] = lCoefficients.get(i);
+		}
+		return new LinearCountConstraint(aIndices, aCoefficients, this.m_nBound);
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		for ( int i=0; i<this.m_lRess.size(); i++ ) {
+			int nCoef = this.m_lCoefficients.get(i);
+			if ( sb.length() != 0 )
+				sb.append( (nCoef < 0)? " - " : " + " );
+			else if ( nCoef < 0 )
+				sb.append("-");
+			if ( Math.abs(nCoef) != 1 )
+				sb.append(Math.abs(nCoef)).append("*");
+			sb.append(this.m_lRess.get(i).toString());
+		}
+		if ( sb.length() == 0 )
+			sb.append("0");
+		sb.append(" <= ").append(this.m_nBound);
+		return sb.toString();
+	}
+
+	/**
+	 * Linear inequality on count arrays. The bounds of the sum in a region are
+	 * taken from the minimum or maximum counts of the free digits depending on
+	 * the sign of the coefficients.
+	 */
+	private static class LinearCountConstraint implements ICountConstraint {
+		private int[] m_aIndices;
+		private int[] m_aCoefficients;
+		private int m_nBound;
+
+		private LinearCountConstraint(int[] aIndices, int[] aCoefficients, int nBound) {
+			this.m_aIndices = aIndices;
+			this.m_aCoefficients = aCoefficients;
+			this.m_nBound = nBound;
+		}
+
+		@Override
+		public boolean isSatisfied(int[] aCounts) {
+			long nSum = 0;
+			for ( int i=0; i<this.m_aIndices.length; i++ )
+				nSum += (long)this.m_aCoefficients[i] * aCounts[this.m_aIndices[i]];
+			return nSum <= this.m_nBound;
+		}
+
+		@Override
+		public boolean isFeasible(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts) {
+			return computeSumBound(aCounts, iFreeDigits, aMinCounts, aMaxCounts, true) <= this.m_nBound;
+		}
+
+		@Override
+		public boolean isEntailed(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts) {
+			return computeSumBound(aCounts, iFreeDigits, aMinCounts, aMaxCounts, false) <= this.m_nBound;
+		}
+
+		private long computeSumBound(int[] aCounts, int iFreeDigits, int[] aMinCounts, int[] aMaxCounts,
+				boolean bLower) {
+			long nSum = 0;
+			for ( int i=0; i<this.m_aIndices.length; i++ ) {
+				int iDigit = this.m_aIndices[i];
+				int nCoef = this.m_aCoefficients[i];
+				int n = aCounts[iDigit];
+				if ( iDigit < iFreeDigits )
+					n = ( (nCoef > 0) == bLower )? aMinCounts[iDigit] : aMaxCounts[iDigit];
+				nSum += (long)nCoef * n;
+			}
+			return nSum;
+		}
+	}
+}
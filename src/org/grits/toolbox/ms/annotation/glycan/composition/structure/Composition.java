@@ -1,51 +1,120 @@
 package org.grits.toolbox.ms.annotation.glycan.composition.structure;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 import org.grits.toolbox.ms.annotation.glycan.composition.molecule.MoleculeUtils;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.MonosaccharideType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
 
 /**
  * Class for the monosaccharide composition containing residues and reducing
- * end. Each residue is stored with its number.
+ * end. Each residue is stored with its number in an array indexed by the
+ * ordinal of the residue type (see {@link ResidueType#getOrdinal()}).
  * 
  * @author Masaaki Matsubara (matsubara@uga.edu)
  *
  */
 public class Composition {
 
-	protected Map<ResidueType, Integer> m_mapResidueToCount;
+	// Numbers of residues indexed by the ordinals of the residue types
+	protected int[] m_aResidueCounts;
+	// Number of residue types contained
+	protected int m_nResidueTypes;
 	protected SubstituentType m_redEndType;
 
 	protected boolean m_bIsMonoisotopic;
 	protected PerderivatizationType m_perderivType;
 
+	// Masses cached for the current mass options, NaN if not computed
+	private volatile double m_dMonoisotopicMass;
+	private volatile double m_dAverageMass;
+	// Fixed-point mass cached for the current mass options, NO_FIXED_MASS if not
+	// computed
+	private volatile long m_lFixedMass;
+	// Residue types cached until modified, null if not collected
+	private volatile Set<ResidueType> m_setResidueTypes;
+	// Key cached until modified, null if not created
+	private volatile CompositionKey m_key;
+	private volatile boolean m_bFrozen;
+
+	private static final long NO_FIXED_MASS = Long.MIN_VALUE;
+
 	public Composition() {
-		this.m_mapResidueToCount = new TreeMap<>();
+		this.m_aResidueCounts = new int[ResidueDictionary.getNumberOfOrdinals()];
+		this.m_nResidueTypes = 0;
 		this.m_redEndType = null;
 		this.m_bIsMonoisotopic = true;
 		this.m_perderivType = null;
+		this.m_dMonoisotopicMass = Double.NaN;
+		this.m_dAverageMass = Double.NaN;
+		this.m_lFixedMass = NO_FIXED_MASS;
+		this.m_setResidueTypes = null;
+		this.m_key = null;
+		this.m_bFrozen = false;
 	}
 
 	public Composition(Composition comp) {
-		this();
-		for (ResidueType res : comp.m_mapResidueToCount.keySet())
-			this.m_mapResidueToCount.put(res, comp.m_mapResidueToCount.get(res));
+		this.m_aResidueCounts = comp.m_aResidueCounts.clone();
+		this.m_nResidueTypes = comp.m_nResidueTypes;
 		this.m_redEndType = comp.m_redEndType;
 		this.m_bIsMonoisotopic = comp.m_bIsMonoisotopic;
 		this.m_perderivType = comp.m_perderivType;
+		// The copy is not frozen, and the masses are shared with the same class only
+		boolean bSameClass = (this.getClass() == comp.getClass());
+		this.m_dMonoisotopicMass = (bSameClass) ? comp.m_dMonoisotopicMass : Double.NaN;
+		this.m_dAverageMass = (bSameClass) ? comp.m_dAverageMass : Double.NaN;
+		this.m_lFixedMass = (bSameClass) ? comp.m_lFixedMass : NO_FIXED_MASS;
+		this.m_setResidueTypes = comp.m_setResidueTypes;
+		this.m_key = (bSameClass) ? comp.m_key : null;
+		this.m_bFrozen = false;
+	}
+
+	/**
+	 * Makes this composition immutable. The modifications of a frozen composition
+	 * throw IllegalStateException, so a frozen composition can be shared and read
+	 * from many threads. The copies are not frozen.
+	 * 
+	 * @return this composition
+	 */
+	public Composition freeze() {
+		this.m_bFrozen = true;
+		return this;
+	}
+
+	/**
+	 * Returns whether this composition is frozen.
+	 * 
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return this.m_bFrozen;
+	}
+
+	/**
+	 * Checks that this composition can be modified and clears the cached masses,
+	 * residue types and key. Must be called before any modification changing
+	 * them.
+	 * 
+	 * @throws IllegalStateException if this composition is frozen
+	 */
+	protected void modify() {
+		if (this.m_bFrozen)
+			throw new IllegalStateException("Frozen composition can not be modified: " + this);
+		this.m_dMonoisotopicMass = Double.NaN;
+		this.m_dAverageMass = Double.NaN;
+		this.m_lFixedMass = NO_FIXED_MASS;
+		this.m_setResidueTypes = null;
+		this.m_key = null;
 	}
 
 	public boolean isEmpty() {
-		if ( !this.m_mapResidueToCount.isEmpty() )
+		if ( this.m_nResidueTypes != 0 )
 			return false;
 		if ( this.m_redEndType != null )
 			return false;
@@ -61,6 +130,7 @@ public class Composition {
 	public boolean setReducingEnd(SubstituentType redEnd) {
 		if (redEnd != null && !redEnd.isReducingEnd())
 			return false;
+		modify();
 		this.m_redEndType = redEnd;
 		return true;
 	}
@@ -84,18 +154,25 @@ public class Composition {
 	 *         {@true}
 	 */
 	public boolean addResidues(ResidueType res, int count) {
-		if (!this.m_mapResidueToCount.containsKey(res))
-			this.m_mapResidueToCount.put(res, 0);
-		int n = this.m_mapResidueToCount.get(res) + count;
+		int iOrdinal = res.getOrdinal();
+		int nOld = (iOrdinal < this.m_aResidueCounts.length) ? this.m_aResidueCounts[iOrdinal] : 0;
+		int n = nOld + count;
 		// The count number must be positive value
 		if (n < 0)
 			return false;
-		// Removes the residue if the count number is zero
-		if (n == 0) {
-			this.m_mapResidueToCount.remove(res);
+		if (n == nOld)
 			return true;
-		}
-		this.m_mapResidueToCount.put(res, n);
+		modify();
+		// Residue types can be added after this composition is created
+		if (iOrdinal >= this.m_aResidueCounts.length)
+			this.m_aResidueCounts = Arrays.copyOf(this.m_aResidueCounts,
+					Math.max(iOrdinal + 1, ResidueDictionary.getNumberOfOrdinals()));
+		this.m_aResidueCounts[iOrdinal] = n;
+		// The residue is removed if the count number is zero
+		if (nOld == 0)
+			this.m_nResidueTypes++;
+		else if (n == 0)
+			this.m_nResidueTypes--;
 		return true;
 	}
 
@@ -111,13 +188,20 @@ public class Composition {
 	}
 
 	/**
-	 * Returns set of containing residue types
+	 * Returns unmodifiable set of containing residue types in order of the
+	 * residue types. The set is cached until this composition is modified.
 	 */
 	public Set<ResidueType> getResidueTypes() {
-		Set<ResidueType> lRess = new TreeSet<>();
-		for (ResidueType type : this.m_mapResidueToCount.keySet())
-			lRess.add(type);
-		return lRess;
+		Set<ResidueType> setRess = this.m_setResidueTypes;
+		if (setRess != null)
+			return setRess;
+		setRess = new LinkedHashSet<>();
+		for (int iOrdinal : ResidueDictionary.getSortedOrdinals())
+			if (iOrdinal < this.m_aResidueCounts.length && this.m_aResidueCounts[iOrdinal] != 0)
+				setRess.add(ResidueDictionary.getResidueTypeByOrdinal(iOrdinal));
+		setRess = Collections.unmodifiableSet(setRess);
+		this.m_setResidueTypes = setRess;
+		return setRess;
 	}
 
 	/**
@@ -127,41 +211,44 @@ public class Composition {
 	 * @param res ResidueType
 	 */
 	public int getNumberOfResidue(ResidueType res) {
-		if (!this.m_mapResidueToCount.containsKey(res))
+		int iOrdinal = res.getOrdinal();
+		if (iOrdinal >= this.m_aResidueCounts.length || this.m_aResidueCounts[iOrdinal] == 0)
 			return -1;
-		return this.m_mapResidueToCount.get(res);
+		return this.m_aResidueCounts[iOrdinal];
 	}
 
 	public int getNumberOfResidues() {
 		int num = 0;
-		for (ResidueType res : this.m_mapResidueToCount.keySet())
-			num += this.m_mapResidueToCount.get(res);
+		for (int n : this.m_aResidueCounts)
+			num += n;
 		return num;
 	}
 
 	public int getNumberOfMonosaccharides() {
 		int num = 0;
-		for (ResidueType res : this.m_mapResidueToCount.keySet())
-			if (res instanceof MonosaccharideType)
-				num += this.m_mapResidueToCount.get(res);
+		for (int i = 0; i < this.m_aResidueCounts.length; i++)
+			if (this.m_aResidueCounts[i] != 0 && ResidueDictionary.isMonosaccharide(i))
+				num += this.m_aResidueCounts[i];
 		return num;
 	}
 
 	public int getNumberOfSubstituents() {
 		int num = 0;
-		for (ResidueType res : this.m_mapResidueToCount.keySet())
-			if (res instanceof SubstituentType)
-				num += this.m_mapResidueToCount.get(res);
+		for (int i = 0; i < this.m_aResidueCounts.length; i++)
+			if (this.m_aResidueCounts[i] != 0 && ResidueDictionary.isSubstituent(i))
+				num += this.m_aResidueCounts[i];
 		return num;
 	}
 
 	public int getMaxLinkages() {
 		int nLinks = 0;
 		int nRess = 0;
-		for (ResidueType res : this.m_mapResidueToCount.keySet()) {
-			int n = this.m_mapResidueToCount.get(res);
+		for (int i = 0; i < this.m_aResidueCounts.length; i++) {
+			int n = this.m_aResidueCounts[i];
+			if (n == 0)
+				continue;
 			nRess += n;
-			nLinks += n * res.getMaxLinkages();
+			nLinks += n * ResidueDictionary.getMaxLinkages(i);
 		}
 		if (this.m_redEndType != null) {
 			nRess++;
@@ -181,6 +268,9 @@ public class Composition {
 	 *                       ({@code null} if no derivatization type is specified)
 	 */
 	public void setMassOptions(boolean isMonoisotopic, PerderivatizationType perDeriv) {
+		if (this.m_bIsMonoisotopic == isMonoisotopic && this.m_perderivType == perDeriv)
+			return;
+		modify();
 		this.m_bIsMonoisotopic = isMonoisotopic;
 		this.m_perderivType = perDeriv;
 	}
@@ -195,51 +285,163 @@ public class Composition {
 
 	/**
 	 * Calculates monoisotopic or average mass of the composition. The mass can also
-	 * be perderivatized with the given PerderivatizationType.
+	 * be perderivatized with the given PerderivatizationType. The masses are cached
+	 * until this composition is modified.
 	 * 
 	 */
 	public double computeMass() {
+		if (this.m_bIsMonoisotopic) {
+			double dMass = this.m_dMonoisotopicMass;
+			if (Double.isNaN(dMass))
+				this.m_dMonoisotopicMass = dMass = computeMass(true);
+			return dMass;
+		}
+		double dMass = this.m_dAverageMass;
+		if (Double.isNaN(dMass))
+			this.m_dAverageMass = dMass = computeMass(false);
+		return dMass;
+	}
+
+	/**
+	 * Calculates monoisotopic or average mass of the composition without the cache.
+	 * 
+	 * @param isMonoisotopic {@code true} for monoisotopic mass, {@code false} for
+	 *                       average mass
+	 */
+	protected double computeMass(boolean isMonoisotopic) {
+		return computeMass(isMonoisotopic, this.m_perderivType);
+	}
+
+	/**
+	 * Calculates the mass of the composition with the given mass options instead
+	 * of the ones of this composition. Neither the options nor the cache are
+	 * changed, so this can be used on frozen compositions without copying them.
+	 * 
+	 * @param isMonoisotopic {@code true} for monoisotopic mass, {@code false} for
+	 *                       average mass
+	 * @param perDeriv       PerderivatizationType for perderivatization
+	 *                       ({@code null} if no derivatization type is specified)
+	 */
+	public double computeMass(boolean isMonoisotopic, PerderivatizationType perDeriv) {
 		double dMass = 0d;
 
-		// Collect residues which will not be dropped with perderivatization
-		List<ResidueType> lResidues = new ArrayList<>();
-		for (ResidueType type : this.m_mapResidueToCount.keySet()) {
-			if (this.m_perderivType != null && type instanceof SubstituentType) {
+		// Masses are added in order of the residue types
+		int nResidues = 0;
+		int nPerDeriv = 0;
+		for (int iOrdinal : ResidueDictionary.getSortedOrdinals()) {
+			if (iOrdinal >= this.m_aResidueCounts.length || this.m_aResidueCounts[iOrdinal] == 0)
+				continue;
+			ResidueType type = ResidueDictionary.getResidueTypeByOrdinal(iOrdinal);
+			// Skip residues which will be dropped with perderivatization
+			if (perDeriv != null && type instanceof SubstituentType) {
 				SubstituentType subst = (SubstituentType) type;
-				if (this.m_perderivType.isMethylation() && subst.isDroppedWithMethylation())
+				if (perDeriv.isMethylation() && subst.isDroppedWithMethylation())
 					continue;
-				if (this.m_perderivType.isAcetylation() && subst.isDroppedWithAcetylation())
+				if (perDeriv.isAcetylation() && subst.isDroppedWithAcetylation())
 					continue;
 			}
-			lResidues.add(type);
+			int n = this.m_aResidueCounts[iOrdinal];
+			dMass += n * ((isMonoisotopic) ? ResidueDictionary.getMonoisotopicMass(iOrdinal)
+					: ResidueDictionary.getAverageMass(iOrdinal));
+			nResidues += n;
+			if (perDeriv != null)
+				nPerDeriv += n * ((perDeriv.isMethylation()) ? ResidueDictionary.getNumMethylations(iOrdinal)
+						: (perDeriv.isAcetylation()) ? ResidueDictionary.getNumAcethylations(iOrdinal) : 0);
 		}
+		if (this.m_redEndType != null) {
+			dMass += (isMonoisotopic)
+					? this.m_redEndType.getMonoisotopicMass() + MoleculeUtils.hydrogen_mol.getMonoisotopicMass()
+					: this.m_redEndType.getAverageMass() + MoleculeUtils.hydrogen_mol.getAverageMass();
+			nResidues++;
+		}
+
+		// Reduce water masses for glycosidic linkages
+		if (nResidues > 1)
+			dMass -= (nResidues - 1) * ((isMonoisotopic) ? MoleculeUtils.water.getMonoisotopicMass()
+					: MoleculeUtils.water.getAverageMass());
+
+		// Perderivatization
+		if (perDeriv != null) {
+			if (this.m_redEndType != null) {
+				nPerDeriv += (perDeriv.isMethylation()) ? this.m_redEndType.getNumMethylations()
+						: (perDeriv.isAcetylation()) ? this.m_redEndType.getNumAcethylations() : 0;
+			}
+			if (nResidues > 1)
+				nPerDeriv -= (nResidues - 1) * 2;
+
+			// Add perderivationzation masses and reduce water masses
+			dMass += nPerDeriv * ((isMonoisotopic)
+					? perDeriv.getMonoisotopicMass() - MoleculeUtils.hydrogen.getMonoisotopicMass()
+					: perDeriv.getAverageMass() - MoleculeUtils.hydrogen.getAverageMass());
+		}
+
+		return dMass;
+	}
+
+	/**
+	 * Calculates the mass of the composition in fixed-point units of
+	 * {@link MassCalculator#UNITS_PER_DALTON}. Each mass contribution is rounded
+	 * to the units before being added up, so the result does not depend on the
+	 * order of the additions and the same compositions always have the same
+	 * value. The mass is cached until this composition is modified.
+	 * 
+	 * @see MassCalculator#toFixedMass(double)
+	 */
+	public long computeFixedMass() {
+		long lMass = this.m_lFixedMass;
+		if (lMass == NO_FIXED_MASS)
+			this.m_lFixedMass = lMass = computeFixedMass(this.m_bIsMonoisotopic);
+		return lMass;
+	}
+
+	/**
+	 * Calculates the fixed-point mass of the composition without the cache, which
+	 * is the same calculation as {@link #computeMass(boolean)} with the integer
+	 * contributions.
+	 * 
+	 * @param isMonoisotopic {@code true} for monoisotopic mass, {@code false} for
+	 *                       average mass
+	 */
+	protected long computeFixedMass(boolean isMonoisotopic) {
+		long lMass = 0L;
 
 		int nResidues = 0;
-		for (ResidueType type : lResidues) {
-			int n = this.m_mapResidueToCount.get(type);
-			dMass += n * ((this.m_bIsMonoisotopic) ? type.getMonoisotopicMass() : type.getAverageMass());
+		int nPerDeriv = 0;
+		for (int iOrdinal = 0; iOrdinal < this.m_aResidueCounts.length; iOrdinal++) {
+			int n = this.m_aResidueCounts[iOrdinal];
+			if (n == 0)
+				continue;
+			ResidueType type = ResidueDictionary.getResidueTypeByOrdinal(iOrdinal);
+			// Skip residues which will be dropped with perderivatization
+			if (this.m_perderivType != null && type instanceof SubstituentType) {
+				SubstituentType subst = (SubstituentType) type;
+				if (this.m_perderivType.isMethylation() && subst.isDroppedWithMethylation())
+					continue;
+				if (this.m_perderivType.isAcetylation() && subst.isDroppedWithAcetylation())
+					continue;
+			}
+			lMass += n * MassCalculator.toFixedMass((isMonoisotopic) ? ResidueDictionary.getMonoisotopicMass(iOrdinal)
+					: ResidueDictionary.getAverageMass(iOrdinal));
 			nResidues += n;
+			if (this.m_perderivType != null)
+				nPerDeriv += n * ((this.m_perderivType.isMethylation()) ? ResidueDictionary.getNumMethylations(iOrdinal)
+						: (this.m_perderivType.isAcetylation()) ? ResidueDictionary.getNumAcethylations(iOrdinal) : 0);
 		}
 		if (this.m_redEndType != null) {
-			dMass += (this.m_bIsMonoisotopic)
+			lMass += MassCalculator.toFixedMass((isMonoisotopic)
 					? this.m_redEndType.getMonoisotopicMass() + MoleculeUtils.hydrogen_mol.getMonoisotopicMass()
-					: this.m_redEndType.getAverageMass() + MoleculeUtils.hydrogen_mol.getAverageMass();
+					: this.m_redEndType.getAverageMass() + MoleculeUtils.hydrogen_mol.getAverageMass());
 			nResidues++;
 		}
 
 		// Reduce water masses for glycosidic linkages
 		if (nResidues > 1)
-			dMass -= (nResidues - 1) * ((this.m_bIsMonoisotopic) ? MoleculeUtils.water.getMonoisotopicMass()
+			lMass -= (nResidues - 1) * MassCalculator.toFixedMass((isMonoisotopic)
+					? MoleculeUtils.water.getMonoisotopicMass()
 					: MoleculeUtils.water.getAverageMass());
 
 		// Perderivatization
 		if (this.m_perderivType != null) {
-			int nPerDeriv = 0;
-			for (ResidueType type : lResidues) {
-				int n = this.m_mapResidueToCount.get(type);
-				nPerDeriv += n * ((this.m_perderivType.isMethylation()) ? type.getNumMethylations()
-						: (this.m_perderivType.isAcetylation()) ? type.getNumAcethylations() : 0);
-			}
 			if (this.m_redEndType != null) {
 				nPerDeriv += (this.m_perderivType.isMethylation()) ? this.m_redEndType.getNumMethylations()
 						: (this.m_perderivType.isAcetylation()) ? this.m_redEndType.getNumAcethylations() : 0;
@@ -247,19 +449,41 @@ public class Composition {
 			if (nResidues > 1)
 				nPerDeriv -= (nResidues - 1) * 2;
 
-			// Add perderivationzation masses and reduce water masses
-			dMass += nPerDeriv * ((this.m_bIsMonoisotopic)
+			lMass += nPerDeriv * MassCalculator.toFixedMass((isMonoisotopic)
 					? this.m_perderivType.getMonoisotopicMass() - MoleculeUtils.hydrogen.getMonoisotopicMass()
 					: this.m_perderivType.getAverageMass() - MoleculeUtils.hydrogen.getAverageMass());
 		}
 
-		return dMass;
+		return lMass;
 	}
 
 	public Composition copy() {
 		return new Composition(this);
 	}
 
+	/**
+	 * Returns the key identifying this composition in hash collections. The key
+	 * is a snapshot, so it does not follow later modifications. The key is cached
+	 * until this composition is modified.
+	 */
+	public CompositionKey getKey() {
+		CompositionKey key = this.m_key;
+		if (key == null) {
+			key = this.createKey();
+			this.m_key = key;
+		}
+		return key;
+	}
+
+	/**
+	 * Creates a new key of the current contents.
+	 * 
+	 * @see #getKey()
+	 */
+	protected CompositionKey createKey() {
+		return new CompositionKey(this.m_aResidueCounts, this.m_nResidueTypes, this.m_redEndType, null, null);
+	}
+
 	public boolean isValidStructure() {
 		if (this.getNumberOfMonosaccharides() == 0)
 			return false;
@@ -277,51 +501,61 @@ public class Composition {
 		Composition comp = (Composition) obj;
 		if (this.m_redEndType != comp.m_redEndType)
 			return false;
-		if (this.m_mapResidueToCount.size() != comp.m_mapResidueToCount.size())
+		if (this.m_nResidueTypes != comp.m_nResidueTypes)
 			return false;
-		for (ResidueType res : this.m_mapResidueToCount.keySet()) {
-			if (!comp.m_mapResidueToCount.containsKey(res))
-				return false;
-			if (comp.m_mapResidueToCount.get(res) != this.m_mapResidueToCount.get(res))
+		int[] aCounts1 = this.m_aResidueCounts;
+		int[] aCounts2 = comp.m_aResidueCounts;
+		for (int i = 0; i < Math.max(aCounts1.length, aCounts2.length); i++) {
+			int n1 = (i < aCounts1.length) ? aCounts1[i] : 0;
+			int n2 = (i < aCounts2.length) ? aCounts2[i] : 0;
+			if (n1 != n2)
 				return false;
 		}
 		return true;
 	}
 
+	@Override
+	public int hashCode() {
+		// Residue types are hashed in their order
+		int hash = 0;
+		for (int iOrdinal : ResidueDictionary.getSortedOrdinals()) {
+			if (iOrdinal >= this.m_aResidueCounts.length || this.m_aResidueCounts[iOrdinal] == 0)
+				continue;
+			ResidueType res = ResidueDictionary.getResidueTypeByOrdinal(iOrdinal);
+			hash = 31 * hash + (res.getName().hashCode() ^ this.m_aResidueCounts[iOrdinal]);
+		}
+		if (this.m_redEndType != null)
+			hash = 31 * hash + this.m_redEndType.getName().hashCode();
+		return hash;
+	}
+
 	@Override
 	public String toString() {
 		// Group residue types into monosaccharide and substituent
-		List<MonosaccharideType> lMSTypes = new ArrayList<>();
-		List<SubstituentType> lSubstTypes = new ArrayList<>();
-		for (ResidueType type : this.m_mapResidueToCount.keySet()) {
-			if (type instanceof MonosaccharideType)
-				lMSTypes.add((MonosaccharideType) type);
-			if (type instanceof SubstituentType)
-				lSubstTypes.add((SubstituentType) type);
-		}
 		StringBuffer sb = new StringBuffer();
-		for (MonosaccharideType type : lMSTypes) {
+		appendResidues(sb, MonosaccharideType.class);
+		appendResidues(sb, SubstituentType.class);
+		if (this.m_redEndType != null) {
 			if ( sb.length() != 0 )
-				sb.append(",");
-			int n = this.m_mapResidueToCount.get(type);
-			sb.append(type.toString());
-			sb.append(":");
-			sb.append(n);
+				sb.append("--");
+			sb.append(this.m_redEndType.toString());
 		}
-		for (SubstituentType type : lSubstTypes) {
+		return sb.toString();
+	}
+
+	private void appendResidues(StringBuffer sb, Class<? extends ResidueType> clazz) {
+		for (int iOrdinal : ResidueDictionary.getSortedOrdinals()) {
+			if (iOrdinal >= this.m_aResidueCounts.length || this.m_aResidueCounts[iOrdinal] == 0)
+				continue;
+			ResidueType type = ResidueDictionary.getResidueTypeByOrdinal(iOrdinal);
+			if (!clazz.isInstance(type))
+				continue;
 			if ( sb.length() != 0 )
 				sb.append(",");
-			int n = this.m_mapResidueToCount.get(type);
 			sb.append(type.toString());
 			sb.append(":");
-			sb.append(n);
+			sb.append(this.m_aResidueCounts[iOrdinal]);
 		}
-		if (this.m_redEndType != null) {
-			if ( sb.length() != 0 )
-				sb.append("--");
-			sb.append(this.m_redEndType.toString());
-		}
-		return sb.toString();
 	}
 
 }
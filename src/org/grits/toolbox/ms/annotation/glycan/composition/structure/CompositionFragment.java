@@ -6,6 +6,8 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.grits.toolbox.ms.annotation.glycan.composition.molecule.MoleculeUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.fragment.CrossRingFragmentType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.fragment.IFragmentType;
@@ -65,6 +67,7 @@ public class CompositionFragment extends Composition {
 	private boolean setRootFragment(IFragmentType type) {
 		if (type != null && !type.getCleavageType().isRootSide())
 			return false;
+		modify();
 		this.m_fragmentRoot = type;
 		// Reducing end and root fragment can not be set at the same time
 		if (type != null && this.m_redEndType != null)
@@ -104,6 +107,7 @@ public class CompositionFragment extends Composition {
 		// A fragment for root side can not be added
 		if (type.getCleavageType().isRootSide())
 			return false;
+		modify();
 		if (!this.m_mapLeafFragmentToCount.containsKey(type))
 			this.m_mapLeafFragmentToCount.put(type, 0);
 		int n = this.m_mapLeafFragmentToCount.get(type) + count;
@@ -142,6 +146,14 @@ public class CompositionFragment extends Composition {
 		return lRess;
 	}
 
+	/**
+	 * Returns the number of the given fragment type as leaf side fragments.
+	 */
+	public int getNumberOfLeafFragments(IFragmentType type) {
+		Integer n = this.m_mapLeafFragmentToCount.get(type);
+		return (n == null) ? 0 : n;
+	}
+
 	public int getNumberOfAllFragments() {
 		int num = 0;
 		for (IFragmentType type : this.m_mapLeafFragmentToCount.keySet())
@@ -190,27 +202,77 @@ public class CompositionFragment extends Composition {
 	}
 
 	@Override
-	public double computeMass() {
-		double dMass = super.computeMass();
+	public double computeMass(boolean isMonoisotopic, PerderivatizationType perDeriv) {
+		double dMass = super.computeMass(isMonoisotopic, perDeriv);
 
 		int nResidues = 0;
 		// Add fragment masses
 		for (IFragmentType type : this.m_mapLeafFragmentToCount.keySet()) {
 			int n = this.m_mapLeafFragmentToCount.get(type);
-			dMass += n * ((this.m_bIsMonoisotopic) ? type.getMonoisotopicMass() : type.getAverageMass());
+			dMass += n * ((isMonoisotopic) ? type.getMonoisotopicMass() : type.getAverageMass());
 			nResidues += n;
 		}
 		if (this.m_fragmentRoot != null) {
-			dMass += (this.m_bIsMonoisotopic) ? this.m_fragmentRoot.getMonoisotopicMass()
+			dMass += (isMonoisotopic) ? this.m_fragmentRoot.getMonoisotopicMass()
 					: this.m_fragmentRoot.getAverageMass();
 			nResidues++;
 		}
 
-		if (!this.m_mapResidueToCount.isEmpty() || this.m_redEndType != null)
+		if (this.m_nResidueTypes != 0 || this.m_redEndType != null)
+			nResidues++;
+		// Reduce water masses for glycosidic linkages
+		if (nResidues > 1)
+			dMass -= (nResidues - 1) * ((isMonoisotopic) ? MoleculeUtils.water.getMonoisotopicMass()
+					: MoleculeUtils.water.getAverageMass());
+
+		//
+		if (perDeriv != null) {
+			int nPerDeriv = 0;
+			for (IFragmentType type : this.m_mapLeafFragmentToCount.keySet()) {
+				int n = this.m_mapLeafFragmentToCount.get(type);
+				nPerDeriv += n * ((perDeriv.isMethylation()) ? type.getNumMethylations()
+						: (perDeriv.isAcetylation()) ? type.getNumAcethylations() : 0);
+			}
+			if (this.m_fragmentRoot != null) {
+				nPerDeriv += (perDeriv.isMethylation()) ? this.m_fragmentRoot.getNumMethylations()
+						: (perDeriv.isAcetylation()) ? this.m_fragmentRoot.getNumAcethylations() : 0;
+			}
+			if (nResidues > 1)
+				nPerDeriv -= (nResidues - 1) * 2;
+
+			// Add perderivationzation masses and reduce water masses
+			dMass += nPerDeriv * ((isMonoisotopic)
+					? perDeriv.getMonoisotopicMass() - MoleculeUtils.water.getMonoisotopicMass()
+					: perDeriv.getAverageMass() - MoleculeUtils.water.getAverageMass());
+		}
+
+		return dMass;
+	}
+
+	@Override
+	protected long computeFixedMass(boolean isMonoisotopic) {
+		long lMass = super.computeFixedMass(isMonoisotopic);
+
+		int nResidues = 0;
+		// Add fragment masses
+		for (IFragmentType type : this.m_mapLeafFragmentToCount.keySet()) {
+			int n = this.m_mapLeafFragmentToCount.get(type);
+			lMass += n * MassCalculator
+					.toFixedMass((isMonoisotopic) ? type.getMonoisotopicMass() : type.getAverageMass());
+			nResidues += n;
+		}
+		if (this.m_fragmentRoot != null) {
+			lMass += MassCalculator.toFixedMass((isMonoisotopic) ? this.m_fragmentRoot.getMonoisotopicMass()
+					: this.m_fragmentRoot.getAverageMass());
+			nResidues++;
+		}
+
+		if (this.m_nResidueTypes != 0 || this.m_redEndType != null)
 			nResidues++;
 		// Reduce water masses for glycosidic linkages
 		if (nResidues > 1)
-			dMass -= (nResidues - 1) * ((this.m_bIsMonoisotopic) ? MoleculeUtils.water.getMonoisotopicMass()
+			lMass -= (nResidues - 1) * MassCalculator.toFixedMass((isMonoisotopic)
+					? MoleculeUtils.water.getMonoisotopicMass()
 					: MoleculeUtils.water.getAverageMass());
 
 		//
@@ -229,12 +291,12 @@ public class CompositionFragment extends Composition {
 				nPerDeriv -= (nResidues - 1) * 2;
 
 			// Add perderivationzation masses and reduce water masses
-			dMass += nPerDeriv * ((this.m_bIsMonoisotopic)
+			lMass += nPerDeriv * MassCalculator.toFixedMass((isMonoisotopic)
 					? this.m_perderivType.getMonoisotopicMass() - MoleculeUtils.water.getMonoisotopicMass()
 					: this.m_perderivType.getAverageMass() - MoleculeUtils.water.getAverageMass());
 		}
 
-		return dMass;
+		return lMass;
 	}
 
 	@Override
@@ -242,6 +304,13 @@ public class CompositionFragment extends Composition {
 		return new CompositionFragment(this);
 	}
 
+	@Override
+	protected CompositionKey createKey() {
+		return new CompositionKey(this.m_aResidueCounts, this.m_nResidueTypes, this.m_redEndType,
+				this.m_mapLeafFragmentToCount,
+				this.m_fragmentRoot);
+	}
+
 	@Override
 	public boolean isValidStructure() {
 		if (this.getNumberOfMonosaccharides() == 0) {
@@ -288,12 +357,29 @@ public class CompositionFragment extends Composition {
 		for (IFragmentType type : this.m_mapLeafFragmentToCount.keySet()) {
 			if (!frag.m_mapLeafFragmentToCount.containsKey(type))
 				return false;
-			if (frag.m_mapLeafFragmentToCount.get(type) != this.m_mapLeafFragmentToCount.get(type))
+			if (!frag.m_mapLeafFragmentToCount.get(type).equals(this.m_mapLeafFragmentToCount.get(type)))
 				return false;
 		}
 		return true;
 	}
 
+	@Override
+	public int hashCode() {
+		int hash = super.hashCode();
+		if (this.m_fragmentRoot != null)
+			hash = 31 * hash + getFragmentTypeHash(this.m_fragmentRoot);
+		for (IFragmentType type : this.m_mapLeafFragmentToCount.keySet())
+			hash = 31 * hash + (getFragmentTypeHash(type) ^ this.m_mapLeafFragmentToCount.get(type));
+		return hash;
+	}
+
+	private static int getFragmentTypeHash(IFragmentType type) {
+		// Fragment types are residue types compared by their names
+		if (type instanceof ResidueType)
+			return ((ResidueType) type).getName().hashCode();
+		return type.hashCode();
+	}
+
 	@Override
 	public String toString() {
 		String str = super.toString();
@@ -0,0 +1,140 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.structure;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.fragment.IFragmentType;
+
+/**
+ * Immutable key identifying a composition or composition fragment by its
+ * residues, reducing end, leaf fragments and root fragment. The types are
+ * identified by their string forms so the key is equal if and only if the
+ * string forms of the compositions are equal, while the key is built without
+ * creating the string. A 64-bit hash is computed on creation, so the key can
+ * be used in hash collections with cheap comparisons. The mass options are not
+ * included.
+ *
+ * @see Composition#getKey()
+ */
+public final class CompositionKey {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String[] m_aResidueNames;
+	private final int[] m_aResidueCounts;
+	private final String m_strRedEnd;
+	private final String[] m_aLeafNames;
+	private final int[] m_aLeafCounts;
+	private final String m_strRoot;
+	private final long m_lHash;
+
+	CompositionKey(int[] aResidueCounts, int nResidueTypes, SubstituentType redEnd,
+			Map<IFragmentType, Integer> mapLeafFragmentToCount, IFragmentType fragRoot) {
+		this.m_aResidueNames = new String[nResidueTypes];
+		this.m_aResidueCounts = new int[nResidueTypes];
+		int i = 0;
+		for (int iOrdinal : ResidueDictionary.getSortedOrdinals()) {
+			if (iOrdinal >= aResidueCounts.length || aResidueCounts[iOrdinal] == 0)
+				continue;
+			this.m_aResidueNames[i] = ResidueDictionary.getResidueTypeByOrdinal(iOrdinal).toString();
+			this.m_aResidueCounts[i] = aResidueCounts[iOrdinal];
+			i++;
+		}
+		this.m_strRedEnd = (redEnd == null) ? null : redEnd.toString();
+
+		int nLeaves = (mapLeafFragmentToCount == null) ? 0 : mapLeafFragmentToCount.size();
+		this.m_aLeafNames = new String[nLeaves];
+		this.m_aLeafCounts = new int[nLeaves];
+		if (nLeaves != 0) {
+			i = 0;
+			for (Map.Entry<IFragmentType, Integer> entry : mapLeafFragmentToCount.entrySet()) {
+				this.m_aLeafNames[i] = entry.getKey().toString();
+				this.m_aLeafCounts[i] = entry.getValue();
+				i++;
+			}
+		}
+		this.m_strRoot = (fragRoot == null) ? null : fragRoot.toString();
+
+		this.m_lHash = computeHash();
+	}
+
+	private long computeHash() {
+		long lHash = FNV_OFFSET;
+		for (int i = 0; i < this.m_aResidueNames.length; i++) {
+			lHash = hash(lHash, this.m_aResidueNames[i]);
+			lHash = hash(lHash, this.m_aResidueCounts[i]);
+		}
+		// Separators keep the sections apart
+		lHash = hash(lHash, -1);
+		lHash = hash(lHash, this.m_strRedEnd);
+		lHash = hash(lHash, -2);
+		for (int i = 0; i < this.m_aLeafNames.length; i++) {
+			lHash = hash(lHash, this.m_aLeafNames[i]);
+			lHash = hash(lHash, this.m_aLeafCounts[i]);
+		}
+		lHash = hash(lHash, -3);
+		lHash = hash(lHash, this.m_strRoot);
+		// Final mixing for the lower bits used by hash tables
+		lHash ^= lHash >>> 33;
+		lHash *= 0xff51afd7ed558ccdL;
+		lHash ^= lHash >>> 33;
+		return lHash;
+	}
+
+	private static long hash(long lHash, String str) {
+		if (str == null)
+			return hash(lHash, 0);
+		for (int i = 0; i < str.length(); i++) {
+			lHash ^= str.charAt(i);
+			lHash *= FNV_PRIME;
+		}
+		return hash(lHash, str.length());
+	}
+
+	private static long hash(long lHash, int n) {
+		for (int i = 0; i < 4; i++) {
+			lHash ^= (n >>> (i * 8)) & 0xff;
+			lHash *= FNV_PRIME;
+		}
+		return lHash;
+	}
+
+	/**
+	 * Returns the 64-bit hash value of this key.
+	 */
+	public long getHash64() {
+		return this.m_lHash;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (this.m_lHash ^ (this.m_lHash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CompositionKey))
+			return false;
+		CompositionKey key = (CompositionKey) obj;
+		if (this.m_lHash != key.m_lHash)
+			return false;
+		if (!Arrays.equals(this.m_aResidueCounts, key.m_aResidueCounts))
+			return false;
+		if (!Arrays.equals(this.m_aLeafCounts, key.m_aLeafCounts))
+			return false;
+		if (!Arrays.equals(this.m_aResidueNames, key.m_aResidueNames))
+			return false;
+		if (!Arrays.equals(this.m_aLeafNames, key.m_aLeafNames))
+			return false;
+		if (this.m_strRedEnd == null ? key.m_strRedEnd != null : !this.m_strRedEnd.equals(key.m_strRedEnd))
+			return false;
+		if (this.m_strRoot == null ? key.m_strRoot != null : !this.m_strRoot.equals(key.m_strRoot))
+			return false;
+		return true;
+	}
+}
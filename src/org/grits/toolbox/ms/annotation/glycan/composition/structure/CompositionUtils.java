@@ -1,10 +1,18 @@
 package org.grits.toolbox.ms.annotation.glycan.composition.structure;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.CompositionGeneratorSettings;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ICompositionConstraint;
+import org.grits.toolbox.ms.annotation.glycan.composition.settings.ICountConstraint;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.CustomSubstituentType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.MonosaccharideType;
 import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueDictionary;
@@ -17,6 +25,8 @@ import org.grits.toolbox.ms.annotation.glycan.composition.utils.DictionaryParser
 
 public class CompositionUtils {
 
+	private static final String RECORD_DELIMITER = "\t";
+
 	public static Composition parse(String strComposition) throws DictionaryException {
 		if (strComposition.contains("#"))
 			return parseFragment(strComposition);
@@ -65,6 +75,9 @@ public class CompositionUtils {
 			if (tokens.length > 1) {
 				if (tokens[1].contains("#"))
 					strRoot = tokens[1];
+				else if (tokens.length == 2 && isReducingEndToken(tokens[1]))
+					// Leaf fragments with a reducing end and no residue
+					strRoot = tokens[1];
 				else {
 					strCore = tokens[1];
 					if (tokens.length > 2)
@@ -125,6 +138,112 @@ public class CompositionUtils {
 		return frag;
 	}
 
+	/**
+	 * Returns the record string of the given fragment, which can be parsed back
+	 * to the same fragment by {@link #parseFragmentRecord(String)}. Unlike
+	 * {@link CompositionFragment#toString()}, the leaf fragments, residues,
+	 * reducing end and root fragment are written in separate fields delimited by
+	 * tabs, and the masses of custom substituents are written in full precision.
+	 * 
+	 * @param frag CompositionFragment
+	 * @return String of the fragment record
+	 */
+	public static String toFragmentRecord(CompositionFragment frag) {
+		StringBuilder sb = new StringBuilder();
+		for (IFragmentType type : frag.getFragmentTypes()) {
+			int n = frag.getNumberOfLeafFragments(type);
+			if (n == 0)
+				continue;
+			if (sb.length() != 0)
+				sb.append(",");
+			sb.append(type.toString()).append(":").append(n);
+		}
+		sb.append(RECORD_DELIMITER);
+		boolean bFirst = true;
+		for (ResidueType type : frag.getResidueTypes()) {
+			if (!bFirst)
+				sb.append(",");
+			bFirst = false;
+			sb.append(toRecordToken(type)).append(":").append(frag.getNumberOfResidue(type));
+		}
+		sb.append(RECORD_DELIMITER);
+		if (frag.getReducingEnd() != null)
+			sb.append(toRecordToken(frag.getReducingEnd()));
+		sb.append(RECORD_DELIMITER);
+		if (frag.getRootFragment() != null)
+			sb.append(frag.getRootFragment().toString());
+		return sb.toString();
+	}
+
+	private static String toRecordToken(ResidueType type) {
+		if (type instanceof CustomSubstituentType)
+			return type.getName() + "=" + Double.toString(type.getMonoisotopicMass());
+		return type.toString();
+	}
+
+	/**
+	 * Parses the record string written by
+	 * {@link #toFragmentRecord(CompositionFragment)}.
+	 * 
+	 * @param strRecord String of the fragment record
+	 * @return CompositionFragment
+	 * @throws DictionaryException if the record is invalid
+	 */
+	public static CompositionFragment parseFragmentRecord(String strRecord) throws DictionaryException {
+		String[] fields = strRecord.split(RECORD_DELIMITER, -1);
+		if (fields.length != 4)
+			throw new DictionaryParserException("Invalid format for fragment record.");
+		CompositionFragment frag = new CompositionFragment();
+		if (!fields[3].isEmpty()) {
+			checkCleavedMonosaccharide(fields[3]);
+			frag.addFragment(FragmentDictionary.getFragmentType(fields[3]));
+		}
+		if (!fields[2].isEmpty())
+			frag.setReducingEnd(parseReducingEnd(fields[2]));
+		if (!fields[1].isEmpty()) {
+			for (String token : fields[1].split(",")) {
+				String[] strResCount = splitCount(token);
+				frag.addResidues(parseResidue(strResCount[0]), Integer.parseInt(strResCount[1]));
+			}
+		}
+		if (!fields[0].isEmpty()) {
+			for (String token : fields[0].split(",")) {
+				String[] strResCount = splitCount(token);
+				checkCleavedMonosaccharide(strResCount[0]);
+				frag.addLeafFragments(FragmentDictionary.getFragmentType(strResCount[0]),
+						Integer.parseInt(strResCount[1]));
+			}
+		}
+		return frag;
+	}
+
+	private static String[] splitCount(String token) throws DictionaryParserException {
+		int iColon = token.lastIndexOf(':');
+		if (iColon < 0)
+			throw new DictionaryParserException("Invalid format for fragment record: <" + token + ">");
+		String[] strResCount = { token.substring(0, iColon), token.substring(iColon + 1) };
+		try {
+			if (Integer.parseInt(strResCount[1]) <= 0)
+				throw new DictionaryParserException("The number of residues must be positive integer.");
+		} catch (NumberFormatException e) {
+			throw new DictionaryParserException("The number of residues must be positive integer.");
+		}
+		return strResCount;
+	}
+
+	/**
+	 * Returns {@code true} if the given part of a composition fragment string is
+	 * a reducing end rather than residues, which always have their counts in
+	 * {@link Composition#toString()}.
+	 */
+	private static boolean isReducingEndToken(String strToken) {
+		if (strToken.contains(":") || strToken.contains(","))
+			return false;
+		if (strToken.contains("="))
+			return true;
+		return ResidueDictionary.findReducingEndType(strToken) != null;
+	}
+
 	private static void checkCleavedMonosaccharide(String strFrag) throws DictionaryException {
 		if (!strFrag.contains("#"))
 			throw new DictionaryParserException("Invalid fragment fromat: <" + strFrag + ">");
@@ -172,7 +291,13 @@ public class CompositionUtils {
 	 * the {@code minComposition} must be a substructure of {@code maxComposition}.)
 	 * The resulting compositions are filtered with the given mass threshold value.
 	 * The mass options of all generating compositions will be reset with the ones
-	 * of minComposition.
+	 * of minComposition.<br>
+	 * The substructures of the residues between the minimum and maximum are
+	 * walked once each (see {@link #generateSubstructures(Composition)}), and the
+	 * counts exceeding the mass threshold are skipped before creating
+	 * compositions. The compositions are in the same order as
+	 * {@link #generateCompositionsRecursive(Composition, Composition, double)},
+	 * i.e. the substructures, all the residues and then the min composition.
 	 * 
 	 * @param minComposition Composition with a minimum residue set. This will be
 	 *                       the smallest composition in the result. ({@code null}
@@ -185,6 +310,157 @@ public class CompositionUtils {
 	 */
 	public static List<Composition> generateCompositions(Composition minComposition, Composition maxComposition,
 			double dMassThreshold) {
+		return generateCompositions(minComposition, maxComposition, dMassThreshold,
+				new ArrayList<ICompositionConstraint>());
+	}
+
+	/**
+	 * Generates compositions in the same way as
+	 * {@link #generateCompositions(Composition, Composition, double)} with the
+	 * residue count constraints. The constraints are evaluated on the residue
+	 * counts, so the compositions not satisfying them are never created.
+	 * 
+	 * @param minComposition Composition with a minimum residue set ({@code null}
+	 *                       if no minimum)
+	 * @param maxComposition Composition with a maximum residue set
+	 * @param dMassThreshold double value of mass threshold
+	 * @param lConstraints   List of ICompositionConstraints to be satisfied by
+	 *                       the resulting compositions
+	 * @return List of Compositions satisfying all the constraints
+	 * @see CompositionGeneratorSettings#addConstraint(ICompositionConstraint)
+	 */
+	public static List<Composition> generateCompositions(Composition minComposition, Composition maxComposition,
+			double dMassThreshold, List<ICompositionConstraint> lConstraints) {
+		if (maxComposition == null || maxComposition.isEmpty())
+			return new ArrayList<>();
+
+		double minMass = 0;
+		if (minComposition != null && !minComposition.isEmpty())
+			minMass = minComposition.computeMass();
+
+		// No result if the mass of minimum composition exceeds the threshold
+		if (minMass > dMassThreshold)
+			return new ArrayList<>();
+
+		List<Composition> lCompositions = new ArrayList<>();
+		SubstructureWalk walk = createCompositionWalk(minComposition, maxComposition, dMassThreshold, lConstraints);
+		walk.walkCompositions(walk.new CompositionCollector(lCompositions));
+		// The min composition itself does not exceed the threshold
+		if (minComposition != null && !minComposition.isEmpty() && isSatisfied(minComposition, lConstraints))
+			lCompositions.add(minComposition.copy());
+
+		return lCompositions;
+	}
+
+	/**
+	 * Generates compositions with the residue counts, mass options, reducing end,
+	 * mass threshold and constraints of the given settings.
+	 * 
+	 * @param settings CompositionGeneratorSettings
+	 * @return List of Compositions satisfying all the constraints of the settings
+	 * @see #generateCompositions(Composition, Composition, double, List)
+	 */
+	public static List<Composition> generateCompositions(CompositionGeneratorSettings settings) {
+		double dMassThreshold = (settings.getThresholdMass() >= 0) ? settings.getThresholdMass() : Double.MAX_VALUE;
+		return generateCompositions(settings.createMinComposition(), settings.createMaxComposition(), dMassThreshold,
+				settings.getConstraints());
+	}
+
+	/**
+	 * Generates the residue counts of the compositions generated by
+	 * {@link #generateCompositions(Composition, Composition, double)} in the same
+	 * order, without creating the compositions. The counts of each composition
+	 * are stored in a row of the returned array in the order of the given residue
+	 * types.
+	 * 
+	 * @param minComposition Composition with a minimum residue set ({@code null}
+	 *                       if no minimum)
+	 * @param maxComposition Composition with a maximum residue set
+	 * @param dMassThreshold double value of mass threshold
+	 * @param lRess          List of the residue types of the counts, containing all
+	 *                       the residue types of the minimum and maximum
+	 *                       compositions
+	 * @return Array of the residue counts of all the compositions
+	 */
+	public static int[] generateCompositionCounts(Composition minComposition, Composition maxComposition,
+			double dMassThreshold, List<ResidueType> lRess) {
+		if (maxComposition == null || maxComposition.isEmpty())
+			return new int[0];
+		boolean hasMin = (minComposition != null && !minComposition.isEmpty());
+		if (hasMin && minComposition.computeMass() > dMassThreshold)
+			return new int[0];
+
+		SubstructureWalk walk = createCompositionWalk(minComposition, maxComposition, dMassThreshold,
+				new ArrayList<ICompositionConstraint>());
+		CountCollector collector = new CountCollector(walk.m_lRess, lRess);
+		walk.walkCompositions(collector);
+		if (hasMin) {
+			int[] aMinCounts = new int[walk.m_lRess.size()];
+			for (int i = 0; i < aMinCounts.length; i++)
+				aMinCounts[i] = Math.max(0, minComposition.getNumberOfResidue(walk.m_lRess.get(i)));
+			collector.visit(aMinCounts);
+		}
+		return collector.getCounts();
+	}
+
+	/**
+	 * Creates the walk of the substructures of the residues between the min and
+	 * max compositions, with the residues in min composition.
+	 */
+	private static SubstructureWalk createCompositionWalk(Composition minComposition, Composition maxComposition,
+			double dMassThreshold, List<ICompositionConstraint> lConstraints) {
+		Composition compositionMax = maxComposition.copy();
+		if (minComposition != null && !minComposition.isEmpty()) {
+			compositionMax.setMassOptions(minComposition.isMonoisotopicMass(),
+					minComposition.getPerderivatizationType());
+			// Reduce residues in min composition from max composition.
+			for (ResidueType res : compositionMax.getResidueTypes()) {
+				int count = minComposition.getNumberOfResidue(res);
+				if (count == -1)
+					continue;
+				compositionMax.addResidues(res, -count);
+			}
+		}
+
+		SubstructureWalk walk = new SubstructureWalk(compositionMax,
+				(minComposition != null && !minComposition.isEmpty()) ? minComposition : null);
+		walk.setMassThreshold(dMassThreshold);
+		walk.setConstraints(lConstraints);
+		return walk;
+	}
+
+	private static boolean isSatisfied(Composition composition, List<ICompositionConstraint> lConstraints) {
+		for (ICompositionConstraint constraint : lConstraints) {
+			if (!constraint.isSatisfied(composition))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reference implementation of
+	 * {@link #generateCompositions(Composition, Composition, double)} based on
+	 * {@link #generateSubstructuresRecursive(Composition)}, kept for equivalence
+	 * tests.<br>
+	 * Generates compositions which are substructures of the {@code maxComposition}
+	 * and superstructures of {@code minComposition}. (For the correct calculation,
+	 * the {@code minComposition} must be a substructure of {@code maxComposition}.)
+	 * The resulting compositions are filtered with the given mass threshold value.
+	 * The mass options of all generating compositions will be reset with the ones
+	 * of minComposition.
+	 * 
+	 * @param minComposition Composition with a minimum residue set. This will be
+	 *                       the smallest composition in the result. ({@code null}
+	 *                       if no minimum)
+	 * @param maxComposition Composition with a maximum residue set. This will be
+	 *                       the biggest composition in the result.
+	 * @param dMassThreshold double value of mass threshold
+	 * @return List of Compositions based on the given maximum and minimum residue
+	 *         set
+	 * @see #generateCompositions(Composition, Composition, double)
+	 */
+	public static List<Composition> generateCompositionsRecursive(Composition minComposition,
+			Composition maxComposition, double dMassThreshold) {
 		if (maxComposition == null || maxComposition.isEmpty())
 			return new ArrayList<>();
 
@@ -210,7 +486,7 @@ public class CompositionUtils {
 		}
 
 		// Generate substructures
-		List<Composition> lCompositions = generateSubstructures(compositionMax);
+		List<Composition> lCompositions = generateSubstructuresRecursive(compositionMax);
 		lCompositions.add(compositionMax);
 
 		// Add residues in min composition to each generated substructure
@@ -220,23 +496,575 @@ public class CompositionUtils {
 				for (Composition sub : lCompositions)
 					sub.addResidues(res, count);
 			}
-			lCompositions.add(minComposition.copy());
 		}
 
-		// Filter out with mass
+		// Filter out with mass using residue mass increments
+		Set<ResidueType> setRess = new TreeSet<>(compositionMax.getResidueTypes());
+		if (minComposition != null)
+			setRess.addAll(minComposition.getResidueTypes());
+		ResidueMassIncrements massIncrements = ResidueMassIncrements.forComposition(new ArrayList<>(setRess),
+				compositionMax);
 		List<Composition> lFilteredCompositions = new ArrayList<>();
 		for (Composition composition : lCompositions) {
-			if (composition.computeMass() > dMassThreshold)
+			if (massIncrements.computeMass(composition) > dMassThreshold)
 				continue;
 			lFilteredCompositions.add(composition);
 		}
+		// The min composition itself does not exceed the threshold
+		if (minComposition != null && !minComposition.isEmpty())
+			lFilteredCompositions.add(minComposition.copy());
 
 		return lFilteredCompositions;
 	}
 
+	/**
+	 * Finds compositions generated by
+	 * {@link #generateCompositions(Composition, Composition, double)} whose mass
+	 * is within the given tolerance of the target mass. The residue counts are
+	 * searched with a branch-and-bound over the mass increments of residues, so
+	 * the compositions which can never match the target are not enumerated.
+	 *
+	 * @param minComposition Composition with a minimum residue set ({@code null}
+	 *                       if no minimum)
+	 * @param maxComposition Composition with a maximum residue set
+	 * @param dTargetMass    double value of the target mass
+	 * @param dTolerancePPM  double value of the mass tolerance in ppm
+	 * @return List of Compositions matching the target mass
+	 */
+	public static List<Composition> findCompositions(Composition minComposition, Composition maxComposition,
+			double dTargetMass, double dTolerancePPM) {
+		return findCompositions(minComposition, maxComposition, new double[] { dTargetMass }, dTolerancePPM);
+	}
+
+	/**
+	 * Finds compositions generated by
+	 * {@link #generateCompositions(Composition, Composition, double)} whose mass
+	 * is within the given tolerance of any of the target masses.
+	 *
+	 * @param minComposition Composition with a minimum residue set ({@code null}
+	 *                       if no minimum)
+	 * @param maxComposition Composition with a maximum residue set
+	 * @param aTargetMasses  array of target masses
+	 * @param dTolerancePPM  double value of the mass tolerance in ppm
+	 * @return List of Compositions matching any of the target masses
+	 * @see #findCompositions(Composition, Composition, double, double)
+	 */
+	public static List<Composition> findCompositions(Composition minComposition, Composition maxComposition,
+			double[] aTargetMasses, double dTolerancePPM) {
+		List<Composition> lCompositions = new ArrayList<>();
+		if (maxComposition == null || maxComposition.isEmpty() || aTargetMasses.length == 0)
+			return lCompositions;
+
+		// Mass windows sorted by the target mass
+		double[] aTargets = aTargetMasses.clone();
+		Arrays.sort(aTargets);
+		double[] aLowerMasses = new double[aTargets.length];
+		double[] aUpperMasses = new double[aTargets.length];
+		for (int i = 0; i < aTargets.length; i++) {
+			double dTolerance = Math.abs(aTargets[i]) * dTolerancePPM / 1000000d;
+			aLowerMasses[i] = aTargets[i] - dTolerance;
+			aUpperMasses[i] = aTargets[i] + dTolerance;
+		}
+
+		CompositionSearch search = new CompositionSearch(minComposition, maxComposition, aLowerMasses,
+				aUpperMasses);
+		search.search(0, 0d, 0, lCompositions);
+		return lCompositions;
+	}
+
+	/**
+	 * Class for the branch-and-bound search of residue counts matching mass
+	 * windows.
+	 */
+	private static class CompositionSearch {
+		private Composition m_compOptions;
+		private SubstituentType m_redEnd;
+		private boolean m_bHasMin;
+		private ResidueMassIncrements m_massIncrements;
+		private int[] m_aOrder;
+		private int[] m_aMinCounts;
+		private int[] m_aMaxCounts;
+		private int[] m_aCounts;
+		private double[] m_aRestLowerMasses;
+		private double[] m_aRestUpperMasses;
+		private double[] m_aLowerMasses;
+		private double[] m_aUpperMasses;
+
+		private CompositionSearch(Composition minComposition, Composition maxComposition, double[] aLowerMasses,
+				double[] aUpperMasses) {
+			this.m_bHasMin = (minComposition != null && !minComposition.isEmpty());
+			this.m_compOptions = (this.m_bHasMin) ? minComposition : maxComposition;
+			this.m_redEnd = maxComposition.getReducingEnd();
+			this.m_aLowerMasses = aLowerMasses;
+			this.m_aUpperMasses = aUpperMasses;
+
+			Set<ResidueType> setRess = new TreeSet<>(maxComposition.getResidueTypes());
+			if (this.m_bHasMin)
+				setRess.addAll(minComposition.getResidueTypes());
+			List<ResidueType> lRess = new ArrayList<>(setRess);
+			this.m_massIncrements = new ResidueMassIncrements(lRess, this.m_compOptions.isMonoisotopicMass(),
+					this.m_compOptions.getPerderivatizationType(), this.m_redEnd);
+
+			int nRess = lRess.size();
+			this.m_aMinCounts = new int[nRess];
+			this.m_aMaxCounts = new int[nRess];
+			this.m_aCounts = new int[nRess];
+			for (int i = 0; i < nRess; i++) {
+				ResidueType res = lRess.get(i);
+				int nMin = (this.m_bHasMin) ? Math.max(0, minComposition.getNumberOfResidue(res)) : 0;
+				int nMax = maxComposition.getNumberOfResidue(res);
+				this.m_aMinCounts[i] = nMin;
+				// Residues only in the min composition are fixed
+				this.m_aMaxCounts[i] = (nMax < 0) ? nMin : nMax;
+			}
+
+			// Search residues with larger increments first to prune earlier
+			List<Integer> lOrder = new ArrayList<>();
+			for (int i = 0; i < nRess; i++)
+				lOrder.add(i);
+			Collections.sort(lOrder, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Double.compare(Math.abs(m_massIncrements.getIncrement(o2)),
+							Math.abs(m_massIncrements.getIncrement(o1)));
+				}
+			});
+			this.m_aOrder = new int[nRess];
+			for (int i = 0; i < nRess; i++)
+				this.m_aOrder[i] = lOrder.get(i);
+
+			// Bounds of increments added by the residues after each search depth
+			this.m_aRestLowerMasses = new double[nRess + 1];
+			this.m_aRestUpperMasses = new double[nRess + 1];
+			for (int i = nRess - 1; i >= 0; i--) {
+				int iRes = this.m_aOrder[i];
+				double dMin = this.m_aMinCounts[iRes] * this.m_massIncrements.getIncrement(iRes);
+				double dMax = this.m_aMaxCounts[iRes] * this.m_massIncrements.getIncrement(iRes);
+				this.m_aRestLowerMasses[i] = this.m_aRestLowerMasses[i + 1] + Math.min(dMin, dMax);
+				this.m_aRestUpperMasses[i] = this.m_aRestUpperMasses[i + 1] + Math.max(dMin, dMax);
+			}
+		}
+
+		private void search(int iDepth, double dIncrements, int nLinkageUnits, List<Composition> lCompositions) {
+			if (iDepth == this.m_aOrder.length) {
+				double dMass = this.m_massIncrements.computeMass(dIncrements, nLinkageUnits);
+				if (!isInWindows(dMass, dMass) || !isGenerated())
+					return;
+				lCompositions.add(createComposition());
+				return;
+			}
+			// Skip the subtree if no window can be reached
+			double dBase = this.m_massIncrements.getBaseMass() + dIncrements;
+			if (!isInWindows(dBase + this.m_aRestLowerMasses[iDepth], dBase + this.m_aRestUpperMasses[iDepth]))
+				return;
+
+			int iRes = this.m_aOrder[iDepth];
+			double dIncrement = this.m_massIncrements.getIncrement(iRes);
+			int nLinkageUnit = this.m_massIncrements.getLinkageUnit(iRes);
+			for (int n = this.m_aMinCounts[iRes]; n <= this.m_aMaxCounts[iRes]; n++) {
+				this.m_aCounts[iRes] = n;
+				search(iDepth + 1, dIncrements + n * dIncrement, nLinkageUnits + n * nLinkageUnit, lCompositions);
+			}
+		}
+
+		/**
+		 * Returns {@code true} if the given mass range intersects any of the windows.
+		 */
+		private boolean isInWindows(double dLower, double dUpper) {
+			// Find the first window whose upper mass is not lower than the range
+			int iLow = 0;
+			int iHigh = this.m_aUpperMasses.length;
+			while (iLow < iHigh) {
+				int iMid = (iLow + iHigh) >>> 1;
+				if (this.m_aUpperMasses[iMid] < dLower)
+					iLow = iMid + 1;
+				else
+					iHigh = iMid;
+			}
+			return (iLow < this.m_aLowerMasses.length && this.m_aLowerMasses[iLow] <= dUpper);
+		}
+
+		/**
+		 * Returns {@code true} if the current counts are generated by
+		 * {@link CompositionUtils#generateCompositions(Composition, Composition, double)},
+		 * i.e. the residues added to the min composition are the whole residues
+		 * between the min and max compositions, none of them (only with the min
+		 * composition unless excluded), or a valid substructure of them.
+		 */
+		private boolean isGenerated() {
+			boolean bIsAll = true;
+			boolean bIsNone = true;
+			for (int i = 0; i < this.m_aCounts.length; i++) {
+				if (this.m_aCounts[i] != this.m_aMaxCounts[i])
+					bIsAll = false;
+				if (this.m_aCounts[i] != this.m_aMinCounts[i])
+					bIsNone = false;
+			}
+			if (bIsAll)
+				return true;
+			if (bIsNone)
+				return this.m_bHasMin;
+			// Both the added residues and all the residues between the min and max must be valid
+			return isValidDifference(this.m_aCounts) && isValidDifference(this.m_aMaxCounts);
+		}
+
+		private boolean isValidDifference(int[] aCounts) {
+			List<ResidueType> lRess = this.m_massIncrements.getResidueTypes();
+			int nMonosaccharides = 0;
+			int nRess = 0;
+			int nLinks = 0;
+			for (int i = 0; i < aCounts.length; i++) {
+				int n = aCounts[i] - this.m_aMinCounts[i];
+				ResidueType res = lRess.get(i);
+				if (res instanceof MonosaccharideType)
+					nMonosaccharides += n;
+				nRess += n;
+				nLinks += n * res.getMaxLinkages();
+			}
+			if (nMonosaccharides == 0)
+				return false;
+			if (this.m_redEnd != null) {
+				nRess++;
+				nLinks += this.m_redEnd.getMaxLinkages();
+			}
+			if (nRess > 1)
+				nLinks -= nRess - 1;
+			return (nLinks >= 0);
+		}
+
+		private Composition createComposition() {
+			Composition composition = new Composition();
+			composition.setMassOptions(this.m_compOptions.isMonoisotopicMass(),
+					this.m_compOptions.getPerderivatizationType());
+			composition.setReducingEnd(this.m_redEnd);
+			List<ResidueType> lRess = this.m_massIncrements.getResidueTypes();
+			for (int i = 0; i < this.m_aCounts.length; i++) {
+				if (this.m_aCounts[i] == 0)
+					continue;
+				composition.addResidues(lRess.get(i), this.m_aCounts[i]);
+			}
+			return composition;
+		}
+	}
+
+	/**
+	 * Interface receiving the residue counts visited by a SubstructureWalk, in
+	 * the order of the residue types of the walk. The array is reused by the walk.
+	 */
+	private interface CountVisitor {
+		void visit(int[] aCounts);
+	}
+
+	/**
+	 * CountVisitor storing the residue counts in a growing array, in the order
+	 * of the given residue types.
+	 */
+	private static class CountCollector implements CountVisitor {
+		private int[] m_aIndices;
+		private int m_nResidues;
+		private int[] m_aCounts;
+		private int m_nSize;
+
+		private CountCollector(List<ResidueType> lWalkRess, List<ResidueType> lRess) {
+			this.m_aIndices = new int[lWalkRess.size()];
+			for (int i = 0; i < this.m_aIndices.length; i++) {
+				this.m_aIndices[i] = lRess.indexOf(lWalkRess.get(i));
+				if (this.m_aIndices[i] < 0)
+					throw new IllegalArgumentException("No residue type for the counts: " + lWalkRess.get(i));
+			}
+			this.m_nResidues = lRess.size();
+			this.m_aCounts = new int[Math.max(this.m_nResidues, 1) * 1024];
+			this.m_nSize = 0;
+		}
+
+		@Override
+		public void visit(int[] aCounts) {
+			if (this.m_nSize + this.m_nResidues > this.m_aCounts.length) {
+				if (this.m_aCounts.length > Integer.MAX_VALUE / 2)
+					throw new IllegalStateException("Too many compositions: " + this.m_nSize / this.m_nResidues);
+				this.m_aCounts = Arrays.copyOf(this.m_aCounts, this.m_aCounts.length * 2);
+			}
+			for (int i = 0; i < aCounts.length; i++)
+				this.m_aCounts[this.m_nSize + this.m_aIndices[i]] = aCounts[i];
+			this.m_nSize += this.m_nResidues;
+		}
+
+		private int[] getCounts() {
+			return Arrays.copyOf(this.m_aCounts, this.m_nSize);
+		}
+	}
+
+	/**
+	 * Class for the depth-first walk of the substructures over the residue
+	 * counts. Each valid substructure is visited once in the order of
+	 * {@link CompositionUtils#generateSubstructuresRecursive(Composition)}. The
+	 * residues of an offset composition can be added to all the substructures,
+	 * and the substructures are filtered with the mass threshold and constraints
+	 * before creating the compositions.
+	 */
+	private static class SubstructureWalk {
+		private Composition m_compOptions;
+		private SubstituentType m_redEnd;
+		// Residue types of the resulting compositions and their current counts
+		private List<ResidueType> m_lRess;
+		private int[] m_aCounts;
+		// Properties of the removable residues, i.e. the residues of the walked composition
+		private int[] m_aResIndices;
+		private int[] m_aRemovableCounts;
+		private int[] m_aLinkages;
+		private boolean[] m_aIsMonosaccharide;
+		// Weights of the removable residues for the index of counts in the box
+		private long[] m_aWeights;
+		private long m_nWeight;
+		private ResidueMassIncrements m_massIncrements;
+		private double m_dMassThreshold;
+		private List<ICountConstraint> m_lConstraints;
+
+		/**
+		 * @param composition Composition whose substructures are walked, having the
+		 *                    mass options and reducing end of the results
+		 * @param compOffset  Composition whose residues are added to all the
+		 *                    results ({@code null} if no offset)
+		 */
+		private SubstructureWalk(Composition composition, Composition compOffset) {
+			this.m_compOptions = composition;
+			this.m_redEnd = composition.getReducingEnd();
+			Set<ResidueType> setRess = new TreeSet<>(composition.getResidueTypes());
+			if (compOffset != null)
+				setRess.addAll(compOffset.getResidueTypes());
+			this.m_lRess = new ArrayList<>(setRess);
+			this.m_aCounts = new int[this.m_lRess.size()];
+			List<Integer> lRemovables = new ArrayList<>();
+			for (int i = 0; i < this.m_aCounts.length; i++) {
+				ResidueType res = this.m_lRess.get(i);
+				int n = composition.getNumberOfResidue(res);
+				if (n > 0)
+					lRemovables.add(i);
+				this.m_aCounts[i] = Math.max(0, n);
+				if (compOffset != null)
+					this.m_aCounts[i] += Math.max(0, compOffset.getNumberOfResidue(res));
+			}
+
+			int nRemovables = lRemovables.size();
+			this.m_aResIndices = new int[nRemovables];
+			this.m_aRemovableCounts = new int[nRemovables];
+			this.m_aLinkages = new int[nRemovables];
+			this.m_aIsMonosaccharide = new boolean[nRemovables];
+			this.m_aWeights = new long[nRemovables];
+			this.m_nWeight = 1;
+			for (int j = 0; j < nRemovables; j++) {
+				int i = lRemovables.get(j);
+				ResidueType res = this.m_lRess.get(i);
+				this.m_aResIndices[j] = i;
+				this.m_aRemovableCounts[j] = composition.getNumberOfResidue(res);
+				this.m_aLinkages[j] = res.getMaxLinkages();
+				this.m_aIsMonosaccharide[j] = (res instanceof MonosaccharideType);
+				this.m_aWeights[j] = this.m_nWeight;
+				this.m_nWeight = Math.multiplyExact(this.m_nWeight, this.m_aRemovableCounts[j] + 1);
+			}
+			this.m_massIncrements = null;
+			this.m_dMassThreshold = Double.MAX_VALUE;
+			this.m_lConstraints = new ArrayList<>();
+		}
+
+		private void setMassThreshold(double dMassThreshold) {
+			this.m_massIncrements = ResidueMassIncrements.forComposition(this.m_lRess, this.m_compOptions);
+			this.m_dMassThreshold = dMassThreshold;
+		}
+
+		private void setConstraints(List<ICompositionConstraint> lConstraints) {
+			this.m_lConstraints.clear();
+			for (ICompositionConstraint constraint : lConstraints)
+				this.m_lConstraints.add(constraint.createCountConstraint(this.m_lRess));
+		}
+
+		/**
+		 * Visits the substructures passing the filters followed by the walked
+		 * composition itself, which is visited if it passes the filters even if it
+		 * is not a valid structure.
+		 */
+		private void walkCompositions(CountVisitor visitor) {
+			if (this.m_compOptions.isValidStructure())
+				walk(visitor);
+			visitCurrent(visitor);
+		}
+
+		/**
+		 * Visits the substructures passing the filters. The composition itself is
+		 * not visited.
+		 */
+		private void walk(CountVisitor visitor) {
+			int nRemovables = this.m_aResIndices.length;
+			int[] aCounts = this.m_aRemovableCounts;
+			int nMonosaccharides = 0;
+			int nResidues = 0;
+			int nLinkages = 0;
+			for (int j = 0; j < nRemovables; j++) {
+				if (this.m_aIsMonosaccharide[j])
+					nMonosaccharides += aCounts[j];
+				nResidues += aCounts[j];
+				nLinkages += aCounts[j] * this.m_aLinkages[j];
+			}
+			// The reducing end is counted as a residue
+			int nRedEndResidues = (this.m_redEnd == null) ? 0 : 1;
+			int nRedEndLinkages = (this.m_redEnd == null) ? 0 : this.m_redEnd.getMaxLinkages();
+
+			// Removed residue and the next residue to be removed for each depth
+			int[] aRemoved = new int[nResidues + 1];
+			int[] aNext = new int[nResidues + 1];
+			Set<Long> setVisited = new HashSet<>();
+			long iIndex = this.m_nWeight - 1;
+			int iDepth = 0;
+			while (true) {
+				int j = aNext[iDepth];
+				if (j == nRemovables) {
+					// Back to the parent counts
+					if (iDepth == 0)
+						break;
+					iDepth--;
+					int jRes = aRemoved[iDepth];
+					aCounts[jRes]++;
+					this.m_aCounts[this.m_aResIndices[jRes]]++;
+					iIndex += this.m_aWeights[jRes];
+					nResidues++;
+					nLinkages += this.m_aLinkages[jRes];
+					if (this.m_aIsMonosaccharide[jRes])
+						nMonosaccharides++;
+					continue;
+				}
+				aNext[iDepth] = j + 1;
+				if (aCounts[j] == 0)
+					continue;
+
+				int nAllResidues = nResidues - 1 + nRedEndResidues;
+				int nFreeLinkages = nLinkages - this.m_aLinkages[j] + nRedEndLinkages;
+				if (nAllResidues > 1)
+					nFreeLinkages -= nAllResidues - 1;
+				if (nMonosaccharides - (this.m_aIsMonosaccharide[j] ? 1 : 0) == 0 || nFreeLinkages < 0)
+					continue;
+				if (!setVisited.add(iIndex - this.m_aWeights[j]))
+					continue;
+
+				// Remove the residue and walk the substructures of the result
+				aCounts[j]--;
+				this.m_aCounts[this.m_aResIndices[j]]--;
+				iIndex -= this.m_aWeights[j];
+				nResidues--;
+				nLinkages -= this.m_aLinkages[j];
+				if (this.m_aIsMonosaccharide[j])
+					nMonosaccharides--;
+				aRemoved[iDepth] = j;
+				iDepth++;
+				aNext[iDepth] = 0;
+
+				visitCurrent(visitor);
+			}
+		}
+
+		/**
+		 * Visits the current counts if they pass the mass threshold and
+		 * constraints.
+		 */
+		private void visitCurrent(CountVisitor visitor) {
+			if (this.m_massIncrements != null
+					&& this.m_massIncrements.computeMass(this.m_aCounts) > this.m_dMassThreshold)
+				return;
+			for (ICountConstraint constraint : this.m_lConstraints) {
+				if (!constraint.isSatisfied(this.m_aCounts))
+					return;
+			}
+			visitor.visit(this.m_aCounts);
+		}
+
+		/**
+		 * CountVisitor adding the compositions of the counts to a list. The
+		 * compositions have the mass options and reducing end of the walked
+		 * composition.
+		 */
+		private class CompositionCollector implements CountVisitor {
+			private List<Composition> m_lCompositions;
+
+			private CompositionCollector(List<Composition> lCompositions) {
+				this.m_lCompositions = lCompositions;
+			}
+
+			@Override
+			public void visit(int[] aCounts) {
+				Composition composition = new Composition();
+				composition.setMassOptions(m_compOptions.isMonoisotopicMass(), m_compOptions.getPerderivatizationType());
+				composition.setReducingEnd(m_redEnd);
+				for (int i = 0; i < aCounts.length; i++) {
+					if (aCounts[i] == 0)
+						continue;
+					composition.addResidues(m_lRess.get(i), aCounts[i]);
+				}
+				this.m_lCompositions.add(composition);
+			}
+		}
+	}
+
+	/**
+	 * Generates possible substructures of the given Composition including the
+	 * ones without the reducing end.
+	 * 
+	 * @param composition Composition to be subsumed
+	 * @return List of substructures
+	 * @see #generateSubstructures(Composition)
+	 */
 	public static List<Composition> generateSubstructuresForReducingEnd(Composition composition) {
+		Set<Composition> setSubstructures = new LinkedHashSet<>();
+		setSubstructures.addAll(generateSubstructures(composition));
+
+		// Reducing end
+		if (composition.getReducingEnd() == null)
+			return new ArrayList<>(setSubstructures);
+
+		Composition substructure = composition.copy();
+		substructure.setReducingEnd(null);
+		if (!substructure.isValidStructure())
+			return new ArrayList<>(setSubstructures);
+
+		setSubstructures.add(substructure);
+		setSubstructures.addAll(generateSubstructures(substructure));
+		return new ArrayList<>(setSubstructures);
+	}
+
+	/**
+	 * Generates possible substructures of the given Composition, i.e. the valid
+	 * compositions (see {@link Composition#isValidStructure()}) having the same
+	 * reducing end and fewer residues, which are reachable by removing residues
+	 * one by one through valid compositions.<br>
+	 * The residue counts are walked depth-first with the visited counts held in
+	 * a hash set, so each substructure is visited once and the substructures are
+	 * in the same order as {@link #generateSubstructuresRecursive(Composition)}.
+	 * <br>
+	 * Composition fragments are delegated to
+	 * {@link #generateSubstructuresRecursive(Composition)}.
+	 * 
+	 * @param composition Composition to be subsumed
+	 * @return List of substructures
+	 */
+	public static List<Composition> generateSubstructures(Composition composition) {
+		if (composition instanceof CompositionFragment)
+			return generateSubstructuresRecursive(composition);
+
 		List<Composition> lSubstructures = new ArrayList<>();
-		lSubstructures.addAll(generateSubstructures(composition));
+		if (!composition.isValidStructure())
+			return lSubstructures;
+
+		SubstructureWalk walk = new SubstructureWalk(composition, null);
+		walk.walk(walk.new CompositionCollector(lSubstructures));
+		return lSubstructures;
+	}
+
+	/**
+	 * Reference implementation of
+	 * {@link #generateSubstructuresForReducingEnd(Composition)}, kept for
+	 * equivalence tests.
+	 */
+	public static List<Composition> generateSubstructuresForReducingEndRecursive(Composition composition) {
+		List<Composition> lSubstructures = new ArrayList<>();
+		lSubstructures.addAll(generateSubstructuresRecursive(composition));
 
 		// Reducing end
 		if (composition.getReducingEnd() == null)
@@ -248,7 +1076,7 @@ public class CompositionUtils {
 			return lSubstructures;
 
 		lSubstructures.add(substructure);
-		for (Composition subsub : generateSubstructures(substructure)) {
+		for (Composition subsub : generateSubstructuresRecursive(substructure)) {
 			if (lSubstructures.contains(subsub))
 				continue;
 			lSubstructures.add(subsub);
@@ -257,6 +1085,9 @@ public class CompositionUtils {
 	}
 
 	/**
+	 * Reference implementation of {@link #generateSubstructures(Composition)}
+	 * removing one residue at a time, kept for equivalence tests and used for
+	 * composition fragments.<br>
 	 * Generates possible substructures of the given Composition. The substructures
 	 * exceeding the given mass are discarded.<br>
 	 * Note: The given composition must contain the desired mass options
@@ -267,7 +1098,7 @@ public class CompositionUtils {
 	 * @param dMassThreshold double value of mass threshold
 	 * @return List of substructures
 	 */
-	public static List<Composition> generateSubstructures(Composition composition) {
+	public static List<Composition> generateSubstructuresRecursive(Composition composition) {
 		List<Composition> lSubstructures = new ArrayList<>();
 
 		if (!composition.isValidStructure())
@@ -281,7 +1112,7 @@ public class CompositionUtils {
 				continue;
 			// Only allow to add substructure with smaller mass than threshold
 			lSubstructures.add(substructure);
-			for (Composition subsub : generateSubstructures(substructure)) {
+			for (Composition subsub : generateSubstructuresRecursive(substructure)) {
 				if (lSubstructures.contains(subsub))
 					continue;
 				lSubstructures.add(subsub);
@@ -290,16 +1121,20 @@ public class CompositionUtils {
 		return lSubstructures;
 	}
 
+	/**
+	 * Sorts the compositions by the fixed-point masses (see
+	 * {@link Composition#computeFixedMass()}), so the compositions having the same
+	 * mass keep their order regardless of the rounding errors of the masses.
+	 *
+	 * @param lCompositions List of compositions to be sorted
+	 * @param isAscending   {@code true} for ascending order
+	 */
 	public static void sortCompositionsByMass(List<Composition> lCompositions, final boolean isAscending) {
 		Collections.sort(lCompositions, new Comparator<Composition>() {
 			@Override
 			public int compare(Composition o1, Composition o2) {
-				double def = o1.computeMass() - o2.computeMass();
-				if (def < 0)
-					return (isAscending) ? -1 : 1;
-				if (def > 0)
-					return (isAscending) ? 1 : -1;
-				return 0;
+				int iComp = Long.compare(o1.computeFixedMass(), o2.computeFixedMass());
+				return (isAscending) ? iComp : -iComp;
 			}
 		});
 	}
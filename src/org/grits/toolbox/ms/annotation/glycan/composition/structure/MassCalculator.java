@@ -0,0 +1,171 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.structure;
+
+/**
+ * Utility class computing the masses of many residue count vectors at once.
+ * The mass of each vector is the base mass plus the dot product of the counts
+ * and the residue coefficients of {@link MassOptions}, which is the same
+ * calculation as {@link ResidueMassIncrements#computeMass(int[])} without
+ * creating any composition. The counts are read from a flat primitive buffer
+ * in a simple indexed loop so that the JIT can unroll and vectorize it.<br>
+ * The masses can also be computed in fixed-point {@code long} units of
+ * {@link #UNITS_PER_DALTON}. Each mass contribution is rounded to the units
+ * before being added up, so the same composition always has the same
+ * fixed-point mass regardless of the order of the additions, and the masses can
+ * be sorted and compared exactly.
+ */
+public class MassCalculator {
+
+	/**
+	 * The number of fixed-point mass units in one dalton (nanodalton units).
+	 */
+	public static final long UNITS_PER_DALTON = 1000000000L;
+
+	private MassCalculator() {
+	}
+
+	/**
+	 * Converts a mass to fixed-point units.
+	 *
+	 * @param dMass double value of a mass in daltons
+	 * @return the mass in units of {@link #UNITS_PER_DALTON}, rounded to the
+	 *         nearest unit
+	 */
+	public static long toFixedMass(double dMass) {
+		return Math.round(dMass * UNITS_PER_DALTON);
+	}
+
+	/**
+	 * Converts a fixed-point mass to daltons.
+	 *
+	 * @param lMass the mass in units of {@link #UNITS_PER_DALTON}
+	 * @return double value of the mass in daltons
+	 */
+	public static double toMass(long lMass) {
+		return (double) lMass / UNITS_PER_DALTON;
+	}
+
+	/**
+	 * Computes the masses of the residue count vectors.
+	 *
+	 * @param aCounts Array of residue count vectors in the order of the residue
+	 *                types of the options
+	 * @param options MassOptions of the counts
+	 * @return Array of the masses
+	 */
+	public static double[] computeMasses(int[][] aCounts, MassOptions options) {
+		double[] aMasses = new double[aCounts.length];
+		for (int i = 0; i < aCounts.length; i++) {
+			if (aCounts[i].length != options.getNumberOfResidueTypes())
+				throw new IllegalArgumentException("The number of counts must be the number of residue types: " + i);
+			computeMasses(aCounts[i], 0, 1, options, aMasses, i);
+		}
+		return aMasses;
+	}
+
+	/**
+	 * Computes the masses of the residue count vectors stored one after another
+	 * in the given array.
+	 *
+	 * @param aFlatCounts Array of residue counts, the count of the j-th residue
+	 *                    type of the i-th vector is at {@code i * n + j} where n
+	 *                    is the number of residue types of the options
+	 * @param options     MassOptions of the counts
+	 * @return Array of the masses
+	 */
+	public static double[] computeMasses(int[] aFlatCounts, MassOptions options) {
+		int nRess = options.getNumberOfResidueTypes();
+		if (nRess == 0)
+			throw new IllegalArgumentException("No residue type is specified.");
+		if (aFlatCounts.length % nRess != 0)
+			throw new IllegalArgumentException("The length of counts must be a multiple of the number of residue types.");
+		int nRecords = aFlatCounts.length / nRess;
+		double[] aMasses = new double[nRecords];
+		computeMasses(aFlatCounts, 0, nRecords, options, aMasses, 0);
+		return aMasses;
+	}
+
+	/**
+	 * Computes the masses of the residue count vectors into the given array.
+	 *
+	 * @param aFlatCounts Array of residue counts stored one vector after another
+	 * @param iOffset     the index of the first count in aFlatCounts
+	 * @param nRecords    the number of vectors to be computed
+	 * @param options     MassOptions of the counts
+	 * @param aMasses     Array to be set the masses
+	 * @param iMassOffset the index of the first mass in aMasses
+	 */
+	public static void computeMasses(int[] aFlatCounts, int iOffset, int nRecords, MassOptions options,
+			double[] aMasses, int iMassOffset) {
+		double[] aCoefficients = options.getCoefficients();
+		int[] aLinkageUnits = options.getLinkageUnits();
+		int nRess = aCoefficients.length;
+		double dBase = options.getBaseMass();
+		boolean bHasRedEnd = options.hasReducingEnd();
+		int iCount = iOffset;
+		for (int i = 0; i < nRecords; i++) {
+			double dIncrements = 0d;
+			int nLinkageUnits = 0;
+			for (int j = 0; j < nRess; j++) {
+				int n = aFlatCounts[iCount + j];
+				dIncrements += n * aCoefficients[j];
+				nLinkageUnits += n * aLinkageUnits[j];
+			}
+			iCount += nRess;
+			// An empty composition without reducing end has no mass
+			aMasses[iMassOffset + i] = (nLinkageUnits == 0 && !bHasRedEnd) ? 0d : dBase + dIncrements;
+		}
+	}
+
+	/**
+	 * Computes the fixed-point masses of the residue count vectors stored one
+	 * after another in the given array.
+	 *
+	 * @param aFlatCounts Array of residue counts stored one vector after another
+	 * @param options     MassOptions of the counts
+	 * @return Array of the fixed-point masses
+	 * @see #computeMasses(int[], MassOptions)
+	 */
+	public static long[] computeFixedMasses(int[] aFlatCounts, MassOptions options) {
+		int nRess = options.getNumberOfResidueTypes();
+		if (nRess == 0)
+			throw new IllegalArgumentException("No residue type is specified.");
+		if (aFlatCounts.length % nRess != 0)
+			throw new IllegalArgumentException("The length of counts must be a multiple of the number of residue types.");
+		int nRecords = aFlatCounts.length / nRess;
+		long[] aMasses = new long[nRecords];
+		computeFixedMasses(aFlatCounts, 0, nRecords, options, aMasses, 0);
+		return aMasses;
+	}
+
+	/**
+	 * Computes the fixed-point masses of the residue count vectors into the given
+	 * array.
+	 *
+	 * @param aFlatCounts Array of residue counts stored one vector after another
+	 * @param iOffset     the index of the first count in aFlatCounts
+	 * @param nRecords    the number of vectors to be computed
+	 * @param options     MassOptions of the counts
+	 * @param aMasses     Array to be set the fixed-point masses
+	 * @param iMassOffset the index of the first mass in aMasses
+	 */
+	public static void computeFixedMasses(int[] aFlatCounts, int iOffset, int nRecords, MassOptions options,
+			long[] aMasses, int iMassOffset) {
+		long[] aCoefficients = options.getFixedCoefficients();
+		int[] aLinkageUnits = options.getLinkageUnits();
+		int nRess = aCoefficients.length;
+		long lBase = options.getFixedBaseMass();
+		boolean bHasRedEnd = options.hasReducingEnd();
+		int iCount = iOffset;
+		for (int i = 0; i < nRecords; i++) {
+			long lIncrements = 0L;
+			int nLinkageUnits = 0;
+			for (int j = 0; j < nRess; j++) {
+				int n = aFlatCounts[iCount + j];
+				lIncrements += n * aCoefficients[j];
+				nLinkageUnits += n * aLinkageUnits[j];
+			}
+			iCount += nRess;
+			aMasses[iMassOffset + i] = (nLinkageUnits == 0 && !bHasRedEnd) ? 0L : lBase + lIncrements;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.structure;
+
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
+
+/**
+ * Class for the mass options of residue count vectors computed by
+ * {@link MassCalculator}: the residue types giving the order of the counts,
+ * monoisotopic or average mass, perderivatization type and reducing end. The
+ * coefficient of each residue and the base mass are computed once on
+ * creation.
+ */
+public class MassOptions {
+
+	private ResidueMassIncrements m_massIncrements;
+	private double[] m_aCoefficients;
+	private long[] m_aFixedCoefficients;
+	private int[] m_aLinkageUnits;
+
+	/**
+	 * @param lRess          List of residue types, the index of each residue type
+	 *                       is used for the counts
+	 * @param isMonoisotopic {@code true} for monoisotopic mass, {@code false} for
+	 *                       average mass
+	 * @param perDeriv       PerderivatizationType for perderivatization
+	 *                       ({@code null} if no derivatization type is specified)
+	 * @param redEnd         SubstituentType of the reducing end ({@code null} for
+	 *                       free end)
+	 */
+	public MassOptions(List<ResidueType> lRess, boolean isMonoisotopic, PerderivatizationType perDeriv,
+			SubstituentType redEnd) {
+		this(new ResidueMassIncrements(lRess, isMonoisotopic, perDeriv, redEnd));
+	}
+
+	/**
+	 * Creates mass options from the given residue mass increments.
+	 *
+	 * @param massIncrements ResidueMassIncrements
+	 */
+	public MassOptions(ResidueMassIncrements massIncrements) {
+		this.m_massIncrements = massIncrements;
+		int nRess = massIncrements.getNumberOfResidueTypes();
+		this.m_aCoefficients = new double[nRess];
+		this.m_aFixedCoefficients = new long[nRess];
+		this.m_aLinkageUnits = new int[nRess];
+		for (int i = 0; i < nRess; i++) {
+			this.m_aCoefficients[i] = massIncrements.getIncrement(i);
+			this.m_aFixedCoefficients[i] = massIncrements.getFixedIncrement(i);
+			this.m_aLinkageUnits[i] = massIncrements.getLinkageUnit(i);
+		}
+	}
+
+	/**
+	 * Creates mass options of the given residue types with the mass options and
+	 * reducing end of the given composition.
+	 *
+	 * @param lRess List of residue types
+	 * @param comp  Composition having the mass options and reducing end
+	 */
+	public static MassOptions forComposition(List<ResidueType> lRess, Composition comp) {
+		return new MassOptions(ResidueMassIncrements.forComposition(lRess, comp));
+	}
+
+	public ResidueMassIncrements getMassIncrements() {
+		return this.m_massIncrements;
+	}
+
+	public List<ResidueType> getResidueTypes() {
+		return this.m_massIncrements.getResidueTypes();
+	}
+
+	public int getNumberOfResidueTypes() {
+		return this.m_aCoefficients.length;
+	}
+
+	/**
+	 * Returns the mass coefficients of the residues, which must not be modified.
+	 */
+	double[] getCoefficients() {
+		return this.m_aCoefficients;
+	}
+
+	/**
+	 * Returns the fixed-point mass coefficients of the residues, which must not be
+	 * modified.
+	 */
+	long[] getFixedCoefficients() {
+		return this.m_aFixedCoefficients;
+	}
+
+	/**
+	 * Returns the linkage units of the residues, which must not be modified.
+	 */
+	int[] getLinkageUnits() {
+		return this.m_aLinkageUnits;
+	}
+
+	public double getBaseMass() {
+		return this.m_massIncrements.getBaseMass();
+	}
+
+	public long getFixedBaseMass() {
+		return this.m_massIncrements.getFixedBaseMass();
+	}
+
+	public boolean hasReducingEnd() {
+		return this.m_massIncrements.getReducingEnd() != null;
+	}
+}
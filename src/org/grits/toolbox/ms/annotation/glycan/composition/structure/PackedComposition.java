@@ -0,0 +1,237 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.structure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
+
+/**
+ * Codec packing compositions over a fixed residue alphabet into one or two
+ * {@code long} words. Each residue has a bit field sized from its count in the
+ * maximum composition, and a field never spans two words. If the maximum
+ * composition has a reducing end, one more bit tells whether the reducing end
+ * is attached. The mass options are shared by all compositions of a codec.<br>
+ * Packed values of the same codec are equal if and only if the compositions
+ * are equal, so they can be hashed and compared as primitives.
+ */
+public class PackedComposition {
+
+	private static final int WORD_BITS = 64;
+	private static final int MAX_WORDS = 2;
+
+	private List<ResidueType> m_lRess;
+	private int[] m_aMaxCounts;
+	private int[] m_aWords;
+	private int[] m_aShifts;
+	private long[] m_aMasks;
+	private SubstituentType m_redEndType;
+	private int m_iRedEndWord;
+	private int m_iRedEndShift;
+	private boolean m_bIsMonoisotopic;
+	private PerderivatizationType m_perderivType;
+	private int m_nWords;
+
+	/**
+	 * Creates a codec for the residue types, reducing end and mass options of the
+	 * given maximum composition.
+	 *
+	 * @param compMax Composition with a maximum residue set
+	 * @throws IllegalArgumentException if the counts do not fit in two words
+	 */
+	public PackedComposition(Composition compMax) {
+		this(new ArrayList<>(compMax.getResidueTypes()), compMax);
+	}
+
+	/**
+	 * Creates a codec for the given residue types. The bit fields are sized from
+	 * the counts in the given maximum composition.
+	 *
+	 * @param lRess   List of residue types, the order of the bit fields
+	 * @param compMax Composition with a maximum residue set, also giving the
+	 *                reducing end and mass options
+	 * @throws IllegalArgumentException if the counts do not fit in two words
+	 */
+	public PackedComposition(List<ResidueType> lRess, Composition compMax) {
+		this.m_lRess = new ArrayList<>(lRess);
+		this.m_redEndType = compMax.getReducingEnd();
+		this.m_bIsMonoisotopic = compMax.isMonoisotopicMass();
+		this.m_perderivType = compMax.getPerderivatizationType();
+
+		int nRess = this.m_lRess.size();
+		this.m_aMaxCounts = new int[nRess];
+		this.m_aWords = new int[nRess];
+		this.m_aShifts = new int[nRess];
+		this.m_aMasks = new long[nRess];
+		int iWord = 0;
+		int iShift = 0;
+		for (int i = 0; i < nRess; i++) {
+			this.m_aMaxCounts[i] = Math.max(compMax.getNumberOfResidue(this.m_lRess.get(i)), 0);
+			int nBits = WORD_BITS - Long.numberOfLeadingZeros(this.m_aMaxCounts[i]);
+			if (iShift + nBits > WORD_BITS) {
+				iWord++;
+				iShift = 0;
+			}
+			this.m_aWords[i] = iWord;
+			this.m_aShifts[i] = iShift;
+			this.m_aMasks[i] = (1L << nBits) - 1;
+			iShift += nBits;
+		}
+		if (this.m_redEndType != null) {
+			if (iShift + 1 > WORD_BITS) {
+				iWord++;
+				iShift = 0;
+			}
+			this.m_iRedEndWord = iWord;
+			this.m_iRedEndShift = iShift;
+			iShift++;
+		}
+		this.m_nWords = iWord + 1;
+		if (this.m_nWords > MAX_WORDS)
+			throw new IllegalArgumentException("The composition can not be packed into two words: " + compMax);
+	}
+
+	/**
+	 * Returns the list of residue types.
+	 */
+	public List<ResidueType> getResidueTypes() {
+		return this.m_lRess;
+	}
+
+	/**
+	 * Returns the number of {@code long} words for a packed composition.
+	 */
+	public int getNumberOfWords() {
+		return this.m_nWords;
+	}
+
+	/**
+	 * Packs the given composition into the words starting at the given offset.
+	 *
+	 * @param comp    Composition to be packed
+	 * @param aWords  Array of words to be written
+	 * @param iOffset offset of the first word
+	 * @throws IllegalArgumentException if the composition is not in the range of
+	 *                                  this codec
+	 */
+	public void encode(Composition comp, long[] aWords, int iOffset) {
+		for (int w = 0; w < this.m_nWords; w++)
+			aWords[iOffset + w] = 0L;
+		int nPacked = 0;
+		for (int i = 0; i < this.m_lRess.size(); i++) {
+			int n = comp.getNumberOfResidue(this.m_lRess.get(i));
+			if (n <= 0)
+				continue;
+			if (n > this.m_aMaxCounts[i])
+				throw new IllegalArgumentException("The count exceeds the maximum: " + comp);
+			aWords[iOffset + this.m_aWords[i]] |= ((long) n) << this.m_aShifts[i];
+			nPacked++;
+		}
+		// Residues out of the alphabet can not be packed
+		if (nPacked != comp.getResidueTypes().size())
+			throw new IllegalArgumentException("The composition has unknown residues: " + comp);
+		if (comp.getReducingEnd() != null) {
+			if (comp.getReducingEnd() != this.m_redEndType)
+				throw new IllegalArgumentException("The reducing end is different: " + comp);
+			aWords[iOffset + this.m_iRedEndWord] |= 1L << this.m_iRedEndShift;
+		}
+	}
+
+	/**
+	 * Packs the given composition into a single word.
+	 *
+	 * @param comp Composition to be packed
+	 * @return the packed word
+	 * @throws IllegalStateException if this codec needs two words
+	 */
+	public long encode(Composition comp) {
+		checkSingleWord();
+		long[] aWords = new long[1];
+		encode(comp, aWords, 0);
+		return aWords[0];
+	}
+
+	/**
+	 * Packs the given residue counts into the words starting at the given offset.
+	 *
+	 * @param aCounts    Array of residue counts in the order of the residue types
+	 * @param bHasRedEnd {@code true} if the reducing end is attached
+	 * @param aWords     Array of words to be written
+	 * @param iOffset    offset of the first word
+	 */
+	public void encode(int[] aCounts, boolean bHasRedEnd, long[] aWords, int iOffset) {
+		for (int w = 0; w < this.m_nWords; w++)
+			aWords[iOffset + w] = 0L;
+		for (int i = 0; i < this.m_lRess.size(); i++) {
+			if (aCounts[i] < 0 || aCounts[i] > this.m_aMaxCounts[i])
+				throw new IllegalArgumentException("The count is out of range: " + aCounts[i]);
+			aWords[iOffset + this.m_aWords[i]] |= ((long) aCounts[i]) << this.m_aShifts[i];
+		}
+		if (bHasRedEnd && this.m_redEndType != null)
+			aWords[iOffset + this.m_iRedEndWord] |= 1L << this.m_iRedEndShift;
+	}
+
+	/**
+	 * Returns the count of the residue at the given index from the packed words.
+	 */
+	public int getCount(long[] aWords, int iOffset, int iResidue) {
+		return (int) ((aWords[iOffset + this.m_aWords[iResidue]] >>> this.m_aShifts[iResidue])
+				& this.m_aMasks[iResidue]);
+	}
+
+	/**
+	 * Returns the count of the residue at the given index from the single packed
+	 * word.
+	 */
+	public int getCount(long lWord, int iResidue) {
+		return (int) ((lWord >>> this.m_aShifts[iResidue]) & this.m_aMasks[iResidue]);
+	}
+
+	/**
+	 * Returns {@code true} if the reducing end is attached in the packed words.
+	 */
+	public boolean hasReducingEnd(long[] aWords, int iOffset) {
+		if (this.m_redEndType == null)
+			return false;
+		return ((aWords[iOffset + this.m_iRedEndWord] >>> this.m_iRedEndShift) & 1L) != 0;
+	}
+
+	/**
+	 * Unpacks the composition from the words starting at the given offset.
+	 *
+	 * @param aWords  Array of packed words
+	 * @param iOffset offset of the first word
+	 * @return Composition having the mass options of this codec
+	 */
+	public Composition decode(long[] aWords, int iOffset) {
+		Composition comp = new Composition();
+		comp.setMassOptions(this.m_bIsMonoisotopic, this.m_perderivType);
+		for (int i = 0; i < this.m_lRess.size(); i++) {
+			int n = getCount(aWords, iOffset, i);
+			if (n == 0)
+				continue;
+			comp.addResidues(this.m_lRess.get(i), n);
+		}
+		if (hasReducingEnd(aWords, iOffset))
+			comp.setReducingEnd(this.m_redEndType);
+		return comp;
+	}
+
+	/**
+	 * Unpacks the composition from the single packed word.
+	 *
+	 * @param lWord the packed word
+	 * @return Composition having the mass options of this codec
+	 * @throws IllegalStateException if this codec needs two words
+	 */
+	public Composition decode(long lWord) {
+		checkSingleWord();
+		return decode(new long[] { lWord }, 0);
+	}
+
+	private void checkSingleWord() {
+		if (this.m_nWords != 1)
+			throw new IllegalStateException("The packed composition needs " + this.m_nWords + " words");
+	}
+}
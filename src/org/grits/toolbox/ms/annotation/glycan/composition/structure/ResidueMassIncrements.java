@@ -0,0 +1,285 @@
+package org.grits.toolbox.ms.annotation.glycan.composition.structure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.grits.toolbox.ms.annotation.glycan.composition.molecule.MoleculeUtils;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.modification.PerderivatizationType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.ResidueType;
+import org.grits.toolbox.ms.annotation.glycan.composition.structure.residue.SubstituentType;
+
+/**
+ * Class for the mass increments of residues under fixed mass options
+ * (monoisotopic or average, perderivatization type and reducing end). The mass
+ * of a non-empty composition is the base mass plus the sum of the residue
+ * increments, which is the same calculation as {@link Composition#computeMass()}
+ * with the water loss and perderivatization per glycosidic linkage distributed
+ * to each residue. This allows enumerators to keep a running mass updated in
+ * O(1) per residue count change.
+ */
+public class ResidueMassIncrements {
+
+	private List<ResidueType> m_lRess;
+	private double[] m_aIncrements;
+	private int[] m_aLinkageUnits;
+	private double m_dBaseMass;
+	// Fixed-point increments and base mass (see MassCalculator#toFixedMass(double))
+	private long[] m_aFixedIncrements;
+	private long m_lFixedBaseMass;
+	private SubstituentType m_redEndType;
+	private boolean m_bIsMonoisotopic;
+	private PerderivatizationType m_perderivType;
+
+	/**
+	 * @param lRess          List of residue types, the index of each residue type
+	 *                       is used for the counts
+	 * @param isMonoisotopic {@code true} for monoisotopic mass, {@code false} for
+	 *                       average mass
+	 * @param perDeriv       PerderivatizationType for perderivatization
+	 *                       ({@code null} if no derivatization type is specified)
+	 * @param redEnd         SubstituentType of the reducing end ({@code null} for
+	 *                       free end)
+	 */
+	public ResidueMassIncrements(List<ResidueType> lRess, boolean isMonoisotopic, PerderivatizationType perDeriv,
+			SubstituentType redEnd) {
+		this.m_lRess = new ArrayList<>(lRess);
+		this.m_bIsMonoisotopic = isMonoisotopic;
+		this.m_perderivType = perDeriv;
+		this.m_redEndType = redEnd;
+		initialize();
+	}
+
+	/**
+	 * Creates mass increments of the given residue types with the mass options
+	 * and reducing end of the given composition.
+	 *
+	 * @param lRess List of residue types
+	 * @param comp  Composition having the mass options and reducing end
+	 */
+	public static ResidueMassIncrements forComposition(List<ResidueType> lRess, Composition comp) {
+		return new ResidueMassIncrements(lRess, comp.isMonoisotopicMass(), comp.getPerderivatizationType(),
+				comp.getReducingEnd());
+	}
+
+	private void initialize() {
+		double dWater = (this.m_bIsMonoisotopic) ? MoleculeUtils.water.getMonoisotopicMass()
+				: MoleculeUtils.water.getAverageMass();
+		// Mass for a perderivatized position
+		double dPerDeriv = 0d;
+		if (this.m_perderivType != null)
+			dPerDeriv = (this.m_bIsMonoisotopic)
+					? this.m_perderivType.getMonoisotopicMass() - MoleculeUtils.hydrogen.getMonoisotopicMass()
+					: this.m_perderivType.getAverageMass() - MoleculeUtils.hydrogen.getAverageMass();
+
+		long lWater = MassCalculator.toFixedMass(dWater);
+		long lPerDeriv = MassCalculator.toFixedMass(dPerDeriv);
+
+		int nRess = this.m_lRess.size();
+		this.m_aIncrements = new double[nRess];
+		this.m_aFixedIncrements = new long[nRess];
+		this.m_aLinkageUnits = new int[nRess];
+		for (int i = 0; i < nRess; i++) {
+			ResidueType type = this.m_lRess.get(i);
+			// Residues dropped with perderivatization have no mass and no linkage
+			if (isDropped(type))
+				continue;
+			this.m_aLinkageUnits[i] = 1;
+			// Each residue adds a linkage which loses water and two perderivatized positions
+			int nPerDeriv = getNumPerderivatizations(type) - 2;
+			this.m_aIncrements[i] = getMass(type) - dWater + nPerDeriv * dPerDeriv;
+			this.m_aFixedIncrements[i] = MassCalculator.toFixedMass(getMass(type)) - lWater + nPerDeriv * lPerDeriv;
+		}
+
+		// The first residue has no linkage
+		this.m_dBaseMass = dWater + 2 * dPerDeriv;
+		this.m_lFixedBaseMass = lWater + 2 * lPerDeriv;
+		if (this.m_redEndType != null) {
+			double dRedEnd = getMass(this.m_redEndType)
+					+ ((this.m_bIsMonoisotopic) ? MoleculeUtils.hydrogen_mol.getMonoisotopicMass()
+							: MoleculeUtils.hydrogen_mol.getAverageMass());
+			int nPerDeriv = getNumPerderivatizations(this.m_redEndType) - 2;
+			this.m_dBaseMass += dRedEnd - dWater + nPerDeriv * dPerDeriv;
+			this.m_lFixedBaseMass += MassCalculator.toFixedMass(dRedEnd) - lWater + nPerDeriv * lPerDeriv;
+		}
+	}
+
+	private boolean isDropped(ResidueType type) {
+		if (this.m_perderivType == null || !(type instanceof SubstituentType))
+			return false;
+		SubstituentType subst = (SubstituentType) type;
+		if (this.m_perderivType.isMethylation() && subst.isDroppedWithMethylation())
+			return true;
+		if (this.m_perderivType.isAcetylation() && subst.isDroppedWithAcetylation())
+			return true;
+		return false;
+	}
+
+	private double getMass(ResidueType type) {
+		return (this.m_bIsMonoisotopic) ? type.getMonoisotopicMass() : type.getAverageMass();
+	}
+
+	private int getNumPerderivatizations(ResidueType type) {
+		if (this.m_perderivType == null)
+			return 0;
+		return (this.m_perderivType.isMethylation()) ? type.getNumMethylations()
+				: (this.m_perderivType.isAcetylation()) ? type.getNumAcethylations() : 0;
+	}
+
+	/**
+	 * Returns the list of residue types.
+	 */
+	public List<ResidueType> getResidueTypes() {
+		return this.m_lRess;
+	}
+
+	public int getNumberOfResidueTypes() {
+		return this.m_lRess.size();
+	}
+
+	/**
+	 * Returns the mass increment by adding a residue at the given index.
+	 */
+	public double getIncrement(int i) {
+		return this.m_aIncrements[i];
+	}
+
+	/**
+	 * Returns the fixed-point mass increment by adding a residue at the given
+	 * index.
+	 */
+	public long getFixedIncrement(int i) {
+		return this.m_aFixedIncrements[i];
+	}
+
+	/**
+	 * Returns {@code 1} if the residue at the given index makes a glycosidic
+	 * linkage, or {@code 0} if it is dropped with perderivatization.
+	 */
+	public int getLinkageUnit(int i) {
+		return this.m_aLinkageUnits[i];
+	}
+
+	/**
+	 * Returns the mass of a composition without the residue increments, which is
+	 * valid only for a non-empty composition.
+	 */
+	public double getBaseMass() {
+		return this.m_dBaseMass;
+	}
+
+	/**
+	 * Returns the fixed-point mass of a composition without the residue
+	 * increments, which is valid only for a non-empty composition.
+	 */
+	public long getFixedBaseMass() {
+		return this.m_lFixedBaseMass;
+	}
+
+	public SubstituentType getReducingEnd() {
+		return this.m_redEndType;
+	}
+
+	public boolean isMonoisotopicMass() {
+		return this.m_bIsMonoisotopic;
+	}
+
+	public PerderivatizationType getPerderivatizationType() {
+		return this.m_perderivType;
+	}
+
+	/**
+	 * Returns {@code true} if no residue decreases the mass, which means the mass
+	 * of a composition is monotone in the residue counts.
+	 */
+	public boolean isMonotone() {
+		for (int i = 0; i < this.m_aIncrements.length; i++) {
+			if (this.m_aIncrements[i] < 0)
+				return false;
+			// The first residue adds the base mass, too
+			if (this.m_redEndType == null && this.m_dBaseMass + this.m_aIncrements[i] < 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the mass from the sum of residue increments and the number of
+	 * residues making linkages.
+	 *
+	 * @param dIncrements   the sum of the increments of all residues
+	 * @param nLinkageUnits the sum of linkage units of all residues
+	 * @return the mass of the composition
+	 */
+	public double computeMass(double dIncrements, int nLinkageUnits) {
+		if (nLinkageUnits == 0 && this.m_redEndType == null)
+			return 0d;
+		return this.m_dBaseMass + dIncrements;
+	}
+
+	/**
+	 * Calculates the mass from the residue counts.
+	 *
+	 * @param counts Array of residue counts in the order of the residue types
+	 * @return the mass of the composition
+	 */
+	public double computeMass(int[] counts) {
+		double dIncrements = 0d;
+		int nLinkageUnits = 0;
+		for (int i = 0; i < this.m_aIncrements.length; i++) {
+			dIncrements += counts[i] * this.m_aIncrements[i];
+			nLinkageUnits += counts[i] * this.m_aLinkageUnits[i];
+		}
+		return computeMass(dIncrements, nLinkageUnits);
+	}
+
+	/**
+	 * Calculates the mass of the given composition. The residues not contained in
+	 * the residue types of this object are ignored.
+	 *
+	 * @param comp Composition
+	 * @return the mass of the composition
+	 */
+	public double computeMass(Composition comp) {
+		double dIncrements = 0d;
+		int nLinkageUnits = 0;
+		for (int i = 0; i < this.m_aIncrements.length; i++) {
+			int n = comp.getNumberOfResidue(this.m_lRess.get(i));
+			if (n <= 0)
+				continue;
+			dIncrements += n * this.m_aIncrements[i];
+			nLinkageUnits += n * this.m_aLinkageUnits[i];
+		}
+		return computeMass(dIncrements, nLinkageUnits);
+	}
+
+	/**
+	 * Calculates the fixed-point mass from the sum of fixed-point residue
+	 * increments and the number of residues making linkages.
+	 *
+	 * @param lIncrements   the sum of the fixed-point increments of all residues
+	 * @param nLinkageUnits the sum of linkage units of all residues
+	 * @return the fixed-point mass of the composition, which is the same as
+	 *         {@link Composition#computeFixedMass()}
+	 */
+	public long computeFixedMass(long lIncrements, int nLinkageUnits) {
+		if (nLinkageUnits == 0 && this.m_redEndType == null)
+			return 0L;
+		return this.m_lFixedBaseMass + lIncrements;
+	}
+
+	/**
+	 * Calculates the fixed-point mass from the residue counts.
+	 *
+	 * @param counts Array of residue counts in the order of the residue types
+	 * @return the fixed-point mass of the composition
+	 */
+	public long computeFixedMass(int[] counts) {
+		long lIncrements = 0L;
+		int nLinkageUnits = 0;
+		for (int i = 0; i < this.m_aFixedIncrements.length; i++) {
+			lIncrements += counts[i] * this.m_aFixedIncrements[i];
+			nLinkageUnits += counts[i] * this.m_aLinkageUnits[i];
+		}
+		return computeFixedMass(lIncrements, nLinkageUnits);
+	}
+}
@@ -15,6 +15,9 @@ public class CustomSubstituentType extends SubstituentType {
 
 		this.m_dMonoisotopicMass = mass;
 		this.m_dAverageMass = mass;
+
+		// Custom types of the same name and mass share the ordinal
+		ResidueDictionary.assignOrdinal(this, false);
 	}
 
 	public String toString() {
@@ -1,7 +1,9 @@
 package org.grits.toolbox.ms.annotation.glycan.composition.structure.residue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
@@ -39,6 +41,21 @@ public class ResidueDictionary {
 	private static HashMap<String, SubstituentType> mapNameToSubsts;
 	private static HashMap<String, SubstituentType> mapNameToRedEnds;
 
+	// Dense ordinals of residue types including reducing ends and custom
+	// substituents, which are kept over initialization since compositions index
+	// their residue counts by them
+	private static HashMap<String, Integer> mapKeyToOrdinal = new HashMap<>();
+	private static volatile ResidueType[] aOrdinalToResidue = new ResidueType[0];
+	private static volatile int[] aSortedOrdinals = new int[0];
+	// Properties of residue types indexed by the ordinals
+	private static volatile double[] aMonoisotopicMasses = new double[0];
+	private static volatile double[] aAverageMasses = new double[0];
+	private static volatile int[] aMaxLinkages = new int[0];
+	private static volatile int[] aNumMethylations = new int[0];
+	private static volatile int[] aNumAcethylations = new int[0];
+	private static volatile boolean[] aIsMonosaccharide = new boolean[0];
+	private static volatile boolean[] aIsSubstituent = new boolean[0];
+
 	/**
 	 * Initializes all dictionaries
 	 */
@@ -93,6 +110,176 @@ public class ResidueDictionary {
 		return null;
 	}
 
+	// ------------------------------
+	// For ordinals of residue types
+
+	/**
+	 * Returns the number of ordinals assigned to residue types.
+	 */
+	public static int getNumberOfOrdinals() {
+		return aOrdinalToResidue.length;
+	}
+
+	/**
+	 * Returns the residue type with the given ordinal. The residue type last
+	 * loaded is returned if the residue types of the same string form are loaded
+	 * more than once.
+	 * 
+	 * @param iOrdinal the ordinal of residue type
+	 * @see ResidueType#getOrdinal()
+	 */
+	public static ResidueType getResidueTypeByOrdinal(int iOrdinal) {
+		return aOrdinalToResidue[iOrdinal];
+	}
+
+	/**
+	 * Returns the monoisotopic mass of the residue type with the given ordinal.
+	 * 
+	 * @see ResidueType#getMonoisotopicMass()
+	 */
+	public static double getMonoisotopicMass(int iOrdinal) {
+		return aMonoisotopicMasses[iOrdinal];
+	}
+
+	/**
+	 * Returns the average mass of the residue type with the given ordinal.
+	 * 
+	 * @see ResidueType#getAverageMass()
+	 */
+	public static double getAverageMass(int iOrdinal) {
+		return aAverageMasses[iOrdinal];
+	}
+
+	/**
+	 * Returns the maximum number of linkages of the residue type with the given
+	 * ordinal.
+	 * 
+	 * @see ResidueType#getMaxLinkages()
+	 */
+	public static int getMaxLinkages(int iOrdinal) {
+		return aMaxLinkages[iOrdinal];
+	}
+
+	/**
+	 * Returns the number of permethylation positions of the residue type with the
+	 * given ordinal.
+	 * 
+	 * @see ResidueType#getNumMethylations()
+	 */
+	public static int getNumMethylations(int iOrdinal) {
+		return aNumMethylations[iOrdinal];
+	}
+
+	/**
+	 * Returns the number of peracetylation positions of the residue type with the
+	 * given ordinal.
+	 * 
+	 * @see ResidueType#getNumAcethylations()
+	 */
+	public static int getNumAcethylations(int iOrdinal) {
+		return aNumAcethylations[iOrdinal];
+	}
+
+	/**
+	 * Returns whether the residue type with the given ordinal is a
+	 * monosaccharide.
+	 */
+	public static boolean isMonosaccharide(int iOrdinal) {
+		return aIsMonosaccharide[iOrdinal];
+	}
+
+	/**
+	 * Returns whether the residue type with the given ordinal is a substituent
+	 * including reducing ends.
+	 */
+	public static boolean isSubstituent(int iOrdinal) {
+		return aIsSubstituent[iOrdinal];
+	}
+
+	/**
+	 * Returns all the ordinals in order of the residue types. The returned array
+	 * is shared and must not be modified.
+	 */
+	public static int[] getSortedOrdinals() {
+		return aSortedOrdinals;
+	}
+
+	/**
+	 * Assigns the ordinal of the given residue type. The residue types having the
+	 * same string form share the ordinal.
+	 * 
+	 * @param type     ResidueType to be assigned
+	 * @param bReplace {@code true} if the residue type replaces the one already
+	 *                 having the ordinal
+	 * @return the ordinal of the residue type
+	 */
+	static synchronized int assignOrdinal(ResidueType type, boolean bReplace) {
+		String strKey = type.toString();
+		Integer iOrdinal = mapKeyToOrdinal.get(strKey);
+		if (iOrdinal == null) {
+			iOrdinal = aOrdinalToResidue.length;
+			mapKeyToOrdinal.put(strKey, iOrdinal);
+			ResidueType[] aTypes = Arrays.copyOf(aOrdinalToResidue, iOrdinal + 1);
+			aTypes[iOrdinal] = type;
+			setProperties(iOrdinal, type);
+			aSortedOrdinals = sortOrdinals(aTypes);
+			aOrdinalToResidue = aTypes;
+		} else if (bReplace) {
+			ResidueType[] aTypes = aOrdinalToResidue.clone();
+			aTypes[iOrdinal] = type;
+			setProperties(iOrdinal, type);
+			aOrdinalToResidue = aTypes;
+		}
+		type.setOrdinal(iOrdinal);
+		return iOrdinal;
+	}
+
+	/**
+	 * Sets the properties of the given residue type to copies of the property
+	 * arrays, which are published before the residue type array.
+	 */
+	private static void setProperties(int iOrdinal, ResidueType type) {
+		int nLength = Math.max(aMonoisotopicMasses.length, iOrdinal + 1);
+		double[] aMonos = Arrays.copyOf(aMonoisotopicMasses, nLength);
+		double[] aAvgs = Arrays.copyOf(aAverageMasses, nLength);
+		int[] aLinks = Arrays.copyOf(aMaxLinkages, nLength);
+		int[] aMethyls = Arrays.copyOf(aNumMethylations, nLength);
+		int[] aAcetyls = Arrays.copyOf(aNumAcethylations, nLength);
+		boolean[] aMSs = Arrays.copyOf(aIsMonosaccharide, nLength);
+		boolean[] aSubsts = Arrays.copyOf(aIsSubstituent, nLength);
+		aMonos[iOrdinal] = type.getMonoisotopicMass();
+		aAvgs[iOrdinal] = type.getAverageMass();
+		aLinks[iOrdinal] = type.getMaxLinkages();
+		aMethyls[iOrdinal] = type.getNumMethylations();
+		aAcetyls[iOrdinal] = type.getNumAcethylations();
+		aMSs[iOrdinal] = (type instanceof MonosaccharideType);
+		aSubsts[iOrdinal] = (type instanceof SubstituentType);
+		aMonoisotopicMasses = aMonos;
+		aAverageMasses = aAvgs;
+		aMaxLinkages = aLinks;
+		aNumMethylations = aMethyls;
+		aNumAcethylations = aAcetyls;
+		aIsMonosaccharide = aMSs;
+		aIsSubstituent = aSubsts;
+	}
+
+	private static int[] sortOrdinals(final ResidueType[] aTypes) {
+		Integer[] aOrdinals = new Integer[aTypes.length];
+		for (int i = 0; i < aTypes.length; i++)
+			aOrdinals[i] = i;
+		// The order of residue types with the same name is kept by the stable sort
+		Arrays.sort(aOrdinals, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return aTypes[i1].compareTo(aTypes[i2]);
+			}
+		});
+		int[] aSorted = new int[aOrdinals.length];
+		for (int i = 0; i < aOrdinals.length; i++)
+			aSorted[i] = aOrdinals[i];
+		return aSorted;
+	}
+
 	// ------------------------------
 	// For reducing end types
 
@@ -137,6 +324,8 @@ public class ResidueDictionary {
 		try {
 			List<SubstituentType> types = loadSubstituentTypeDictionary(filename, true);
 			for (SubstituentType type : types) {
+				// A substituent of the same name keeps its ordinal
+				assignOrdinal(type, false);
 				mapNameToRedEnds.put(type.getName().toLowerCase(), type);
 				for (String s : type.getSynonyms())
 					mapNameToRedEnds.put(s.toLowerCase(), type);
@@ -191,6 +380,7 @@ public class ResidueDictionary {
 		try {
 			List<SubstituentType> types = loadSubstituentTypeDictionary(filename, false);
 			for (SubstituentType type : types) {
+				assignOrdinal(type, true);
 				mapNameToSubsts.put(type.getName().toLowerCase(), type);
 				for (String s : type.getSynonyms())
 					mapNameToSubsts.put(s.toLowerCase(), type);
@@ -287,6 +477,7 @@ public class ResidueDictionary {
 		try {
 			List<MonosaccharideType> mss = loadMonosaccharideTypeDictionary(filename);
 			for (MonosaccharideType type : mss) {
+				assignOrdinal(type, true);
 				mapNameToMSs.put(type.getName().toLowerCase(), type);
 				for (String s : type.getSynonyms())
 					mapNameToMSs.put(s.toLowerCase(), type);
@@ -17,6 +17,9 @@ public abstract class ResidueType implements Comparable<ResidueType> {
 	protected int m_nLinkages;
 	protected boolean m_bIsAcid;
 
+	// Dense ordinal assigned by ResidueDictionary, -1 until it is assigned
+	private int m_iOrdinal;
+
 	public ResidueType(String name, List<String> synonyms, String desc) {
 		this.m_strName = name;
 		this.m_lSynonyms = synonyms;
@@ -30,6 +33,8 @@ public abstract class ResidueType implements Comparable<ResidueType> {
 		this.m_nAcetyl = 1;
 		this.m_nLinkages = 1;
 		this.m_bIsAcid = false;
+
+		this.m_iOrdinal = -1;
 	}
 
 	/**
@@ -102,6 +107,25 @@ public abstract class ResidueType implements Comparable<ResidueType> {
 		return this.m_strDesc;
 	}
 
+	/**
+	 * Returns the dense ordinal of this residue type indexing the residue counts
+	 * of compositions. Residue types having the same string form share the
+	 * ordinal. The ordinal is assigned on first request if this residue type is
+	 * not loaded by ResidueDictionary.
+	 * 
+	 * @see ResidueDictionary#getResidueTypeByOrdinal(int)
+	 */
+	public int getOrdinal() {
+		int iOrdinal = this.m_iOrdinal;
+		if (iOrdinal < 0)
+			iOrdinal = ResidueDictionary.assignOrdinal(this, false);
+		return iOrdinal;
+	}
+
+	void setOrdinal(int iOrdinal) {
+		this.m_iOrdinal = iOrdinal;
+	}
+
 	/**
 	 * Calculates composition, average mass and exact mass, using Molecule object
 	 */